@@ -68,10 +68,22 @@
                     ;;:compile-opts {:direct-linking true}
                     :class-dir class-dir})))
 
+(defn- generate-countdown-table
+  "Run org.goat.util.CountdownTable to write the table to path.
+  Needs the Java sources compiled."
+  [path]
+  (let [cmd (b/java-command {:basis basis
+                             :cp [class-dir]
+                             :main 'org.goat.util.CountdownTable
+                             :main-args [path]})]
+    (b/process cmd)))
+
 (defn uber [_]
   (clean nil)
   (compile-java nil)
   (compile-clojure nil)
+  ;; the Countdown table goes in the jar, where the module finds it on the classpath
+  (generate-countdown-table (str class-dir "/countdown.table"))
 
   (let [uber-file (str "target/" (uberjar-name))]
     (println "Creating uberjar:" uber-file)
@@ -98,6 +110,14 @@
 
   (println "Jar created successfully!"))
 
+(defn countdown-table
+  "Generate resources/countdown.table, the precomputed Countdown answers
+  that the numbers round memory-maps at runtime. resources/ is on the
+  classpath, so running from the source tree picks it up."
+  [_]
+  (compile-java nil)
+  (generate-countdown-table "resources/countdown.table"))
+
 (defn compile-all [_]
   (clean nil)
   (compile-java nil)
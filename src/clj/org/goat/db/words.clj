@@ -93,3 +93,8 @@
   "Check the given word is in the defs dictionary."
   [word]
   (seq (query db ["select * from defs where word=? limit 1" (clojure.string/upper-case word)])))
+
+(defn all-words
+  "Every distinct word in the defs dictionary, upper case."
+  []
+  (map :word (query db ["select distinct word from defs"])))
@@ -1,56 +1,66 @@
 (ns org.goat.module.Calc
-  "Calculator module - wraps the jcalc Calculator with timeout protection.
-  Evaluates mathematical expressions with a 2-second timeout to prevent
-  long-running calculations from blocking."
+  "Calculator module - wraps the jcalc Calculator.
+  Each evaluation is held to a compute budget of about two seconds' work,
+  so a runaway calculation stops itself. Work the budget doesn't charge
+  for is caught by a wall-clock backstop, which interrupts the calculation
+  and replies anyway. Each chat gets its own
+  calculator, so ans(n), entry(n) and setscale(n) only see that chat.
+  Answers of more than 10000 digits are summarised as their digit count
+  and first and last digits; \"calc all digits <expression>\" gives
+  them in full. sum, product, min, max, avg and table also work over a
+  range, as in sum(1/n^2, n, 1, 100000)."
   (:require [org.goat.core.macros :refer [defmodule]]
             [org.goat.core.message :as msg])
-  (:import [org.goat.jcalc Calculator CalculatorException]
-           [java.util.concurrent TimeoutException ExecutionException
-            CancellationException]))
+  (:import [org.goat.jcalc CalculatorSessions CalculatorException
+            ComputeBudget$Exceeded]))
 
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
 ;; CALCULATOR ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
 
-(def calculator
-  "Shared Calculator instance for evaluating expressions"
-  (Calculator.))
+(def sessions
+  "A calculator per chat, made on first use and dropped when idle"
+  (CalculatorSessions.))
+
+(def ^:private backstop-ms
+  "How long to wait for an answer before giving up on it, budget or no
+  budget: well past what the budget allows, so it only catches work that
+  isn't charged for."
+  10000)
 
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
 ;; EVALUATION LOGIC ;;;;;;;;;;;;;;;;;;;;;;
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
 
-(defn- evaluate-with-timeout
-  "Evaluate expression with 2-second timeout.
+(defn- evaluate
+  "Evaluate expression in the chat's calculator, within its compute budget
+  and the wall-clock backstop.
+  Long answers are summarised unless all-digits? is true.
   Returns result string or error message."
-  [expression]
-  (let [computation (future
-                      (try
-                        (.evaluate_equation calculator expression)
-                        (catch CalculatorException e
-                          {:error (.getLocalizedMessage e)})
-                        (catch InterruptedException e
-                          {:error "I'm sorry, where were we before we were so rudely interrupted?"})))]
-    (try
-      ;; Wait up to 2000ms for result
-      (let [result (deref computation 2000 :timeout)]
-        (if (= result :timeout)
-          (do
-            ;; Cancel the future to interrupt the calculation
-            (future-cancel computation)
-            "I'm not thinking that hard, wanker.")
-          ;; Check if we got an error map or a string result
-          (if (map? result)
-            (:error result)
-            result)))
-      (catch CancellationException _
-        "I've gone ahead and cancelled that computation for you.  Asshat.")
-      (catch ExecutionException e
-        (if-let [cause (.getCause e)]
-          (.getLocalizedMessage cause)
-          "An error occurred during calculation"))
-      (catch Exception e
-        (.getLocalizedMessage e)))))
+  ([expression]
+   (evaluate nil expression))
+  ([chat-id expression]
+   (evaluate chat-id expression false))
+  ([chat-id expression all-digits?]
+   (let [computation (future
+                       (try
+                         (.evaluate sessions chat-id expression (boolean all-digits?))
+                         (catch CalculatorException e
+                           (.getLocalizedMessage e))
+                         (catch ComputeBudget$Exceeded _
+                           "I'm not thinking that hard, wanker.")
+                         (catch InterruptedException _
+                           "I'm sorry, where were we before we were so rudely interrupted?")
+                         (catch Exception e
+                           (or (.getLocalizedMessage e)
+                               "An error occurred during calculation"))))
+         result (deref computation backstop-ms ::timeout)]
+     (if (= result ::timeout)
+       (do
+         ;; Interrupt it, so it stops at its next check
+         (future-cancel computation)
+         "I'm not thinking that hard, wanker.")
+       result))))
 
 (defn- format-reply
   "Format reply, prepending digit count if longer than 256 chars."
@@ -63,13 +73,20 @@
 ;; MESSAGE HANDLER ;;;;;;;;;;;;;;;;;;;;;;;
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
 
+(defn- all-digits-expression
+  "The expression from \"all digits [of] <expression>\", or nil."
+  [text]
+  (some->> text (re-matches #"(?is)all\s+digits\s+(?:of\s+)?(.+)") second))
+
 (defn- handle-calc
   "Handle calc command - evaluate the expression and reply."
   [m]
-  (let [expression (msg/mod-text m)]
+  (let [text (msg/mod-text m)
+        in-full (all-digits-expression text)
+        expression (or in-full text)]
     (if (empty? expression)
       (msg/reply m "Please provide an expression to calculate.")
-      (let [result (evaluate-with-timeout expression)
+      (let [result (evaluate (msg/chat-id m) expression (some? in-full))
             formatted (format-reply result)]
         (msg/reply m formatted)))))
 
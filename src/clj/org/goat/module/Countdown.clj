@@ -1,14 +1,21 @@
 (ns org.goat.module.Countdown
   "Number puzzle game from the Channel 4 TV show Countdown.
   Players have 60 seconds to reach a target number (101-999) using 6 source
-  numbers and basic math operators (+, -, *, /, parentheses)."
+  numbers and basic math operators (+, -, *, /, parentheses).
+  Variant rounds are started with words after the command, e.g.
+  \"countdown 8 extrahard powers\" or \"countdown hard\": see
+  `variant-options`.
+  \"countdown letters\" plays the letters round instead: make the longest
+  word you can from 9 letters."
   (:require [org.goat.core.macros :refer [defmodule]]
             [org.goat.core.message :as msg]
             [org.goat.core.message-parse :as msg-parse]
             [org.goat.core.format :as fmt]
+            [org.goat.db.words :as words]
             [clojure.string :as str])
-  (:import [org.goat.jcalc Calculator CalculatorException]
-           [org.goat.util CountdownSolver]))
+  (:import [org.goat.util AnagramIndex CountdownException CountdownExpression CountdownPuzzles
+                           CountdownSolutions CountdownSolver CountdownTable]
+           [java.util.concurrent ForkJoinPool]))
 
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
 ;; STATE ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
@@ -19,16 +26,152 @@
   Each game state contains:
     :game-on - boolean, is game active
     :target-number - int, the target to reach (101-999)
-    :source-numbers - vector of 6 ints available for calculations
+    :source-numbers - vector of ints available for calculations
+    :variant - the rules for this round, see `variant-options`
     :best-answer - map with :value :username :expression
-    :best-possible - int, best possible answer from solver
+    :best-possible - int, closest reachable value (from table or solver)
+    :solution - string, the solver's best answer if it has already been run
+    :solving - future, a variant's solver run, giving :best-possible and
+               :solution, so starting the round doesn't wait for it
+    :round - :letters for a letters round, otherwise a numbers round
+    :letters - string, the letters drawn in a letters round
+    :longest - vector of the longest words the letters make
     :chat-id - long, chat ID for replies during timer
     :timer-future - future, handle to cancel timer"
   (atom {}))
 
-(def calculator
-  "Shared Calculator instance for evaluating expressions"
-  (Calculator.))
+(def solvability-table
+  "Memory-mapped table of reachable values for every standard draw. It's
+  read from the file named by the goat.countdown.table system property, or
+  else countdown.table on the classpath: resources/ in the source tree,
+  where `clj -T:build countdown-table` generates it, or the uberjar, which
+  `clj -T:build uber` builds it into. nil if there's no table, in which
+  case we fall back to the solver."
+  (delay
+    (try
+      (CountdownTable/load)
+      (catch Exception e
+        (println "Warning: Could not load countdown.table:" (.getMessage e))
+        nil))))
+
+(defonce ^:private puzzles-warming
+  ;; A cold JVM takes ten times the generator's budget over the first
+  ;; round, so deal some throwaway ones in the background now.
+  (CountdownPuzzles/warm))
+
+(def anagram-index
+  "Every word in words.db indexed by its letters, for the letters round.
+  nil if the dictionary can't be read."
+  (delay
+    (try
+      (AnagramIndex. (words/all-words))
+      (catch Exception e
+        (println "Warning: Could not load words.db:" (.getMessage e))
+        nil))))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;; VARIANTS ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+
+(def standard-variant
+  "The TV show's rules.
+    :size - how many numbers are drawn
+    :big-pool, :small-pool - the numbers to draw from
+    :operators - set of operators allowed, see `operator-bits`"
+  {:size 6
+   :big-pool [25 50 75 100]
+   :small-pool [1 2 3 4 5 6 7 8 9 10
+                1 2 3 4 5 6 7 8 9 10]
+   :operators #{:plus :minus :times :divide}})
+
+(def variant-options
+  "Words that may follow the command, and what each changes.
+  Operators are added to the standard set; other keys replace it.
+  A :difficulty asks for a target of that difficulty, which the puzzle
+  generator can deal for rounds of up to 6 numbers and the standard
+  operators."
+  {"7" {:size 7}
+   "8" {:size 8}
+   "extrahard" {:big-pool [12 37 62 87]}
+   "powers" {:operators #{:power}}
+   "concat" {:operators #{:concat}}
+   "easy" {:difficulty :easy}
+   "medium" {:difficulty :medium}
+   "hard" {:difficulty :hard}})
+
+(def ^:private difficulty-levels
+  {:easy CountdownPuzzles/EASY
+   :medium CountdownPuzzles/MEDIUM
+   :hard CountdownPuzzles/HARD})
+
+(def ^:private operator-bits
+  {:plus CountdownSolver/PLUS
+   :minus CountdownSolver/MINUS
+   :times CountdownSolver/TIMES
+   :divide CountdownSolver/DIVIDE
+   :power CountdownSolver/POWER
+   :concat CountdownSolver/CONCAT})
+
+(def ^:private operator-chars
+  "What players type for each operator that goes beyond + - * /"
+  {:power "^"
+   :concat "|"})
+
+(defn- parse-variant
+  "Build the rules for a round from the words after the command.
+  Unknown words are ignored."
+  [text]
+  (reduce (fn [variant word]
+            (let [option (get variant-options (str/lower-case word))]
+              (cond-> (merge variant (dissoc option :operators))
+                (:operators option) (update :operators into (:operators option)))))
+          standard-variant
+          (str/split (str/trim (or text "")) #"\s+")))
+
+(defn- standard-variant?
+  "True if the round is played by the TV rules, which is all the
+  precomputed table and the solution counter know about. The difficulty
+  only changes which target is picked."
+  [variant]
+  (= (dissoc variant :difficulty) standard-variant))
+
+(defn- generated-difficulty?
+  "True if the puzzle generator can deal this round's difficulty."
+  [variant]
+  (and (:difficulty variant)
+       (<= (:size variant) 6)
+       (= (:operators variant) (:operators standard-variant))))
+
+(defn- operator-mask
+  "The variant's operators as a bitmap of CountdownSolver symbols."
+  [variant]
+  (int (reduce bit-or 0 (map #(bit-shift-left 1 (operator-bits %))
+                             (:operators variant)))))
+
+(defn- variant-solver
+  "A CountdownSolver for the variant's size and operators."
+  [variant]
+  (CountdownSolver. (int (:size variant)) (operator-mask variant)))
+
+(defn- describe-variant
+  "Short description of how the round differs from the standard rules, or
+  nil for a standard round."
+  [variant]
+  (let [extras (keep operator-chars (sort (:operators variant)))
+        difficulty (when (generated-difficulty? variant)
+                     (name (:difficulty variant)))]
+    (cond
+      (not (standard-variant? variant))
+      (str/join ", " (cond-> [(str (:size variant) " numbers")]
+                       (not= (:big-pool variant) (:big-pool standard-variant))
+                       (conj (str "big numbers " (str/join " " (:big-pool variant))))
+                       (seq extras)
+                       (conj (str "also allowed: " (str/join " " extras)))
+                       difficulty
+                       (conj difficulty)))
+
+      difficulty
+      difficulty)))
 
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
 ;; HELPER FUNCTIONS - POOL MANAGEMENT ;;;;
@@ -37,110 +180,182 @@
 (defn- initialize-pools
   "Create and shuffle pools of big and small numbers.
   Returns map with :big-pool and :small-pool."
-  []
-  {:big-pool (shuffle [25 50 75 100])
-   :small-pool (shuffle [1 2 3 4 5 6 7 8 9 10
-                         1 2 3 4 5 6 7 8 9 10])})
+  ([]
+   (initialize-pools standard-variant))
+  ([variant]
+   {:big-pool (shuffle (:big-pool variant))
+    :small-pool (shuffle (:small-pool variant))}))
 
 (defn- draw-numbers
-  "Draw 6 numbers from pools.
-  80% chance: 1 big + 5 small
-  20% chance: 2 big + 4 small
-  Returns vector of 6 numbers."
-  [pools]
-  (let [big-count (if (< (rand) 0.8) 1 2)
-        small-count (- 6 big-count)]
-    (vec (concat (take big-count (:big-pool pools))
-                 (take small-count (:small-pool pools))))))
+  "Draw numbers from pools, 6 unless a size is given.
+  80% chance: 1 big, the rest small
+  20% chance: 2 big, the rest small
+  Returns vector of numbers."
+  ([pools]
+   (draw-numbers pools 6))
+  ([pools size]
+   (let [big-count (if (< (rand) 0.8) 1 2)
+         small-count (- size big-count)]
+     (vec (concat (take big-count (:big-pool pools))
+                  (take small-count (:small-pool pools)))))))
 
 (defn- generate-target
-  "Generate random target number between 101 and 999 inclusive."
-  []
-  (+ 101 (rand-int 899)))
+  "Generate random target number between 101 and 999 inclusive.
+  Given the drawn numbers, prefer a target that can be made exactly when the
+  solvability table is available."
+  ([]
+   (+ 101 (rand-int 899)))
+  ([numbers]
+   (let [solvable (some-> @solvability-table
+                          (.solvableTargets (int-array numbers)))]
+     (if (seq solvable)
+       (rand-nth solvable)
+       (generate-target)))))
+
+(defn- generate-puzzle
+  "Draw numbers and pick a target of the variant's difficulty.
+  Returns {:source-numbers [...] :target-number int}."
+  [variant]
+  (let [generator (CountdownPuzzles. (int-array (:big-pool variant))
+                                     (int-array (:small-pool variant))
+                                     (int (:size variant))
+                                     (java.util.Random.))
+        puzzle (.generate generator (int (difficulty-levels (:difficulty variant))))]
+    {:source-numbers (vec (.-draw puzzle))
+     :target-number (.-target puzzle)}))
+
+(defn- best-possible-value
+  "Closest value to target reachable with numbers. Uses the table when it
+  covers this draw, otherwise runs the solver."
+  [numbers target]
+  (let [from-table (if-let [table @solvability-table]
+                     (.bestVal table (int-array numbers) target)
+                     -1)]
+    (if (neg? from-table)
+      (CountdownSolver/getBestVal (int-array numbers) target)
+      from-table)))
+
+(defn- solve-variant
+  "Run the variant's solver once for a round.
+  Returns {:best-possible int :solution string}. Big draws are shared out
+  across the common fork/join pool."
+  [numbers target variant]
+  (let [solver (variant-solver variant)
+        workers (when (> (:size variant) 6) (ForkJoinPool/commonPool))]
+    (.solve solver (int-array numbers) workers)
+    {:best-possible (.bestVal solver target)
+     :solution (.describe solver target)}))
+
+(defn- solved-round
+  "The game's :best-possible and :solution, or nil while a variant's
+  solver is still running."
+  [game]
+  (if-let [solving (:solving game)]
+    (when (realized? solving) @solving)
+    game))
+
+(defn- solutions-summary
+  "Say how many distinct ways there were to make the target, with a few of
+  them. Returns nil if the target can't be made exactly."
+  [numbers target]
+  (let [solutions (CountdownSolutions. (int-array numbers))
+        n (.count solutions target)]
+    (cond
+      (zero? n) nil
+      (= n 1) (str "There was only 1 way to make " target ".")
+      :else (str "There were " n " ways to make " target ", e.g. "
+                 (->> (.limit (.solutions solutions target) 3)
+                      (.iterator)
+                      (iterator-seq)
+                      (str/join "; "))
+                 "."))))
 
 (defn- format-numbers
   "Format vector of numbers as space-separated string."
   [numbers]
   (str/join " " numbers))
 
-;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
-;; HELPER FUNCTIONS - VALIDATION ;;;;;;;;;
-;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
-
-(defn- extract-numbers
-  "Extract all numbers from expression using regex.
-  Returns sequence of integers."
-  [expr]
-  (map #(Integer/parseInt %) (re-seq #"\d+" expr)))
-
-(defn- numbers-valid?
-  "Check that user used only available source numbers, each at most once.
-  Uses immutable approach with loop/recur."
-  [user-nums source-nums]
-  (loop [remaining (vec source-nums)
-         to-check user-nums]
-    (if (empty? to-check)
-      true
-      (let [num (first to-check)
-            idx (.indexOf remaining num)]
-        (if (>= idx 0)
-          (recur (assoc remaining idx nil) (rest to-check))
-          false)))))
-
-(defn- expression-valid?
-  "Check expression contains only allowed operators: + - * / ( )
-  Strip all allowed characters and check nothing remains."
-  [expr]
-  (let [cleaned (-> expr
-                    (str/replace #"\d" "")       ; strip all numbers
-                    (str/replace #"/" "")        ; strip /
-                    (str/replace #"\*" "")       ; strip *
-                    (str/replace #"\+" "")       ; strip +
-                    (str/replace #"-" "")        ; strip -
-                    (str/replace #"\)" "")       ; strip )
-                    (str/replace #"\(" "")       ; strip (
-                    (str/replace #"\s" ""))]     ; strip spaces
-    (empty? cleaned)))
-
-(defn- validate-answer
-  "Validate that answer uses correct numbers and operators.
-  Returns {:valid true} or {:valid false :error \"...\"}"
-  [expr source-nums]
-  (let [user-nums (extract-numbers expr)]
-    (cond
-      (not (numbers-valid? user-nums source-nums))
-      {:valid false :error "You used a number not in the selection!"}
-
-      (not (expression-valid? expr))
-      {:valid false :error "Invalid operators in expression"}
-
-      :else
-      {:valid true})))
-
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
 ;; HELPER FUNCTIONS - EVALUATION ;;;;;;;;;
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
 
 (defn- evaluate-answer
-  "Evaluate mathematical expression using Calculator.
+  "Check and evaluate an answer in one pass with CountdownExpression: only
+  the variant's operators, each source number used at most as often as it
+  was drawn, and every step a positive whole number.
   Returns {:success true :value int} or {:success false :error \"...\"}"
-  [expr]
-  (try
-    (let [result (.evaluate_equation calculator expr)
-          value (Integer/parseInt result)]
-      {:success true :value value})
-    (catch NumberFormatException _
-      {:success false :error "You used a formula that resulted in a non-int answer. This is not allowed!"})
-    (catch CalculatorException e
-      {:success false :error (.getLocalizedMessage e)})
-    (catch InterruptedException _
-      {:success false :error "I was interrupted before I could calculate that"})))
+  ([expr source-nums]
+   (evaluate-answer expr source-nums standard-variant))
+  ([expr source-nums variant]
+   (try
+     {:success true
+      :value (CountdownExpression/evaluate expr (int-array source-nums) (operator-mask variant))}
+     (catch CountdownException e
+       {:success false :error (.getMessage e)}))))
 
 (defn- distance-from-target
   "Calculate absolute distance between value and target."
   [value target]
   (Math/abs (- target value)))
 
+(defn- best-possible?
+  "True if value is as close to the target as the best possible answer.
+  Compares distances, since the best value may lie either side of the target.
+  With best-possible not known yet, only the target itself counts."
+  [value target best-possible]
+  (if best-possible
+    (= (distance-from-target value target)
+       (distance-from-target best-possible target))
+    (= value target)))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;; HELPER FUNCTIONS - LETTERS ;;;;;;;;;;;;
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+
+(def ^:private vowel-pile
+  "The TV show's vowel frequencies"
+  (str (apply str (repeat 15 "A")) (apply str (repeat 21 "E"))
+       (apply str (repeat 13 "I")) (apply str (repeat 13 "O"))
+       (apply str (repeat 5 "U"))))
+
+(def ^:private consonant-pile
+  "The TV show's consonant frequencies"
+  (apply str (mapcat (fn [[letter n]] (repeat n letter))
+                     {"B" 2 "C" 3 "D" 6 "F" 2 "G" 3 "H" 2 "J" 1 "K" 1 "L" 5
+                      "M" 4 "N" 8 "P" 4 "Q" 1 "R" 9 "S" 9 "T" 9 "V" 1 "W" 1
+                      "X" 1 "Y" 1 "Z" 1})))
+
+(defn- letters-round?
+  "True if the words after the command ask for a letters round."
+  [text]
+  (= "letters" (some-> text str/trim str/lower-case (str/split #"\s+") first)))
+
+(defn- draw-letters
+  "Draw 9 letters, 3 to 5 of them vowels, from shuffled piles.
+  Returns a string of upper case letters."
+  []
+  (let [vowels (+ 3 (rand-int 3))]
+    (apply str (concat (take vowels (shuffle vowel-pile))
+                       (take (- 9 vowels) (shuffle consonant-pile))))))
+
+(defn- check-word
+  "Check a letters round attempt against the draw and the dictionary.
+  Returns {:success true :word \"WORD\"}, {:success false :error \"...\"},
+  or nil if the message isn't an attempt: anything but a single word made
+  from the drawn letters is taken to be chat."
+  [text letters index]
+  (let [word (str/upper-case (str/trim text))]
+    (when (and (re-matches #"[A-Z]+" word)
+               (AnagramIndex/fits word letters))
+      (if (.contains ^AnagramIndex index word)
+        {:success true :word word}
+        {:success false :error (str word " isn't in my dictionary.")}))))
+
+(defn- format-words
+  "A few of the words, comma separated."
+  [words]
+  (str/join ", " (take 5 words)))
+
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
 ;; STATE MANAGEMENT ;;;;;;;;;;;;;;;;;;;;;;
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
@@ -163,21 +378,53 @@
 (defn- start-new-game!
   "Initialize new game state for chat.
   Returns map with :target-number and :source-numbers for display."
-  [chat-key chat-id]
-  (let [pools (initialize-pools)
-        source-numbers (draw-numbers pools)
-        target (generate-target)
-        best-val (CountdownSolver/getBestVal (int-array source-numbers) target)]
+  ([chat-key chat-id]
+   (start-new-game! chat-key chat-id standard-variant))
+  ([chat-key chat-id variant]
+   (let [standard? (standard-variant? variant)
+         {source-numbers :source-numbers target :target-number}
+         (cond
+           (generated-difficulty? variant)
+           (generate-puzzle variant)
+
+           standard?
+           (let [numbers (draw-numbers (initialize-pools variant) (:size variant))]
+             {:source-numbers numbers :target-number (generate-target numbers)})
+
+           :else
+           {:source-numbers (draw-numbers (initialize-pools variant) (:size variant))
+            :target-number (generate-target)})
+         solved (if standard?
+                  {:best-possible (best-possible-value source-numbers target)}
+                  {:solving (future (solve-variant source-numbers target variant))})]
+     (swap! state assoc chat-key
+            {:game-on true
+             :chat-id chat-id
+             :target-number target
+             :source-numbers source-numbers
+             :variant variant
+             :best-answer nil
+             :best-possible (:best-possible solved)
+             :solution (:solution solved)
+             :solving (:solving solved)
+             :timer-future nil})
+     {:target-number target
+      :source-numbers source-numbers})))
+
+(defn- start-letters-game!
+  "Initialize a letters round for chat.
+  Returns the letters drawn."
+  [chat-key chat-id index]
+  (let [letters (draw-letters)]
     (swap! state assoc chat-key
            {:game-on true
             :chat-id chat-id
-            :target-number target
-            :source-numbers source-numbers
+            :round :letters
+            :letters letters
             :best-answer nil
-            :best-possible best-val
+            :longest (vec (.longest ^AnagramIndex index letters))
             :timer-future nil})
-    {:target-number target
-     :source-numbers source-numbers}))
+    letters))
 
 (defn- update-best-answer!
   "Update best answer in game state."
@@ -206,15 +453,24 @@
     (let [m (msg-parse/create-message :chat-id chat-id :sender "goat" :private? false :text "")]
       (msg/reply m text))))
 
-(defn- finalize-game
-  "End game and display solution/winner.
-  Called when timer expires or best possible answer is achieved."
+(defn- finalize-numbers-game
+  "End a numbers round and display solution/winner."
   [chat-key]
   (let [game (get-game-state chat-key)
         best-answer (:best-answer game)
         target (:target-number game)
         source (:source-numbers game)
-        best-possible (:best-possible game)]
+        ;; waits for a variant's solver, which the timer thread can afford;
+        ;; an answer only ends the round early once it's known to be best
+        solved (delay (if-let [solving (:solving game)] @solving game))
+        best-possible (delay (if (= (:value best-answer) target)
+                               target
+                               (:best-possible @solved)))
+        solution (delay (or (:solution @solved)
+                            (CountdownSolver/Solve (int-array source) target)))
+        ways (when (standard-variant? (or (:variant game) standard-variant))
+               (solutions-summary source target))
+        with-ways #(if ways (str % " " ways) %)]
 
     ;; Mark game as no longer active
     (swap! state assoc-in [chat-key :game-on] false)
@@ -222,29 +478,70 @@
     (if (nil? best-answer)
       ;; No answers submitted
       (reply-to-game chat-key
-                     (str "Nobody got an answer. The best answer was: "
-                          (CountdownSolver/Solve (int-array source) target)))
+                     (with-ways (str "Nobody got an answer. The best answer was: "
+                                     @solution)))
 
       ;; Someone answered
-      (if (= (:value best-answer) best-possible)
+      (if (best-possible? (:value best-answer) target @best-possible)
         ;; Best possible achieved
         (let [f (fmt/formatter :telegram)
               reply-text (str (fmt/bold f (:username best-answer))
                               " has won with " (:value best-answer) "!")]
           (reply-to-game chat-key
-                         (if (not= best-possible target)
-                           (str reply-text " This was the best possible answer.")
-                           reply-text)))
+                         (with-ways (if (not= @best-possible target)
+                                      (str reply-text " This was the best possible answer.")
+                                      reply-text))))
 
         ;; Suboptimal answer
         (reply-to-game chat-key
-                       (str "The best answer was " (:value best-answer)
-                            " by " (:username best-answer) "."
-                            " But the best possible answer was: "
-                            (CountdownSolver/Solve (int-array source) target)))))
+                       (with-ways (str "The best answer was " (:value best-answer)
+                                       " by " (:username best-answer) "."
+                                       " But the best possible answer was: "
+                                       @solution)))))
+
+    (clear-game! chat-key)))
+
+(defn- finalize-letters-game
+  "End a letters round and reveal the longest words."
+  [chat-key]
+  (let [game (get-game-state chat-key)
+        best-answer (:best-answer game)
+        longest (:longest game)
+        best-length (count (first longest))]
+
+    (swap! state assoc-in [chat-key :game-on] false)
+
+    (reply-to-game chat-key
+                   (cond
+                     (empty? longest)
+                     "Nobody got a word, and neither did I."
+
+                     (nil? best-answer)
+                     (str "Nobody got a word. The longest were: " (format-words longest))
+
+                     (= best-length (count (:word best-answer)))
+                     (let [others (remove #{(:word best-answer)} longest)]
+                       (str (fmt/bold (fmt/formatter :telegram) (:username best-answer))
+                            " has won with " (:word best-answer) "!"
+                            " That's as long as it gets."
+                            (when (seq others)
+                              (str " Also possible: " (format-words others)))))
+
+                     :else
+                     (str "The best word was " (:word best-answer)
+                          " by " (:username best-answer) "."
+                          " But the longest were: " (format-words longest))))
 
     (clear-game! chat-key)))
 
+(defn- finalize-game
+  "End game and display solution/winner.
+  Called when timer expires or best possible answer is achieved."
+  [chat-key]
+  (if (= :letters (get-in @state [chat-key :round]))
+    (finalize-letters-game chat-key)
+    (finalize-numbers-game chat-key)))
+
 (defn- start-game-timer!
   "Start 60-second timer: 50s active + 10s warning.
   Stores future in state for cancellation."
@@ -267,62 +564,101 @@
 ;; GAME FLOW HANDLERS ;;;;;;;;;;;;;;;;;;;;
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
 
+(defn- handle-start-letters-game
+  "Start a letters round, if there is a dictionary to play with."
+  [m chat-key]
+  (if-let [index @anagram-index]
+    (let [letters (start-letters-game! chat-key (msg/chat-id m) index)
+          f (msg/fmt m)]
+      (start-game-timer! chat-key)
+      (msg/reply m
+                 (str (fmt/bold-underline f "***")
+                      " New Letters: " (fmt/bold f (str/join " " letters))
+                      " Longest word wins!")))
+    (msg/reply m "I can't find my dictionary, so no letters today.")))
+
 (defn- handle-start-game
   "Handle starting a new game.
   Check not already playing, initialize, start timer, display numbers."
   [m chat-key]
-  (if (game-active? chat-key)
+  (cond
+    (game-active? chat-key)
     (msg/reply m "We're already playing a game, smart one.")
+
+    (letters-round? (msg/mod-text m))
+    (handle-start-letters-game m chat-key)
+
+    :else
     (let [chat-id (msg/chat-id m)
-          {:keys [target-number source-numbers]} (start-new-game! chat-key chat-id)
+          variant (parse-variant (msg/mod-text m))
+          {:keys [target-number source-numbers]} (start-new-game! chat-key chat-id variant)
+          rules (describe-variant variant)
           f (msg/fmt m)]
       (start-game-timer! chat-key)
       (msg/reply m
                  (str (fmt/bold-underline f "***")
                       " New Numbers: " (fmt/bold f (format-numbers source-numbers))
-                      " Target: " (fmt/bold f target-number))))))
+                      " Target: " (fmt/bold f target-number)
+                      (when rules (str " (" rules ")")))))))
+
+(defn- handle-letters-attempt
+  "Handle a word during a letters round.
+  Check it, track the longest, end the round if it can't be beaten."
+  [m chat-key text username]
+  (let [game (get-game-state chat-key)
+        result (check-word text (:letters game) @anagram-index)]
+    (cond
+      (nil? result)
+      nil
+
+      (not (:success result))
+      (msg/reply m (:error result))
+
+      (> (count (:word result)) (count (get-in game [:best-answer :word])))
+      (let [word (:word result)]
+        (swap! state assoc-in [chat-key :best-answer] {:word word :username username})
+        (if (= (count word) (count (first (:longest game))))
+          (finalize-game chat-key)
+          (msg/reply m
+                     (str (fmt/bold (msg/fmt m) username)
+                          " has the longest word so far: " word
+                          " (" (count word) " letters)")))))))
 
 (defn- handle-answer-attempt
   "Handle user's answer attempt during active game.
-  Validate, evaluate, track best, possibly end game."
+  Check and evaluate, track best, possibly end game."
   [m chat-key attempt username]
   (let [game (get-game-state chat-key)
         source (:source-numbers game)
         target (:target-number game)
-        validation (validate-answer attempt source)]
-
-    (if-not (:valid validation)
-      ;; Invalid answer format
-      (msg/reply m (:error validation))
-
-      ;; Valid format - try to evaluate
-      (let [eval-result (evaluate-answer attempt)]
-        (if-not (:success eval-result)
-          ;; Evaluation failed
-          (msg/reply m (:error eval-result))
-
-          ;; Success - check if it's the best answer so far
-          (let [value (:value eval-result)
-                current-best (:best-answer game)
-                current-dist (if current-best
-                               (distance-from-target (:value current-best) target)
-                               Integer/MAX_VALUE)
-                this-dist (distance-from-target value target)]
-
-            (when (< this-dist current-dist)
-              ;; New best answer
-              (update-best-answer! chat-key value username attempt)
-
-              (if (= value (:best-possible game))
-                ;; Perfect answer - end game immediately
-                (finalize-game chat-key)
-
-                ;; Good but not perfect - acknowledge
-                (msg/reply m
-                           (str (fmt/bold (msg/fmt m) username)
-                                " has the best answer so far: " value
-                                ". Just " this-dist " off the target of "
-                                target "!"))))))))))
+        eval-result (evaluate-answer attempt source (or (:variant game) standard-variant))]
+
+    (if-not (:success eval-result)
+      ;; Breaks the rules or doesn't parse
+      (msg/reply m (:error eval-result))
+
+      ;; Success - check if it's the best answer so far
+      (let [value (:value eval-result)
+            current-best (:best-answer game)
+            current-dist (if current-best
+                           (distance-from-target (:value current-best) target)
+                           Integer/MAX_VALUE)
+            this-dist (distance-from-target value target)]
+
+        (when (< this-dist current-dist)
+          ;; New best answer
+          (update-best-answer! chat-key value username attempt)
+
+          (if (best-possible? value target (:best-possible (solved-round game)))
+            ;; Perfect answer - end game immediately
+            (finalize-game chat-key)
+
+            ;; Good but not perfect - acknowledge
+            (msg/reply m
+                       (str (fmt/bold (msg/fmt m) username)
+                            " has the best answer so far: " value
+                            ". Just " this-dist " off the target of "
+                            target "!"))))))))
 
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
 ;; MODULE DEFINITION ;;;;;;;;;;;;;;;;;;;;;
@@ -340,4 +676,6 @@
 
         ;; Check if we're in an active game (treat as answer attempt)
         (when (game-active? chat-key)
-          (handle-answer-attempt m chat-key (msg/get-text m) (msg/sender m)))))))
+          (if (= :letters (:round (get-game-state chat-key)))
+            (handle-letters-attempt m chat-key (msg/get-text m) (msg/sender m))
+            (handle-answer-attempt m chat-key (msg/get-text m) (msg/sender m))))))))
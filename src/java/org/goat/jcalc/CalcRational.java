@@ -0,0 +1,154 @@
+package org.goat.jcalc;
+
+import java.math.*;
+
+/**
+ *  An exact fraction, numerator/denominator, for a Calculator with exact
+ *  fractions on (see Calculator.setExactFractions).<BR>
+ *  <BR>
+ *  A division that doesn't come out whole gives one of these instead of a
+ *  BigDecimal to scale*2 places, and + - * / and negation keep it exact,
+ *  so 1/3*3 is 1 with nothing to round away. Anything else takes it as a
+ *  BigDecimal to scale*2 places, as the division would have given, and an
+ *  answer is turned into one only when it's printed.<BR>
+ *  <BR>
+ *  Fractions aren't reduced as they go, as finding the gcd costs about as
+ *  much as a division. That's done when one is turned into a BigDecimal,
+ *  or when its denominator gets past REDUCE_BITS, so a long chain stays a
+ *  sensible size. The denominator is always positive.
+ */
+final class CalcRational {
+
+    //a denominator longer than this is reduced straight away
+    private static final int REDUCE_BITS = 512;
+
+    final BigInteger numerator;
+    final BigInteger denominator;
+
+    private CalcRational(BigInteger numerator, BigInteger denominator){
+        this.numerator = numerator;
+        this.denominator = denominator;
+    }
+
+    /**
+     *  @return o as a fraction, or null if it isn't a number
+     */
+    static CalcRational valueOf(Object o){
+        if(o instanceof CalcRational){
+            return (CalcRational)o;
+        }
+        if(o instanceof Long){
+            return new CalcRational(BigInteger.valueOf(((Long)o).longValue()), BigInteger.ONE);
+        }
+        if(o instanceof CalcMachineNumber){
+            o = ((CalcMachineNumber)o).getValue();
+        }
+        if(o instanceof BigDecimal){
+            BigDecimal x = (BigDecimal)o;
+            if(x.scale() <= 0){
+                return new CalcRational(x.toBigIntegerExact(), BigInteger.ONE);
+            }
+            return new CalcRational(x.unscaledValue(), BigInteger.TEN.pow(x.scale()));
+        }
+        return null;
+    }
+
+    /**
+     *  @return numerator/denominator: a Long or BigDecimal if it's plainly
+     *          whole, otherwise a CalcRational
+     */
+    static Object of(BigInteger numerator, BigInteger denominator) throws ComputeBudget.Exceeded {
+        if(denominator.signum() < 0){
+            numerator = numerator.negate();
+            denominator = denominator.negate();
+        }
+        CalcRational q = new CalcRational(numerator, denominator);
+        if(denominator.bitLength() > REDUCE_BITS){
+            q = q.reduce();
+        }
+        if(q.denominator.equals(BigInteger.ONE)){
+            return whole(q.numerator);
+        }
+        return q;
+    }
+
+    static Object add(CalcRational x, CalcRational y) throws ComputeBudget.Exceeded {
+        if(x.denominator.equals(y.denominator)){
+            ComputeBudget.charge(ComputeBudget.words(x.numerator) + ComputeBudget.words(y.numerator));
+            return of(x.numerator.add(y.numerator), x.denominator);
+        }
+        return of(cross(x, y).add(cross(y, x)), product(x.denominator, y.denominator));
+    }
+
+    static Object subtract(CalcRational x, CalcRational y) throws ComputeBudget.Exceeded {
+        if(x.denominator.equals(y.denominator)){
+            ComputeBudget.charge(ComputeBudget.words(x.numerator) + ComputeBudget.words(y.numerator));
+            return of(x.numerator.subtract(y.numerator), x.denominator);
+        }
+        return of(cross(x, y).subtract(cross(y, x)), product(x.denominator, y.denominator));
+    }
+
+    static Object multiply(CalcRational x, CalcRational y) throws ComputeBudget.Exceeded {
+        return of(product(x.numerator, y.numerator), product(x.denominator, y.denominator));
+    }
+
+    /**
+     *  y mustn't be 0
+     */
+    static Object divide(CalcRational x, CalcRational y) throws ComputeBudget.Exceeded {
+        return of(product(x.numerator, y.denominator), product(x.denominator, y.numerator));
+    }
+
+    static Object negate(CalcRational x){
+        return new CalcRational(x.numerator.negate(), x.denominator);
+    }
+
+    int signum(){
+        return numerator.signum();
+    }
+
+    /**
+     *  @return this to places places, rounded half up, as a division would
+     *          be; or exactly, if it's whole
+     */
+    BigDecimal toBigDecimal(int places) throws ComputeBudget.Exceeded {
+        CalcRational q = this.reduce();
+        if(q.denominator.equals(BigInteger.ONE)){
+            return new BigDecimal(q.numerator);
+        }
+        ComputeBudget.divide(ComputeBudget.words(q.numerator) + ComputeBudget.digitWords(places), ComputeBudget.words(q.denominator));
+        return new BigDecimal(q.numerator).divide(new BigDecimal(q.denominator), places, RoundingMode.HALF_UP);
+    }
+
+    public String toString(){
+        return numerator + "/" + denominator;
+    }
+
+    //in lowest terms
+    private CalcRational reduce() throws ComputeBudget.Exceeded {
+        if(denominator.equals(BigInteger.ONE)){
+            return this;
+        }
+        ComputeBudget.divide(ComputeBudget.words(numerator), ComputeBudget.words(denominator));
+        BigInteger gcd = numerator.gcd(denominator);
+        if(gcd.equals(BigInteger.ONE)){
+            return this;
+        }
+        return new CalcRational(numerator.divide(gcd), denominator.divide(gcd));
+    }
+
+    //x's numerator over the common denominator with y
+    private static BigInteger cross(CalcRational x, CalcRational y) throws ComputeBudget.Exceeded {
+        return product(x.numerator, y.denominator);
+    }
+
+    private static BigInteger product(BigInteger x, BigInteger y) throws ComputeBudget.Exceeded {
+        ComputeBudget.multiply(ComputeBudget.words(x), ComputeBudget.words(y));
+        return x.multiply(y);
+    }
+
+    //a Long if it fits, as OperatorControlCenter.exact wants
+    private static Object whole(BigInteger n){
+        return n.bitLength() < 64 ? (Object)Long.valueOf(n.longValue()) : new BigDecimal(n);
+    }
+}
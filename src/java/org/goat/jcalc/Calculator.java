@@ -1,7 +1,6 @@
 package org.goat.jcalc;
 
 //import java.util.regex.*;
-import java.util.StringTokenizer;
 
 import java.util.Stack;
 import java.util.Vector;
@@ -51,7 +50,7 @@ import java.util.*;
  *
  *  enable commands to change following from the command line:
  *  (this would need a clean return type)
- *      toggle
+ *      toggle (setLazyEquality and setDirtyRounding do it from java)
  *          lazy equality
  *          dirty rounding
  *  
@@ -75,8 +74,7 @@ import java.util.*;
  *      sin(pi/3)==.86602540378443864676372317075293618347140262690519031402790348972596650845440001854057309337862428783781307070770335151498497255
  *      sin(pi/3)*2==1.7320508075688772935274463415058723669428052538103806280558069794519330169088000370811461867572485756756261414154067030299699451
  *
- *  lists need .. to create a range, only works with integers {-2 .. 9 }, or maybe createList(-2,9)
- *      this would need to alter the " " deletetion 
+ *  lists of values that aren't a range, {1, 5, 7}; ranges are table(n, n, -2, 9)
  *  
  *  RESUBMIT
  *
@@ -95,7 +93,8 @@ import java.util.*;
  *      make a note about the fact that operan count checking is doine AFTER the equation has been put into rpn
  *          this will be put into the infix to rpn conversion eventually, this giving the user the ability to
  *          see WHERE the error is
- *      entry does a direct substitution 
+ *      entry does a direct substitution, and so does ans, unless the answer is
+ *          too long to have been printed, when it goes in whole, as a number
  *          so:
  *              9+8 followed by
  *              1+3entry(1)3   => 1+38+83       => 123
@@ -139,347 +138,20 @@ public class Calculator {
      *  @return Vector - reverse polish notation equation
      */    
     public Vector infix_to_rpn(String equation) throws CalculatorException, InterruptedException {
+        return this.compile(equation).toVector();
+    }//end - public Vector convert(String equation, Calculator calc)
 
-        Stack op_stack       = new Stack();
-        Vector polish_vector = new Vector();
-        Vector tokens        = new Vector();
-
-        //this shouldn't be hardcoded... (?)
-        String delims = "+/-*!^&=()<>|,%~";
-        
-        //
-        // checking for correct number of parens here
-        //
-        {
-            int parns=0;
-            for(int i=0; i<equation.length(); i++){
-                char c = equation.charAt(i);
-                if(c==')'){
-                    parns--;
-                    if(parns<0){
-                        throw new CalculatorException("unmatched parenthesis", i);
-                    }
-                }else if(c=='('){
-                    parns++;
-                }
-            }
-            
-            if(parns>0){
-                throw new CalculatorException("unclosed parenthesis");
-            }
-        }
-
-
-        
-        //
-        // checking for and fixing 2+ character operators
-        //
-        {
-            StringTokenizer equ_tokens = new StringTokenizer(equation, delims, true);
-            TOKENS: while(equ_tokens.hasMoreTokens()){
-                tokens.add(equ_tokens.nextToken());
-            }
-            
-            Vector temp_tokens = new Vector();
-            temp_tokens.add(tokens.elementAt(0));
-            
-            for(int i=1; i<tokens.size(); i++){
-                String prev = (String)temp_tokens.lastElement();
-                String curr = (String)tokens.elementAt(i);
-                
-                if(false){
-                    System.out.println("temp tokens: " + temp_tokens);
-                    System.out.println("prev: " + prev);
-                    System.out.println("curr: " + curr);
-                    System.out.println();
-                }
-
-                
-                if(opCon.isOperator(prev+curr)){
-                    temp_tokens.set(temp_tokens.size()-1, prev+curr);
-                }else{
-                    temp_tokens.add(curr);
-                }
-            }
-            
-            tokens = temp_tokens;
-            //System.out.println("infix tokens: " + temp_tokens);
-        }
-        
-
-        int prev = operatorChecker.BEGINNING;
-        int cursor_pointer = -1;
-        
-        /* this crap is all unused, at least in goat.
-        //keeps strack of how many parameters each function has
-        //does this by counting commas inside its ()'s
-        //delete this...
-        Stack function_track = new Stack();
-        class _func {
-            public String name;
-            public int count;
-            public _func(String s, int i){
-                name=s;
-                count = i;
-            }
-        }
-        */
-        
-        TOKENS: for(int i=0; i<tokens.size(); i++){
-
-            //String token = equ_tokens.nextToken();            
-            String token = (String)tokens.elementAt(i);
-            cursor_pointer+=token.length();
-
-            if(false){
-                System.out.println("tokens: " + tokens);
-                System.out.println("here is the polish_vector: " + polish_vector);
-                System.out.println("here is the op_stack: " + op_stack);
-                System.out.println("token: " + token);
-                System.out.println();
-            }
-
-            
-            if(token.equals("(")){
-                if(operatorChecker.isLegal(prev, operatorChecker.PAREN_OPEN)==2){
-                    tokens.insertElementAt("*", i);
-                    i--;
-                    cursor_pointer-=2;
-                    continue TOKENS;
-                }else if(operatorChecker.isLegal(prev, operatorChecker.PAREN_OPEN)==0){
-                    throw new CalculatorException("syntax error", cursor_pointer);
-                }else if(prev != operatorChecker.FUNCTION && i<tokens.size() && ((String)tokens.elementAt(i+1)).equals(")")){
-                    //testing for the odd chance the user will enter "()" not proceeded by a function
-                    throw new CalculatorException("syntax error", cursor_pointer+1);
-                }
-                
-                if(prev != operatorChecker.FUNCTION){
-                    //checking to see if the previous element is a function
-                    //if it was don't do anything, as the function name will
-                    //be used as the opening paren in the operator stack
-                    op_stack.push(token);   
-                }
-                
-                prev = operatorChecker.PAREN_OPEN;
-                //System.out.println("setting prev for (: " + prev);
-                continue TOKENS;
-            }else if(token.equals(")")){
-                if(operatorChecker.isLegal(prev, operatorChecker.PAREN_CLOSE)==0){
-                    throw new CalculatorException("syntax error", cursor_pointer);
-                }
-                prev = operatorChecker.PAREN_CLOSE;
-                
-                clearOpStack_For_CLOSE_PAREN(op_stack, polish_vector);
-                
-                //System.out.println("just set prev to " + prev);
-                continue TOKENS;
-            }else if(opCon.isFunction(token)){
-                if(operatorChecker.isLegal(prev, operatorChecker.FUNCTION)==2){
-                    tokens.insertElementAt("*", i);
-                    i--;
-                    continue TOKENS;
-                }
-                if(operatorChecker.isLegal(prev, operatorChecker.FUNCTION)==0){
-                    throw new CalculatorException("syntax error", cursor_pointer);
-                }
-                
-                //added for list functions (functions that can take unlimited args, like min
-                if(opCon.operandsRequired(token)==-1){
-                    //polish_vector.add( "(" );
-                }
-                
-                polish_vector.add("(");
-                
-                op_stack.push(token);
-                
-                prev = operatorChecker.FUNCTION;
-                continue TOKENS;
-            }
-            
-            
-            //determine if you are dealing with a delim or operator
-            else if(opCon.isOperator(token)){
-                //System.out.println("operator token: " + token);
-                int current = opCon.typeOfOperator(token);
-                
-                //System.out.println("seeing prev,curr,cursor_pointer " + prev +","+ current +","+ cursor_pointer);
-                
-                if(operatorChecker.isLegal(prev, current)==0){
-                    //if there was an error here there is the chance that
-                    //it was a negative sign                    
-                    if(token.equals("-") && operatorChecker.isLegal(prev, operatorChecker.UNARY_LEFT)==1){
-                        token = "#";
-                        current = operatorChecker.UNARY_LEFT;
-                    }else{
-                        throw new CalculatorException("syntax error", cursor_pointer);
-                    }
-                }
-                
-                POSITION_OP: while(true){
-
-                    if(op_stack.isEmpty()){
-                        op_stack.push(token);
-                        break POSITION_OP;
-                    }
-
-                    int op_of_token = opCon.getPrecedence(token);
-                    int op_of_top = opCon.getPrecedence((String)op_stack.peek());
-                    
-                    //System.out.println("???: "+ (100%17%8));
-                    
-                    //if(op_of_token.compareTo(op_of_top)>0){
-                    if(op_of_token>op_of_top){
-                        op_stack.push(token);
-                        break POSITION_OP;
-                    }
-                    else if(op_of_token<=op_of_top){
-                        //System.out.println(polish_vector);
-                        if(opCon.rightToLeft(token) && op_of_token==op_of_top){
-                            op_stack.push(token);
-                            break POSITION_OP;
-                        }
-                        
-                        while(!op_stack.isEmpty() && op_of_token<=opCon.getPrecedence((String)op_stack.peek())){
-                            //System.out.println("in: " + polish_vector);
-                            //System.out.println("??");
-                            polish_vector.add( op_stack.pop() );
-                        }
-                        op_stack.push(token);
-                        break POSITION_OP;
-                        //System.out.println(polish_vector);
-                    }
-                }//end - POSITION_OP: while(true)
-                
-                prev = current;
-                continue TOKENS;
-            }//end - if(delims.indexOf(token)>-1){
-            else if(variables.isVariable(token)){
-                if(operatorChecker.isLegal(prev, operatorChecker.VARIABLE)==0){
-                    throw new CalculatorException("syntax error", cursor_pointer);
-                }
-                polish_vector.add(token);
-                prev = operatorChecker.VARIABLE;
-                continue TOKENS;                
-            }
-            
-            
-            else if(token.equals(",")){
-                if(operatorChecker.isLegal(prev, operatorChecker.COMMA)==0){
-                    throw new CalculatorException("syntax error", cursor_pointer);
-                }
-                //this.clearOpStack_For_CLOSE_PAREN(op_stack, polish_vector);
-                EMPTY: while(!op_stack.empty() && 
-                             //!op_stack.peek().equals("(") && 
-                             !opCon.isFunction((String)op_stack.peek())
-                ){
-                    polish_vector.add(op_stack.pop());
-                }
-                
-                if(op_stack.empty()){
-                    throw new CalculatorException("syntax error: , appears to have been used illegally", cursor_pointer);
-                }
-                
-                prev = operatorChecker.COMMA;
-                continue TOKENS;
-            }
-            else if(unary_commands.contains(token)){
-                if(operatorChecker.isLegal(prev, operatorChecker.U_COMMAND)==0){
-                    throw new CalculatorException("syntax error", cursor_pointer);
-                }
-                polish_vector.add(token);
-                prev = operatorChecker.U_COMMAND;
-                continue TOKENS;
-            }
-            /*
-            else if(unary_calls.contains(token)){
-                if(operatorChecker.isLegal(prev, operatorChecker.U_CALL)==0){
-                    throw new CalculatorException("syntax error", cursor_pointer);
-                }
-                polish_vector.add(token);
-                prev = operatorChecker.U_CALL;
-                continue TOKENS;
-            }
-            else if(return_calls.contains(token)){
-                if(operatorChecker.isLegal(prev, operatorChecker.R_CALL)==0){
-                    throw new CalculatorException("syntax error", cursor_pointer);
-                }
-                polish_vector.add(token);
-                prev = operatorChecker.R_CALL;
-                continue TOKENS;
-            } 
-             */           
-            else if(CalcMachineNumber.isMachineNumber(token)){
-                //System.out.println(token + " is a machine number");
-                if(operatorChecker.isLegal(prev, operatorChecker.NUMBER)==0){
-                    throw new CalculatorException("syntax error", cursor_pointer);
-                }
-
-                tokens.setElementAt(new CalcMachineNumber(token), i);
-                polish_vector.add(tokens.elementAt(i));
-                prev = operatorChecker.NUMBER;
-                continue TOKENS;
-            }
-            
-            //determine if you are dealing with a number, if so, put it in num_stack
-            try {
-                BigDecimal num = new BigDecimal(token);
-                
-                //System.out.println("num: " + num);
-                if(operatorChecker.isLegal(prev, operatorChecker.NUMBER)==2){
-                    tokens.insertElementAt("*", i);
-                    i--;
-                    cursor_pointer-= token.length();
-                    continue TOKENS;
-                }
-                
-                if(operatorChecker.isLegal(prev, operatorChecker.NUMBER)==0){
-                    throw new CalculatorException("syntax error", cursor_pointer);
-                }
-                
-                polish_vector.add(num);
-                prev = operatorChecker.NUMBER;
-                continue TOKENS;
-            } catch (NumberFormatException exception){
-                //not a number
-                //this could be where you look for speical cases
-                //  10E-1  1.23E+3  9.23e2
-            }
-
-            
-            
-            //this is where i have to convert things like:
-            //1max(1,2) and 3pi
-            throw new CalculatorException("unknown string: " + token);
-            
-        }//end - TOKENS
-        //this is the end of reading in infix and converting it to rpn
-        
-        if(operatorChecker.isLegal(prev, operatorChecker.END)==0){
-            //not sure about this whole +1 crap...
-            throw new CalculatorException("syntax error", cursor_pointer+1);
-        }        
 
-        while(!op_stack.isEmpty()){
-            polish_vector.add(op_stack.pop());
-        }
+    /*  Tokenises and parses a normalised equation in one go, see Lexer and
+     *  Parser.
+     */
+    Program compile(String equation) throws CalculatorException, InterruptedException {
+        return this.compile(equation, Collections.<BigDecimal>emptyList());
+    }
 
-        //System.err.println("here is the final polish vector: " + polish_vector);
-        return polish_vector;
-    }//end - public Vector convert(String equation, Calculator calc)
-    
-    
-    private void clearOpStack_For_CLOSE_PAREN(Stack s, Vector v){
-        while(!s.empty()){
-            if(opCon.isFunction(s.peek().toString())){
-                v.add( s.pop());
-                return;
-            }else if(s.peek().equals("(")){
-                s.pop();
-                return;
-            }else{
-                v.add(s.pop());
-            }
-        }
+    //as compile, binding the equation's answer slots to answers
+    Program compile(String equation, List<BigDecimal> answers) throws CalculatorException, InterruptedException {
+        return Parser.parse(equation, variables, unary_commands, answers);
     }
     
     /**
@@ -590,13 +262,85 @@ public class Calculator {
             BigDecimal bd = (BigDecimal)obj;
             //System.out.println("scale:  " + opCon.getScale());
             //System.out.println(bd);
-            bd = jcalc_math.dirtyRound(bd, opCon.getScale());
+            if(dirtyRounding){
+                bd = jcalc_math.dirtyRound(bd, opCon.getScale());
+            }
             //System.out.println(bd);
             return bd.toString();
         }
         
         return obj.toString();
     }//end - static public String evaluate(Vector polish_vector)
+
+
+    /*  Evaluates a parsed equation. The same as evaluate_rpn, except that
+     *  every node already knows what it is and how many values it takes, so
+     *  nothing is looked up by name and no "(" markers are needed; it's
+     *  compiled into an ExpressionTree the first time. What it returns is
+     *  the answer, for render to turn into a String.
+     */
+    private Object evaluate_program(Program program) throws CalculatorException, InterruptedException {
+        return this.evaluate_program(program, NOTHING_BOUND);
+    }
+
+    private static final Object[] NOTHING_BOUND = new Object[0];
+
+    /*  As evaluate_program, for the body of a Range, bound holding the
+     *  values of the ranges it's inside. Safe to call from the threads a
+     *  Range is split over, as long as nothing changes the scale meanwhile.
+     */
+    Object evaluate_program(Program program, Object[] bound) throws CalculatorException, InterruptedException {
+
+        if(program.length==1 && program.kind[0] == Program.VARIABLE){
+            return variables.variableValue((String)program.value[0], opCon.getScale() );
+        }
+        if(program.length==1 && program.value[0] instanceof CalcMachineNumber){
+            return ((CalcMachineNumber)program.value[0]).getValue();
+        }
+
+        if(program.length==1 && program.kind[0] == Program.COMMAND){
+            return Boolean.valueOf(this.execute_command((String)program.value[0]));
+        }
+
+        return program.tree().evaluate(this, bound);
+    }
+
+    /*  The answer as a String: in full, unless it's a number with more
+     *  digits than longestResult and allDigits is false, when it's given as
+     *  a summary, see ResultRenderer. Printing a big number is real work,
+     *  so it's charged to the ComputeBudget. dirtyRound only changes the
+     *  last places, which a summary never shows, so it's only done for
+     *  numbers printed in full, with dirty rounding on. Each value in a
+     *  Table is rendered the same way.
+     */
+    private String render(Object answer, boolean allDigits) throws InterruptedException {
+        if(answer instanceof Table){
+            Object[] values = ((Table)answer).values;
+            String[] rendered = new String[values.length];
+            for(int i=0; i<values.length; i++){
+                rendered[i] = this.formatResult(this.render(values[i], allDigits));
+            }
+            return new Table(rendered).toString();
+        }
+        if(answer instanceof CalcRational){
+            //the only time an exact fraction is turned into digits
+            answer = ((CalcRational)answer).toBigDecimal(opCon.getScale()*2);
+        }
+        if(!(answer instanceof BigDecimal)){
+            return answer.toString();
+        }
+        BigDecimal bd = (BigDecimal)answer;
+        if(this.summarise(bd, allDigits)){
+            return ResultRenderer.summary(bd, SUMMARY_DIGITS);
+        }
+        ComputeBudget.print(ComputeBudget.words(bd));
+        return dirtyRounding ? jcalc_math.dirtyRound(bd, opCon.getScale()).toString() : bd.toString();
+    }
+
+    private boolean summarise(Object answer, boolean allDigits){
+        return !allDigits && longestResult > 0 && answer instanceof BigDecimal
+            && ResultRenderer.size((BigDecimal)answer) > longestResult;
+    }
     
     
     /**
@@ -637,7 +381,11 @@ public class Calculator {
     }
 
     
-    private String commandSubstitution(String equation) throws CalculatorException, InterruptedException {
+    /*  A long answer that's only kept summarised goes in as an answer slot
+     *  for its number, added to answers, rather than as all its digits to be
+     *  read back; see Lexer.slot.
+     */
+    private String commandSubstitution(String equation, List<BigDecimal> answers) throws CalculatorException, InterruptedException {
         //
         // doing ans/entry/del substitution here
         // this is ugly, but don't know a better way...
@@ -699,9 +447,15 @@ public class Calculator {
 
             String new_string;
             if(replacing.equals("ans(")){
-                new_string = entries.getAns(getThis);
+                BigDecimal full = entries.getAnsValue(getThis);
+                if(full != null){
+                    new_string = Lexer.slot(answers.size());
+                    answers.add(full);
+                }else{
+                    new_string = entries.getAns(getThis);
+                }
             }else{
-                new_string = entries.getEntry(getThis);
+                new_string = rebind(entries.getEntry(getThis), entries.getEntryAnswers(getThis), answers);
             }
 
             StringBuffer sb = new StringBuffer(equation);
@@ -718,6 +472,23 @@ public class Calculator {
     }
     
     
+    /*  An entry's equation with its answer slots moved past those already in
+     *  answers, which its numbers are added to. Slots are renumbered from the
+     *  top down, so none is renumbered twice.
+     */
+    private static String rebind(String equation, BigDecimal[] values, List<BigDecimal> answers){
+        if(values == null){
+            return equation;
+        }
+        int offset = answers.size();
+        for(int k=values.length-1; k>=0; k--){
+            equation = equation.replace(Lexer.slot(k), Lexer.slot(k + offset));
+        }
+        answers.addAll(Arrays.asList(values));
+        return equation;
+    }
+    
+    
     
     /**
      *  Given an expression, as a string, this will return the result, as a string.
@@ -737,32 +508,75 @@ public class Calculator {
      *  
      */    
     public String evaluate_equation(String equation) throws CalculatorException, InterruptedException {
+        return this.evaluate_equation(equation, false);
+    }
+    
+    /**
+     *  As evaluate_equation, but if allDigits is true a long answer is given
+     *  in full, however many digits it has; see setLongestResult.
+     */
+    public String evaluate_equation(String equation, boolean allDigits) throws CalculatorException, InterruptedException {
+        ComputeBudget running = ComputeBudget.open(budget);
+        try {
+            Object answer = this.evaluate_answer(equation, new ArrayList<BigDecimal>());
+            return answer == null ? "" : this.formatResult(this.render(answer, allDigits));
+        } finally {
+            ComputeBudget.close(running);
+        }
+    }
+    
+    //the answer to the equation, or null if there isn't one; answers are
+    //  what its answer slots stand for, see commandSubstitution
+    private Object evaluate_answer(String equation, List<BigDecimal> answers) throws CalculatorException, InterruptedException {
         if(equation==null || equation.equals("")){
-            return "";
+            return null;
         }
         
-        equation = equation.toLowerCase();
+        equation = normalise(equation);
         
-        //killing white space (this is sloppy but short)
-        StringBuffer sb = new StringBuffer(equation);
-        while(equation.indexOf(" ")>=0){
-            sb.deleteCharAt(equation.indexOf(" "));
-            equation = sb.toString();
+        equation = this.commandSubstitution(equation, answers);
+        if(equation.equals("")){
+            //all spaces, or a del(INT)
+            return null;
         }
-        
-        equation = this.commandSubstitution(equation);
-
-        Vector polish_vector = this.infix_to_rpn(equation);
-        //System.out.println("rpn: " + polish_vector);
 
-        String result        = this.evaluate_rpn(polish_vector);
-        //System.out.println("non modified result: " + result);
+        //a repeated equation skips straight to evaluation, with its
+        //  constant parts already worked out, see Optimiser. One with answer
+        //  slots isn't kept, as the same slots stand for other numbers next
+        //  time.
+        if(!answers.isEmpty()){
+            return this.evaluate_program(Optimiser.optimise(this.compile(equation, answers), opCon, variables));
+        }
+        int scale = opCon.getScale();
+        boolean exact = opCon.isExactFractions();
+        Program program = programs.get(equation, scale, exact);
+        if(program == null){
+            program = Optimiser.optimise(this.compile(equation), opCon, variables);
+            programs.put(equation, scale, exact, program);
+        }
 
-        return this.formatResult(result);
-    }//end - public String evaluate(String equation)
+        return this.evaluate_program(program);
+    }//end - private Object evaluate_answer(String equation, List<BigDecimal> answers)
     
     
     
+    /*  Lower cases the equation and kills white space, in one pass.
+     *
+     *  @param String
+     *  @return String
+     */
+    private static String normalise(String equation){
+        StringBuilder sb = new StringBuilder(equation.length());
+        for(int i=0; i<equation.length(); i++){
+            char c = equation.charAt(i);
+            if(c != ' '){
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+    
+    
     /**
      *  Similar to evaluate_equation, with the exception that the answer and the result
      *  are kept by the Calculator. This enables users to use entry(INT), answer(INT)
@@ -774,17 +588,41 @@ public class Calculator {
      * @throws InterruptedException 
      */    
     public String evaluate_equation_and_add(String equation) throws CalculatorException, InterruptedException {
+        return this.evaluate_equation_and_add(equation, false);
+    }
+    
+    /**
+     *  As evaluate_equation_and_add, but if allDigits is true a long answer
+     *  is given in full. A summarised answer is kept in full in the
+     *  history, so ans(INT) still has all of it.
+     */
+    public String evaluate_equation_and_add(String equation, boolean allDigits) throws CalculatorException, InterruptedException {
         if(equation==null || equation.equals("")){
             return "";
         }        
         
-        equation = this.commandSubstitution(equation);
-        String result = this.evaluate_equation(equation);
-        if(result.equals("")){
-            return "";
+        ComputeBudget running = ComputeBudget.open(budget);
+        try {
+            List<BigDecimal> answers = new ArrayList<BigDecimal>();
+            equation = this.commandSubstitution(equation, answers);
+            Object answer = this.evaluate_answer(equation, answers);
+            if(answer == null){
+                return "";
+            }
+            BigDecimal[] slots = answers.isEmpty() ? null : answers.toArray(new BigDecimal[answers.size()]);
+            String result = this.formatResult(this.render(answer, allDigits));
+            if(result.equals("")){
+                return "";
+            }
+            if(this.summarise(answer, allDigits)){
+                entries.addEntry(equation, result, (BigDecimal)answer, slots);
+            }else{
+                entries.addEntry(equation, result, null, slots);
+            }
+            return this.formatResult(result);
+        } finally {
+            ComputeBudget.close(running);
         }
-        entries.addEntry(equation,result);
-        return this.formatResult(result);
     }//end - public String evaluate(String equation)    
     
     /* Attempts to format the result in a purrty way, by stripping leading and trailing zeros.
@@ -800,18 +638,28 @@ public class Calculator {
         }
         
         
-        //1 get rid of tailing zeros
+        //1 get rid of tailing zeros, but not from an exponent
         //2 get rid of tailing period
         //3 get rid of leadign zero
         StringBuffer s = new StringBuffer(result);
         
         //1
         int pointer=s.length()-1;
-        if(result.indexOf(".")>0){
+        if(result.indexOf(".")>0 && result.indexOf("E")<0){
             while(pointer>0 && s.charAt(pointer)=='0'){
                 s.deleteCharAt(pointer);
                 pointer--;
             }
+        }else if(result.indexOf(".")>0){
+            //from before the exponent, as 1.000E-10
+            pointer = result.indexOf("E")-1;
+            while(s.charAt(pointer)=='0'){
+                s.deleteCharAt(pointer);
+                pointer--;
+            }
+            if(s.charAt(pointer)=='.'){
+                s.deleteCharAt(pointer);
+            }
         }
         
         //2
@@ -822,6 +670,10 @@ public class Calculator {
         
         //3
         if(s.length()>1 && s.charAt(0)=='0'){
+            if(s.charAt(1)=='E'){
+                //a zero with a scale, as 0E-32
+                return "0";
+            }
             s.deleteCharAt(0);
         }
         
@@ -872,10 +724,10 @@ public class Calculator {
             }
         }else{
             BigDecimal bd = new BigDecimal("1.0015");
-            System.out.println(bd.setScale(3,BigDecimal.ROUND_HALF_DOWN));
-            System.out.println(bd.setScale(3,BigDecimal.ROUND_HALF_EVEN));
-            System.out.println(bd.setScale(3,BigDecimal.ROUND_HALF_UP));
-            System.out.println(bd.setScale(3,BigDecimal.ROUND_UP));
+            System.out.println(bd.setScale(3,RoundingMode.HALF_DOWN));
+            System.out.println(bd.setScale(3,RoundingMode.HALF_EVEN));
+            System.out.println(bd.setScale(3,RoundingMode.HALF_UP));
+            System.out.println(bd.setScale(3,RoundingMode.UP));
             
             Calculator calc = new Calculator();
             try{
@@ -899,12 +751,39 @@ public class Calculator {
      */
     public Entries entries = new Entries();
 
-    Vector unary_commands = new Vector();
+    Vector<String> unary_commands = new Vector<String>();
     String[] u_commands = {"clear", "print", "printenv", "printall", "startover", "test"};
 
     VariableTable variables;
     OperatorControlCenter opCon;
 
+    /**
+     *  Recently parsed equations, see ProgramCache
+     */
+    ProgramCache programs = new ProgramCache(256);
+    
+    /**
+     *  Sets how many parsed equations are kept for reuse. Zero turns
+     *  the cache off.
+     */
+    public void setCacheSize(int size) {
+        programs.setCapacity(size);
+    }
+    
+    /**
+     *  @return how many equations were found already parsed
+     */
+    public long getCacheHits() {
+        return programs.getHits();
+    }
+    
+    /**
+     *  @return how many equations had to be parsed
+     */
+    public long getCacheMisses() {
+        return programs.getMisses();
+    }
+    
     public void setLimitUpperPower (long limit) {
     	opCon.setLimitUpperPower(limit);
     }
@@ -917,11 +796,95 @@ public class Calculator {
     	opCon.setLimitFactorial(limit);
     }
     
+    /**
+     *  How much working out each equation may take, in ComputeBudget
+     *  units (roughly nanoseconds). An equation that would go over stops
+     *  with a ComputeBudget.Exceeded. 0, the default, is no limit.
+     */
+    public void setBudget (long units) {
+    	this.budget = units;
+    }
+    
+    public long getBudget () {
+    	return budget;
+    }
+    
+    private long budget = 0;
+    
+    /**
+     *  Answers with more digits than this are summarised, giving how many
+     *  digits there are and the first and last SUMMARY_DIGITS of them,
+     *  instead of being printed in full. 0, the default, is no limit.
+     */
+    public void setLongestResult (int digits) {
+    	this.longestResult = digits;
+    }
+    
+    public int getLongestResult () {
+    	return longestResult;
+    }
+    
+    private int longestResult = 0;
+    
+    /**
+     *  Whether answers are dirtyRounded to scale places before they're
+     *  printed, so .499999... comes out as .5. On by default; off, an
+     *  answer is printed with all the places it was worked out to.
+     */
+    public void setDirtyRounding (boolean dirtyRounding) {
+    	this.dirtyRounding = dirtyRounding;
+    }
+    
+    public boolean isDirtyRounding () {
+    	return dirtyRounding;
+    }
+    
+    private boolean dirtyRounding = true;
+    
+    /**
+     *  Whether comparisons dirtyRound their operands first, so 1/3*3==1 is
+     *  true, see OperatorControlCenter.setLazyEquality. On by default.
+     */
+    public void setLazyEquality (boolean lazyEquality) {
+    	opCon.setLazyEquality(lazyEquality);
+    }
+    
+    public boolean isLazyEquality () {
+    	return opCon.isLazyEquality();
+    }
+    
+    /**
+     *  Whether fractions are kept exact, so that 1/3*3 is exactly 1, see
+     *  CalcRational. Off by default, when every division is done to
+     *  scale*2 places.
+     */
+    public void setExactFractions (boolean exactFractions) {
+    	opCon.setExactFractions(exactFractions);
+    }
+    
+    public boolean isExactFractions () {
+    	return opCon.isExactFractions();
+    }
+    
+    /**
+     *  How many digits a summarised answer gives from each end
+     */
+    public static final int SUMMARY_DIGITS = 60;
+    
     public Calculator() {
         this(32);
         //System.out.println("empty");
     }//end - public Calculator
     
+    /**
+     *  A calculator that shares its parsed equations with others, see
+     *  CalculatorSessions.
+     */
+    Calculator(int scl, ProgramCache programs) {
+        this(scl);
+        this.programs = programs;
+    }
+    
     public Calculator(int scl) {
         //System.out.println("full");
         int scale = scl;
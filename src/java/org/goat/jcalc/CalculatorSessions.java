@@ -0,0 +1,216 @@
+package org.goat.jcalc;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *  A Calculator for each chat, so that one chat's history, variables and
+ *  scale are never seen by another.<BR>
+ *  <BR>
+ *  Sessions are made the first time a chat uses the calculator. They are
+ *  cheap: pi, e and the like are worked out once for the whole process (see
+ *  Constants), and every session shares one ProgramCache, as an equation
+ *  parses the same way whichever chat it came from. Each session keeps at
+ *  most maxEntries entries of history, dropping the oldest.<BR>
+ *  <BR>
+ *  A session that hasn't been used for idleMillis is dropped, and if there
+ *  are more than maxSessions the least recently used one goes. There's no
+ *  thread for this; it's done on the way in.<BR>
+ *  <BR>
+ *  Different chats evaluate at the same time. Evaluations for the same
+ *  chat take turns, as a Calculator's history and scale aren't safe to
+ *  change from two threads at once. Each is held to a ComputeBudget, so
+ *  it runs on the caller's thread and stops on its own if it's too much.
+ */
+public class CalculatorSessions {
+
+    /**
+     *  The ComputeBudget an equation gets unless setBudget says otherwise,
+     *  about two seconds' work.
+     */
+    public static final long DEFAULT_BUDGET = 2000000000L;
+
+    /**
+     *  Answers with more digits than this are summarised unless all the
+     *  digits are asked for, see Calculator.setLongestResult.
+     */
+    public static final int LONGEST_RESULT = 10000;
+
+    //the key for a null chat, as ConcurrentHashMap won't take null
+    private static final Object NO_CHAT = new Object();
+
+    private final ConcurrentHashMap<Object, Session> sessions = new ConcurrentHashMap<Object, Session>();
+    private final ProgramCache programs = new ProgramCache(256);
+
+    private final int maxSessions;
+    private final int maxEntries;
+    private final long idleMillis;
+    private volatile long lastSweep = System.currentTimeMillis();
+    private volatile long budget = DEFAULT_BUDGET;
+    private volatile boolean exactFractions = true;
+
+    private static final class Session {
+        final Calculator calculator;
+        volatile long lastUsed = System.currentTimeMillis();
+
+        Session(Calculator calculator){
+            this.calculator = calculator;
+        }
+    }
+
+    /**
+     *  Up to 1024 sessions of 64 entries each, dropped after an hour unused.
+     */
+    public CalculatorSessions(){
+        this(1024, 64, 60*60*1000L);
+    }
+
+    /**
+     *  @param maxSessions - the most sessions kept at once
+     *  @param maxEntries - the most history entries each session keeps
+     *  @param idleMillis - how long a session is kept without being used
+     */
+    public CalculatorSessions(int maxSessions, int maxEntries, long idleMillis){
+        this.maxSessions = maxSessions;
+        this.maxEntries = maxEntries;
+        this.idleMillis = idleMillis;
+    }
+
+    /**
+     *  Evaluates an equation in the chat's session, adding it to that
+     *  session's history so ans(INT), entry(INT) and del(INT) work.
+     *
+     *  @param chat - anything identifying the chat, such as its id, or null
+     *  @param equation - an expression
+     *  @return String - the result
+     */
+    public String evaluate(Object chat, String equation) throws CalculatorException, InterruptedException {
+        return evaluate(chat, equation, false);
+    }
+
+    /**
+     *  As evaluate, but if allDigits is true a long answer is given in full
+     *  instead of summarised.
+     */
+    public String evaluate(Object chat, String equation, boolean allDigits) throws CalculatorException, InterruptedException {
+        Calculator calculator = calculator(chat);
+        synchronized(calculator){
+            return calculator.evaluate_equation_and_add(equation, allDigits);
+        }
+    }
+
+    /**
+     *  @return the chat's calculator, made if it hasn't got one
+     */
+    public Calculator calculator(Object chat){
+        if(chat == null){
+            chat = NO_CHAT;
+        }
+        long now = System.currentTimeMillis();
+        if(now - lastSweep > idleMillis/4){
+            lastSweep = now;
+            dropIdle(now);
+        }
+
+        Session session = sessions.get(chat);
+        if(session == null){
+            session = sessions.computeIfAbsent(chat, c -> {
+                Calculator calculator = new Calculator(32, programs);
+                calculator.entries.setCapacity(maxEntries);
+                calculator.setBudget(budget);
+                calculator.setLongestResult(LONGEST_RESULT);
+                calculator.setExactFractions(exactFractions);
+                return new Session(calculator);
+            });
+            if(sessions.size() > maxSessions){
+                dropLeastRecentlyUsed(session);
+            }
+        }
+        session.lastUsed = now;
+        return session.calculator;
+    }
+
+    /**
+     *  Sets the ComputeBudget for every session's equations, 0 for no
+     *  limit.
+     */
+    public void setBudget(long units){
+        budget = units;
+        for(Session session : sessions.values()){
+            session.calculator.setBudget(units);
+        }
+    }
+
+    public long getBudget(){
+        return budget;
+    }
+
+    /**
+     *  Sets whether every session keeps fractions exact, see
+     *  Calculator.setExactFractions. On by default, as chat maths is
+     *  mostly short chains of fractions.
+     */
+    public void setExactFractions(boolean exact){
+        exactFractions = exact;
+        for(Session session : sessions.values()){
+            session.calculator.setExactFractions(exact);
+        }
+    }
+
+    public boolean isExactFractions(){
+        return exactFractions;
+    }
+
+    /**
+     *  Forgets the chat's session, history and all.
+     */
+    public void remove(Object chat){
+        sessions.remove(chat == null ? NO_CHAT : chat);
+    }
+
+    /**
+     *  @return how many chats have a session
+     */
+    public int size(){
+        return sessions.size();
+    }
+
+    /**
+     *  @return how many equations were found already parsed, in any session
+     */
+    public long getCacheHits(){
+        return programs.getHits();
+    }
+
+    /**
+     *  @return how many equations had to be parsed, in any session
+     */
+    public long getCacheMisses(){
+        return programs.getMisses();
+    }
+
+    private void dropIdle(long now){
+        Iterator<Session> it = sessions.values().iterator();
+        while(it.hasNext()){
+            if(now - it.next().lastUsed > idleMillis){
+                it.remove();
+            }
+        }
+    }
+
+    private void dropLeastRecentlyUsed(Session keep){
+        while(sessions.size() > maxSessions){
+            Map.Entry<Object, Session> oldest = null;
+            for(Map.Entry<Object, Session> e : sessions.entrySet()){
+                if(e.getValue() != keep && (oldest == null || e.getValue().lastUsed < oldest.getValue().lastUsed)){
+                    oldest = e;
+                }
+            }
+            if(oldest == null){
+                return;
+            }
+            sessions.remove(oldest.getKey(), oldest.getValue());
+        }
+    }
+}
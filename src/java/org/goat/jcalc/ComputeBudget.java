@@ -0,0 +1,194 @@
+package org.goat.jcalc;
+
+import java.math.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *  How much working out an equation is allowed, counted rather than
+ *  timed.<BR>
+ *  <BR>
+ *  Every costly step charges the budget for the thread it's on, before it
+ *  starts, by what it will cost for the size of its operands: a
+ *  multiplication by the words in each side, a division by about three
+ *  times that, a term of a series by the places it's worked to, and
+ *  printing the answer by its digits. A unit is roughly a nanosecond.
+ *  Steps whose cost is known up front, like n! or x^n, also check the
+ *  whole of it before the first multiplication. Once the budget would be
+ *  overspent, the step throws Exceeded instead of starting, so the same
+ *  equation always gets as far and no further, however busy the machine.<BR>
+ *  <BR>
+ *  Outside an equation with a budget (see Calculator.setBudget) the
+ *  charges cost nothing. Work an equation hands to other threads, such as
+ *  a range split over a ForkJoinPool, takes the budget with it (see enter)
+ *  and spends from the same total.
+ */
+public final class ComputeBudget {
+
+    /**
+     *  Thrown when a step would take an equation over its budget. It is
+     *  an InterruptedException, as a stopped equation always has been.
+     */
+    public static final class Exceeded extends InterruptedException {
+        private static final long serialVersionUID = 1L;
+
+        Exceeded(){
+            super("that would take more working out than is allowed");
+        }
+    }
+
+    //multiplications with a side smaller than this are schoolbook
+    private static final long KARATSUBA_WORDS = 50;
+
+    private static final ThreadLocal<ComputeBudget> current = new ThreadLocal<ComputeBudget>();
+
+    private final long limit;
+    private final AtomicLong spent = new AtomicLong();
+
+    private ComputeBudget(long limit){
+        this.limit = limit;
+    }
+
+    /**
+     *  Starts a budget of limit units on this thread, unless one is
+     *  running already, in which case that one carries on. Pass what's
+     *  returned to close.
+     *
+     *  @param limit - the units allowed, 0 for no limit
+     */
+    static ComputeBudget open(long limit){
+        ComputeBudget running = current.get();
+        if(running == null && limit > 0){
+            current.set(new ComputeBudget(limit));
+        }
+        return running;
+    }
+
+    /**
+     *  Ends the budget open started, if it started one.
+     */
+    static void close(ComputeBudget running){
+        if(running == null){
+            current.remove();
+        }
+    }
+
+    /**
+     *  @return the budget running on this thread, or null
+     */
+    static ComputeBudget running(){
+        return current.get();
+    }
+
+    /**
+     *  Runs this thread on another thread's budget, which may be null, until
+     *  leave is called with what's returned.
+     */
+    static ComputeBudget enter(ComputeBudget budget){
+        ComputeBudget previous = current.get();
+        leave(budget);
+        return previous;
+    }
+
+    static void leave(ComputeBudget previous){
+        if(previous == null){
+            current.remove();
+        }else{
+            current.set(previous);
+        }
+    }
+
+    /**
+     *  Spends units, or throws if there aren't that many left.
+     */
+    static void charge(long units) throws Exceeded {
+        ComputeBudget budget = current.get();
+        if(budget == null){
+            return;
+        }
+        if(units > budget.limit - budget.spent.get() || budget.spent.addAndGet(units) > budget.limit){
+            budget.spent.set(budget.limit);
+            throw new Exceeded();
+        }
+    }
+
+    /**
+     *  Throws if there aren't units left, without spending them; for work
+     *  whose parts are charged as they are done.
+     */
+    static void expect(long units) throws Exceeded {
+        ComputeBudget budget = current.get();
+        if(budget != null && units > budget.limit - budget.spent.get()){
+            throw new Exceeded();
+        }
+    }
+
+    static void multiply(long words, long otherWords) throws Exceeded {
+        charge(multiplyCost(words, otherWords));
+    }
+
+    static void divide(long words, long otherWords) throws Exceeded {
+        charge(divideCost(words, otherWords));
+    }
+
+    static void gcd(long words, long otherWords) throws Exceeded {
+        charge(gcdCost(words, otherWords));
+    }
+
+    static void sqrt(long words) throws Exceeded {
+        charge(saturate(2.0 * divideCost(words, words)));
+    }
+
+    static void print(long words) throws Exceeded {
+        charge(printCost(words));
+    }
+
+    /**
+     *  @return the cost of multiplying numbers of these many 64 bit words
+     */
+    static long multiplyCost(long words, long otherWords){
+        long big = Math.max(words, otherWords);
+        long small = Math.max(1, Math.min(words, otherWords));
+        if(small < KARATSUBA_WORDS){
+            return 10*big*small + 10;
+        }
+        return saturate(40.0 * big * Math.pow(small, 0.585));
+    }
+
+    static long divideCost(long words, long otherWords){
+        return saturate(3.0 * multiplyCost(words, otherWords));
+    }
+
+    //one division brings the bigger down to the smaller's size, then every
+    //  word of that takes a step over the whole of both
+    static long gcdCost(long words, long otherWords){
+        long small = Math.max(1, Math.min(words, otherWords));
+        return saturate(divideCost(words, otherWords) + 120.0 * small * small);
+    }
+
+    //decimal digits come out recursively, each level a division
+    static long printCost(long words){
+        return saturate(12000.0 * Math.pow(Math.max(1, words), 1.17));
+    }
+
+    /**
+     *  @return how many 64 bit words x's digits take
+     */
+    static long words(BigDecimal x){
+        return words(x.unscaledValue());
+    }
+
+    static long words(BigInteger x){
+        return (x.bitLength() >> 6) + 1;
+    }
+
+    /**
+     *  @return how many 64 bit words a number of this many digits takes
+     */
+    static long digitWords(long digits){
+        return digits/19 + 1;
+    }
+
+    private static long saturate(double units){
+        return units >= Long.MAX_VALUE ? Long.MAX_VALUE : (long)units;
+    }
+}
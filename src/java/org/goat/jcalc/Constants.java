@@ -0,0 +1,282 @@
+package org.goat.jcalc;
+
+import java.math.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ *  Pi, e and ln(2), for every Calculator in the process.<BR>
+ *  <BR>
+ *  Nothing is worked out until it is first asked for. Up to SHARED_SCALE
+ *  places, only the most places of each constant worked out so far are
+ *  kept for everyone, and any scale up to that is served by rounding them.
+ *  A scale past it has the constant worked out again, to the next power of
+ *  two places, and that replaces what was kept. That's done off the
+ *  caller's thread and budget, so what a calculation costs doesn't depend
+ *  on who asked for pi first. Past SHARED_SCALE the caller works the
+ *  constant out for itself, on its own budget, and nothing is kept.<BR>
+ *  <BR>
+ *  Pi is the Chudnovsky series and e the series for 1/k!, both summed by
+ *  binary splitting: the terms are combined pairwise as exact integers,
+ *  which leaves a single division at the end. ln(2) is 2*atanh(1/3), whose
+ *  terms each take only divisions by small numbers.
+ */
+final class Constants {
+
+    //digits worked out beyond the scale asked for, so rounding to it is right
+    private static final int GUARD = 10;
+
+    //the most places kept for everyone, and the fewest worked out to keep
+    private static final int SHARED_SCALE = 4096;
+    private static final int SMALLEST_SHARED = 64;
+
+    private interface Series {
+        BigDecimal places(int scl) throws InterruptedException;
+    }
+
+    /*
+     *  The most places of one constant worked out so far, and the work
+     *  under way to more. The lock is only held to look at or replace
+     *  them, never while a series is summed.
+     */
+    private static final class Kept {
+        final Series series;
+        private volatile BigDecimal best;
+        //the last scale asked for, since rounding all of best to it isn't free
+        private volatile BigDecimal rounded;
+        private CompletableFuture<BigDecimal> growing;
+        private int growingTo;
+
+        Kept(Series series){
+            this.series = series;
+        }
+
+        /*
+         *  at least places places, waiting for them to be worked out if
+         *  nobody has yet
+         */
+        BigDecimal places(int places) throws InterruptedException {
+            BigDecimal known = best;
+            if(known != null && known.scale() >= places){
+                return known;
+            }
+            CompletableFuture<BigDecimal> value;
+            synchronized(this){
+                known = best;
+                if(known != null && known.scale() >= places){
+                    return known;
+                }
+                value = growing;
+                if(value == null || growingTo < places){
+                    int kept = SMALLEST_SHARED;
+                    while(kept < places){
+                        kept *= 2;
+                    }
+                    int to = kept;
+                    CompletableFuture<BigDecimal> started = CompletableFuture.supplyAsync(() -> {
+                        try{
+                            return series.places(to);
+                        }catch(InterruptedException ex){
+                            throw new CompletionException(ex);
+                        }
+                    });
+                    value = growing = started;
+                    growingTo = to;
+                    started.whenComplete((v, ex) -> finished(started, v));
+                }
+            }
+            try{
+                return value.get();
+            }catch(ExecutionException ex){
+                if(ex.getCause() instanceof RuntimeException){
+                    throw (RuntimeException)ex.getCause();
+                }
+                throw new IllegalStateException(ex.getCause());
+            }
+        }
+
+        //keep v if it's more places than before; a failure is just
+        //forgotten, so the next caller to need more places tries again
+        private synchronized void finished(CompletableFuture<BigDecimal> value, BigDecimal v){
+            if(v != null && (best == null || v.scale() > best.scale())){
+                best = v;
+            }
+            if(growing == value){
+                growing = null;
+            }
+        }
+    }
+
+    private static final Kept pi = new Kept(Constants::chudnovsky);
+    private static final Kept e = new Kept(Constants::exponential);
+    private static final Kept ln2 = new Kept(Constants::logarithm);
+
+    private Constants(){
+    }
+
+    /**
+     *  @return pi, rounded half up to scl places
+     */
+    static BigDecimal pi(int scl) throws InterruptedException {
+        return constant(pi, scl);
+    }
+
+    /**
+     *  @return e, rounded half up to scl places
+     */
+    static BigDecimal e(int scl) throws InterruptedException {
+        return constant(e, scl);
+    }
+
+
+    /**
+     *  @return ln(2) = 2*atanh(1/3), rounded half up to scl places
+     */
+    static BigDecimal ln2(int scl) throws InterruptedException {
+        return constant(ln2, scl);
+    }
+
+
+    /**
+     *  @return about what pi and ln(2) to scl places cost the caller: nothing
+     *          if they're kept for everyone, otherwise the series for each
+     */
+    static long cost(int scl){
+        int places = scl + GUARD;
+        if(places <= SHARED_SCALE){
+            return 0;
+        }
+        long words = ComputeBudget.digitWords(places);
+        //ln(2) gains log10(9) digits a term, for two small divisions
+        long ln2 = (long)(places / Math.log10(9)) * 2 * ComputeBudget.divideCost(words, 1);
+        //pi's binary splitting is four products of up to full size a level
+        long levels = 64 - Long.numberOfLeadingZeros(places/14 + 2);
+        return ln2 + 4 * levels * ComputeBudget.multiplyCost(words, words);
+    }
+
+
+    /*
+     *  the constant to scl places, from what's kept if it's kept
+     */
+    private static BigDecimal constant(Kept kept, int scl) throws InterruptedException {
+        int places = scl + GUARD;
+        if(places > SHARED_SCALE){
+            return kept.series.places(places).setScale(scl, RoundingMode.HALF_UP);
+        }
+        BigDecimal value = kept.rounded;
+        if(value == null || value.scale() != scl){
+            value = kept.places(places).setScale(scl, RoundingMode.HALF_UP);
+            kept.rounded = value;
+        }
+        return value;
+    }
+
+
+    /*
+     *  atanh(1/3) = 1/3 + 1/(3*3^3) + 1/(5*3^5) + ..., where every step is
+     *  a division by a small number
+     */
+    private static BigDecimal logarithm(int scl) throws InterruptedException {
+        int wscl = scl + 2;
+        BigDecimal nine = BigDecimal.valueOf(9);
+        BigDecimal power = BigDecimal.ONE.divide(BigDecimal.valueOf(3), wscl, RoundingMode.HALF_EVEN);
+        BigDecimal sum = power;
+        long words = ComputeBudget.digitWords(wscl);
+        for(long n=3; ; n+=2){
+            if(Thread.interrupted())
+                throw new InterruptedException();
+            ComputeBudget.divide(words, 1);
+            ComputeBudget.divide(words, 1);
+            power = power.divide(nine, wscl, RoundingMode.HALF_EVEN);
+            if(power.signum() == 0){
+                break;
+            }
+            sum = sum.add(power.divide(BigDecimal.valueOf(n), wscl, RoundingMode.HALF_EVEN));
+        }
+        return sum.multiply(BigDecimal.valueOf(2)).setScale(scl, RoundingMode.DOWN);
+    }
+
+
+    private static final BigInteger C3_OVER_24 = BigInteger.valueOf(640320).pow(3).divide(BigInteger.valueOf(24));
+
+    /*
+     *  pi = 426880 sqrt(10005) Q(0,n) / T(0,n), each term adding about
+     *  14.18 digits
+     */
+    private static BigDecimal chudnovsky(int scl) throws InterruptedException {
+        long terms = scl/14 + 2;
+        BigInteger[] pqt = chudnovsky(0, terms);
+        MathContext mc = new MathContext(scl + 5);
+        long words = ComputeBudget.digitWords(scl);
+        ComputeBudget.multiply(words, words);
+        ComputeBudget.divide(words, words);
+        BigDecimal sqrt = jcalc_math.sqrt(new BigDecimal(10005), mc);
+        BigDecimal top = new BigDecimal(pqt[1]).multiply(BigDecimal.valueOf(426880)).multiply(sqrt);
+        return top.divide(new BigDecimal(pqt[2]), scl, RoundingMode.DOWN);
+    }
+
+    //P, Q and T for terms a up to b
+    private static BigInteger[] chudnovsky(long a, long b) throws InterruptedException {
+        if(b - a == 1){
+            BigInteger p, q;
+            if(a == 0){
+                p = q = BigInteger.ONE;
+            }else{
+                p = BigInteger.valueOf(6*a - 5).multiply(BigInteger.valueOf(2*a - 1)).multiply(BigInteger.valueOf(6*a - 1));
+                q = BigInteger.valueOf(a).pow(3).multiply(C3_OVER_24);
+            }
+            BigInteger t = p.multiply(BigInteger.valueOf(13591409 + 545140134*a));
+            if((a & 1) == 1){
+                t = t.negate();
+            }
+            return new BigInteger[]{p, q, t};
+        }
+        if(Thread.interrupted())
+            throw new InterruptedException();
+        long m = (a + b)/2;
+        BigInteger[] left = chudnovsky(a, m);
+        BigInteger[] right = chudnovsky(m, b);
+        //Q is the biggest of the three, and there are four products
+        ComputeBudget.charge(4*ComputeBudget.multiplyCost(ComputeBudget.words(left[1]), ComputeBudget.words(right[1])));
+        return new BigInteger[]{
+            left[0].multiply(right[0]),
+            left[1].multiply(right[1]),
+            right[1].multiply(left[2]).add(left[0].multiply(right[2]))
+        };
+    }
+
+
+    /*
+     *  e = 1 + P(0,n)/Q(0,n), where n! is past the scale
+     */
+    private static BigDecimal exponential(int scl) throws InterruptedException {
+        long terms = 1;
+        double digits = 0;
+        while(digits < scl + 1){
+            terms++;
+            digits += Math.log10(terms);
+        }
+        BigInteger[] pq = exponential(0, terms);
+        ComputeBudget.divide(ComputeBudget.digitWords(scl) + ComputeBudget.words(pq[0]), ComputeBudget.words(pq[1]));
+        BigDecimal sum = new BigDecimal(pq[0]).divide(new BigDecimal(pq[1]), scl, RoundingMode.DOWN);
+        return sum.add(BigDecimal.ONE);
+    }
+
+    //P and Q where P/Q = 1/(a+1) + 1/((a+1)(a+2)) + ... + 1/((a+1)...b)
+    private static BigInteger[] exponential(long a, long b) throws InterruptedException {
+        if(b - a == 1){
+            return new BigInteger[]{BigInteger.ONE, BigInteger.valueOf(b)};
+        }
+        if(Thread.interrupted())
+            throw new InterruptedException();
+        long m = (a + b)/2;
+        BigInteger[] left = exponential(a, m);
+        BigInteger[] right = exponential(m, b);
+        ComputeBudget.charge(2*ComputeBudget.multiplyCost(ComputeBudget.words(left[1]), ComputeBudget.words(right[1])));
+        return new BigInteger[]{
+            left[0].multiply(right[1]).add(right[0]),
+            left[1].multiply(right[1])
+        };
+    }
+}
@@ -8,64 +8,20 @@ public class E implements variable_interface{
     //this will be useful with sympolic notation
     
     int scale;
-    BigDecimal value;
     
-    public E(int scl) throws InterruptedException {
+    public E(int scl){
         this.scale = scl;
-        value = this.calculate_value(scl);
     }
     
-    public BigDecimal calculate_value(int scl) throws InterruptedException {
-        //System.out.println("calculating for: " + scl);
-        if(value==null){
-            value = new BigDecimal("2.5");
-        }
-        
-        BigDecimal prev = value.subtract( BigDecimal.valueOf(1));
-        BigDecimal ONE = new BigDecimal("1");
-        
-        int iteration = 3;
-        
-        while(prev.compareTo(value)!=0){
-            if(Thread.currentThread().isInterrupted()) {
-                throw new InterruptedException();
-            }
-            prev = value;
-            
-            BigDecimal fact = new BigDecimal(iteration);
-            value = value.add( ONE.divide( jcalc_math.factorial(fact), scale*2, BigDecimal.ROUND_HALF_UP));
-            iteration++;
-            
-            //System.out.println(value+"=="+prev);
-        }
-        return value;
-    }//end - public BigDecimal calculate_value(int scl)
-    
-    
+    /**
+     *  e to scl places, or to the last scale asked for if scl is under 16.
+     *  Worked out once for the whole process, see Constants.
+     */
     public BigDecimal getValue(int scl) throws InterruptedException {
-        if(scl>15 && scl!=scale){
+        if(scl>15){
             this.scale=scl;
-        }else if(scl<16){
-            return value;
-        }
-        
-        if(scl>value.scale()){
-            //System.out.println("get new pi");
-            value = calculate_value(scl);
-        }else if(scl<value.scale()){
-            value = value.setScale(scl,BigDecimal.ROUND_HALF_UP);
-        }
-
-        return value;        
-    }
-    
-    
-    BigDecimal pow(BigDecimal left, BigDecimal right){
-        BigDecimal orig = new BigDecimal(left.toString());
-        for(int i=1; i<right.intValue(); i++){
-            left = left.multiply(orig);
         }
-        return left;
+        return Constants.e(scale);
     }
     
 }
@@ -1,86 +1,204 @@
 package org.goat.jcalc;
 
+import java.math.BigDecimal;
 import java.util.Vector;
 
 
+/**
+ *  The history of equations and their results, for ans(INT), entry(INT)
+ *  and del(INT).<BR>
+ *  <BR>
+ *  Kept in a ring buffer: if a capacity is set, adding an entry to a full
+ *  history drops the oldest one. Observers are told about every change.
+ */
 public class Entries extends java.util.Observable  {
 
-    public Vector entries_list = new Vector();
+    private Entry[] ring = new Entry[16];
+    private int first, size;
+    private int capacity; //0 for no limit
 
     class Entry {
         String equation, result;
+        BigDecimal full; //the answer, if result is only a summary of it
+        BigDecimal[] answers; //what the equation's answer slots stand for
         public Entry(String e, String r){
             this.equation=e;
             this.result=r;
         }
     }
 
+    public Entries(){
+    }
+
+    /**
+     *  @param capacity - the most entries kept, 0 for no limit
+     */
+    public Entries(int capacity){
+        this.capacity = capacity;
+    }
+
+    /**
+     *  Sets the most entries kept, dropping the oldest ones if there are now
+     *  too many. 0 means no limit.
+     */
+    public void setCapacity(int capacity){
+        this.capacity = capacity;
+        if(capacity > 0 && size > capacity){
+            for(int i=0; i<size-capacity; i++){
+                ring[(first+i)%ring.length] = null;
+            }
+            first = (first + size - capacity)%ring.length;
+            size = capacity;
+            setChanged();
+            this.notifyObservers();
+        }
+    }
+
+    public int getCapacity(){
+        return capacity;
+    }
+
     public void clear(){
-        entries_list.clear();
+        ring = new Entry[16];
+        first = 0;
+        size = 0;
         setChanged();
         this.notifyObservers();
     }
 
     public int getNumEntries(){
-        return entries_list.size();
+        return size;
     }
-    
+
     public void reverseDelete(int i){ // throws CalculatorException {
-        //if(i>entries_list.size()||i<1){
+        //if(i>size||i<1){
         //    throw new CalculatorException("Domain error");
         //}
-        entries_list.removeElementAt(i);
+        remove(i);
         setChanged();
         this.notifyObservers();
     }
-    
-    
+
+
     public void delete(int i) throws CalculatorException, InterruptedException {
-        if(i>entries_list.size()||i<1){
+        if(i>size||i<1){
             throw new CalculatorException("Domain error");
         }
-        entries_list.removeElementAt(entries_list.size()-i);
+        remove(size-i);
         setChanged();
         this.notifyObservers();
-    }    
-    
-    
+    }
+
+
     public String getAns(int i) throws CalculatorException, InterruptedException {
-        if(i>entries_list.size()||i<1){
-            System.out.println("size: " + entries_list.size());
+        if(i>size||i<1){
+            throw new CalculatorException("Domain error");
+        }
+        Entry e = get(size-i);
+        if(e.full != null){
+            //a long answer, only now needed in full
+            ComputeBudget.print(ComputeBudget.words(e.full));
+            return e.full.toPlainString();
+        }
+        return e.result;
+    }
+
+
+    /**
+     *  @return the i'th answer, if it's a long one only kept summarised in
+     *          getAns, otherwise null
+     */
+    public BigDecimal getAnsValue(int i) throws CalculatorException {
+        if(i>size||i<1){
             throw new CalculatorException("Domain error");
         }
-        return ((Entry)entries_list.elementAt( entries_list.size()-i )).result;
+        return get(size-i).full;
     }
 
-    
+
     public String getEntry(int i) throws CalculatorException, InterruptedException {
-        if(i>entries_list.size()||i<1){
+        if(i>size||i<1){
             throw new CalculatorException("Domain error");
         }
-        
-        System.out.println("retrungin: " + ((Entry)entries_list.elementAt( entries_list.size()-i )).equation);
-        
-        return ((Entry)entries_list.elementAt( entries_list.size()-i )).equation;
-    }        
+        return get(size-i).equation;
+    }
+
+
+    /**
+     *  @return the numbers the i'th equation's answer slots stand for, or
+     *          null if it has none
+     */
+    public BigDecimal[] getEntryAnswers(int i) throws CalculatorException {
+        if(i>size||i<1){
+            throw new CalculatorException("Domain error");
+        }
+        return get(size-i).answers;
+    }
+
 
-    
     public Vector getAllEntries() throws InterruptedException {
-        Vector return_vector = new Vector(entries_list.size()*2);
-        for(int i=0; i<entries_list.size(); i++){
-            Entry e = (Entry)entries_list.elementAt(i);
+        Vector return_vector = new Vector(size*2);
+        for(int i=0; i<size; i++){
+            Entry e = get(i);
             return_vector.add(e.equation);
             return_vector.add(e.result);
         }
         return return_vector;
     }
 
-    
+
     public void addEntry(String equation, String results) throws InterruptedException {
+        this.addEntry(equation, results, null);
+    }
+
+
+    /**
+     *  Adds an entry whose results are a summary of full, which ans(INT)
+     *  gives instead.
+     */
+    public void addEntry(String equation, String results, BigDecimal full) throws InterruptedException {
+        this.addEntry(equation, results, full, null);
+    }
+
+
+    /**
+     *  As addEntry, for an equation with answer slots, which entry(INT)
+     *  binds to the same numbers again.
+     */
+    public void addEntry(String equation, String results, BigDecimal full, BigDecimal[] answers) throws InterruptedException {
+        if(capacity > 0 && size == capacity){
+            //full, so the oldest goes
+            ring[first] = null;
+            first = (first+1)%ring.length;
+            size--;
+        }
+        if(size == ring.length){
+            Entry[] bigger = new Entry[ring.length*2];
+            for(int i=0; i<size; i++){
+                bigger[i] = get(i);
+            }
+            ring = bigger;
+            first = 0;
+        }
         Entry e = new Entry(equation,results);
-        entries_list.add(e);
+        e.full = full;
+        e.answers = answers;
+        ring[(first+size)%ring.length] = e;
+        size++;
         setChanged();
         this.notifyObservers();
     }
-}//end 
 
+    //the i'th oldest entry, from 0
+    private Entry get(int i){
+        return ring[(first+i)%ring.length];
+    }
+
+    private void remove(int i){
+        for(; i<size-1; i++){
+            ring[(first+i)%ring.length] = get(i+1);
+        }
+        ring[(first+size-1)%ring.length] = null;
+        size--;
+    }
+}//end
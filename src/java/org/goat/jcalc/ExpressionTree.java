@@ -0,0 +1,266 @@
+package org.goat.jcalc;
+
+import java.math.BigDecimal;
+
+/**
+ *  A Program compiled into a tree of nodes, each of which evaluates its
+ *  children and then itself, for when the same Program is evaluated again
+ *  and again: a repeated equation, or the body of a range.<BR>
+ *  <BR>
+ *  Walking the rpn takes a stack, a switch on every node's kind and a cast
+ *  of its value. A tree does that once, when it's built, and what's left
+ *  is a call per node that the JIT can see through and inline. The
+ *  commonest operators, + - * and negation, have nodes of their own that
+ *  do whole numbers that fit a long, and BigDecimals, there and then.
+ *  Everything else, and anything those can't do, such as overflow, goes
+ *  through OperatorControlCenter.evaluate just as before. The answers, the
+ *  errors and the ComputeBudget charges are all the same.<BR>
+ *  <BR>
+ *  Made by Program.tree the first time it's wanted. Like the Program, a
+ *  tree is never changed once built, so any number of threads can
+ *  evaluate it at once.
+ */
+final class ExpressionTree {
+
+    private ExpressionTree(){
+    }
+
+    abstract static class Node {
+        /**
+         *  @param bound - the values of the ranges the Program is the body of
+         */
+        abstract Object evaluate(Calculator calc, Object[] bound) throws CalculatorException, InterruptedException;
+    }
+
+    /**
+     *  @return the root of program's tree; program mustn't be a command
+     */
+    static Node compile(Program program) throws CalculatorException {
+        Node[] stack = new Node[program.length];
+        int top = 0;
+        for(int i=0; i<program.length; i++){
+            byte kind = program.kind[i];
+            Object value = program.value[i];
+            int need = program.argc[i];
+            if(top < need){
+                throw faulty();
+            }
+            top -= need;
+            Node[] args = new Node[need];
+            System.arraycopy(stack, top, args, 0, need);
+
+            if(kind == Program.NUMBER){
+                stack[top++] = new Constant(value);
+            }else if(kind == Program.VARIABLE){
+                stack[top++] = new Variable((String)value);
+            }else if(kind == Program.BOUND){
+                stack[top++] = new Bound(((Integer)value).intValue());
+            }else if(kind == Program.RANGE){
+                stack[top++] = new Ranged((Range)value, args);
+            }else if(kind == Program.OPERATOR || kind == Program.FUNCTION){
+                stack[top++] = operator((Operator)value, args);
+            }else{
+                throw faulty();
+            }
+        }
+        if(top != 1){
+            throw faulty();
+        }
+        return stack[0];
+    }
+
+    private static Node operator(Operator op, Node[] args){
+        if(args.length == 2 && (op == Operator.ADD || op == Operator.SUBTRACT || op == Operator.MULTIPLY)){
+            return new Arithmetic(op, args[0], args[1]);
+        }
+        if(args.length == 1 && (op == Operator.NEGATIVE || op == Operator.NEGATE)){
+            return new Negate(op, args[0]);
+        }
+        if(args.length == 1){
+            return new Unary(op, args[0]);
+        }
+        if(args.length == 2){
+            return new Binary(op, args[0], args[1]);
+        }
+        return new Function(op, args);
+    }
+
+    private static CalculatorException faulty(){
+        return new CalculatorException("PROGRAM ERROR: the current equation executed faulty code, please contact the author");
+    }
+
+    private static final class Constant extends Node {
+        private final Object value;
+
+        Constant(Object value){
+            this.value = value;
+        }
+
+        Object evaluate(Calculator calc, Object[] bound){
+            return value;
+        }
+    }
+
+    private static final class Variable extends Node {
+        private final String name;
+
+        Variable(String name){
+            this.name = name;
+        }
+
+        Object evaluate(Calculator calc, Object[] bound) throws InterruptedException {
+            return calc.variables.variableValue(name, calc.opCon.getScale());
+        }
+    }
+
+    private static final class Bound extends Node {
+        private final int slot;
+
+        Bound(int slot){
+            this.slot = slot;
+        }
+
+        Object evaluate(Calculator calc, Object[] bound){
+            return bound[slot];
+        }
+    }
+
+    private static final class Ranged extends Node {
+        private final Range range;
+        private final Node[] args;
+
+        Ranged(Range range, Node[] args){
+            this.range = range;
+            this.args = args;
+        }
+
+        Object evaluate(Calculator calc, Object[] bound) throws CalculatorException, InterruptedException {
+            Object[] values = new Object[args.length];
+            for(int i=0; i<args.length; i++){
+                values[i] = args[i].evaluate(calc, bound);
+            }
+            return range.evaluate(calc, bound, values, 0, values.length);
+        }
+    }
+
+    private static class Unary extends Node {
+        final Operator op;
+        final Node operand;
+
+        Unary(Operator op, Node operand){
+            this.op = op;
+            this.operand = operand;
+        }
+
+        Object evaluate(Calculator calc, Object[] bound) throws CalculatorException, InterruptedException {
+            Object x = operand.evaluate(calc, bound);
+            if(Thread.interrupted())
+                throw new InterruptedException();
+            return calc.opCon.evaluate(op, new Object[]{x}, 0, 1);
+        }
+    }
+
+    private static class Binary extends Node {
+        final Operator op;
+        final Node left, right;
+
+        Binary(Operator op, Node left, Node right){
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        Object evaluate(Calculator calc, Object[] bound) throws CalculatorException, InterruptedException {
+            Object l = left.evaluate(calc, bound);
+            Object r = right.evaluate(calc, bound);
+            if(Thread.interrupted())
+                throw new InterruptedException();
+            return calc.opCon.evaluate(op, new Object[]{l, r}, 0, 2);
+        }
+    }
+
+    private static final class Function extends Node {
+        private final Operator op;
+        private final Node[] args;
+
+        Function(Operator op, Node[] args){
+            this.op = op;
+            this.args = args;
+        }
+
+        Object evaluate(Calculator calc, Object[] bound) throws CalculatorException, InterruptedException {
+            Object[] values = new Object[args.length];
+            for(int i=0; i<args.length; i++){
+                values[i] = args[i].evaluate(calc, bound);
+            }
+            if(Thread.interrupted())
+                throw new InterruptedException();
+            return calc.opCon.evaluate(op, values, 0, values.length);
+        }
+    }
+
+    //+ - and *, straight away for two longs that don't overflow or two BigDecimals
+    private static final class Arithmetic extends Binary {
+
+        Arithmetic(Operator op, Node left, Node right){
+            super(op, left, right);
+        }
+
+        Object evaluate(Calculator calc, Object[] bound) throws CalculatorException, InterruptedException {
+            Object l = left.evaluate(calc, bound);
+            Object r = right.evaluate(calc, bound);
+            if(Thread.interrupted())
+                throw new InterruptedException();
+            if(l instanceof Long && r instanceof Long){
+                long a = ((Long)l).longValue();
+                long b = ((Long)r).longValue();
+                try {
+                    switch(op){
+                        case ADD:      return Long.valueOf(Math.addExact(a, b));
+                        case SUBTRACT: return Long.valueOf(Math.subtractExact(a, b));
+                        default:       return Long.valueOf(Math.multiplyExact(a, b));
+                    }
+                } catch(ArithmeticException overflow){
+                    //too big for a long, so as BigDecimals
+                }
+            }else if(l instanceof BigDecimal && r instanceof BigDecimal){
+                BigDecimal a = (BigDecimal)l;
+                BigDecimal b = (BigDecimal)r;
+                switch(op){
+                    case ADD:
+                        ComputeBudget.charge(ComputeBudget.words(a) + ComputeBudget.words(b));
+                        return a.add(b);
+                    case SUBTRACT:
+                        ComputeBudget.charge(ComputeBudget.words(a) + ComputeBudget.words(b));
+                        return a.subtract(b);
+                    default:
+                        ComputeBudget.multiply(ComputeBudget.words(a), ComputeBudget.words(b));
+                        return a.multiply(b);
+                }
+            }
+            return calc.opCon.evaluate(op, new Object[]{l, r}, 0, 2);
+        }
+    }
+
+    //unary minus and negate
+    private static final class Negate extends Unary {
+
+        Negate(Operator op, Node operand){
+            super(op, operand);
+        }
+
+        Object evaluate(Calculator calc, Object[] bound) throws CalculatorException, InterruptedException {
+            Object x = operand.evaluate(calc, bound);
+            if(Thread.interrupted())
+                throw new InterruptedException();
+            if(x instanceof Long && ((Long)x).longValue() != Long.MIN_VALUE){
+                return Long.valueOf(-((Long)x).longValue());
+            }
+            if(x instanceof BigDecimal){
+                ComputeBudget.charge(ComputeBudget.words((BigDecimal)x));
+                return ((BigDecimal)x).negate();
+            }
+            return calc.opCon.evaluate(op, new Object[]{x}, 0, 1);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package org.goat.jcalc;
+
+import java.math.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *  n!, for !.<BR>
+ *  <BR>
+ *  Exact factorials are Luschny's split recursive algorithm: n! is the odd
+ *  parts of n/2^k for each k, each the product of the one before and a run
+ *  of odd numbers, shifted left by the n - bitcount(n) twos taken out along
+ *  the way. Runs of odd numbers are multiplied as a balanced tree, so the
+ *  big multiplications are of numbers of about the same size, and the
+ *  biggest ones are split between threads. The last few big answers are
+ *  kept, as the same one tends to be asked for again.<BR>
+ *  <BR>
+ *  A factorial with more digits than ^ is allowed to give is never worked
+ *  out. Instead its leading digits and size come from Stirling's series for
+ *  ln(n!), as in 8.2639316883E+5565708 for 1000000!.
+ */
+final class Factorial {
+
+    //products where both sides are bigger than this are split between threads
+    private static final int PARALLEL_BITS = 1 << 17;
+
+    //runs of up to this many odd numbers are multiplied one by one
+    private static final int SMALL = 16;
+
+    //the most leading digits given for a factorial too big to work out
+    static final int MAX_LEADING = 100;
+
+    //digits worked out beyond those kept
+    private static final int GUARD = 10;
+
+    //how many answers are kept, and the smallest n worth keeping
+    private static final int CACHED = 8;
+    private static final int CACHE_FROM = 1000;
+
+    private static final LinkedHashMap<Integer, BigInteger> recent = new LinkedHashMap<Integer, BigInteger>(16, 0.75f, true){
+        private static final long serialVersionUID = 1L;
+        protected boolean removeEldestEntry(Map.Entry<Integer, BigInteger> eldest){
+            return size() > CACHED;
+        }
+    };
+
+    //B(2k)/(2k(2k-1)), the coefficients of 1/n^(2k-1) in Stirling's series
+    private static final long[][] STIRLING = {
+        {1, 12}, {-1, 360}, {1, 1260}, {-1, 1680}, {1, 1188},
+        {-691, 360360}, {1, 156}, {-3617, 122400}, {43867, 244188}, {-174611, 125400}
+    };
+
+    private Factorial(){
+    }
+
+    /**
+     *  @return n!, exactly if it has no more than jcalc_math.MAX_DIGITS
+     *          digits, otherwise rounded to scale significant digits (at most
+     *          MAX_LEADING)
+     */
+    static BigDecimal of(BigInteger n, int scale) throws CalculatorException, InterruptedException {
+        double digits = log10(n.doubleValue());
+        if(digits <= jcalc_math.MAX_DIGITS){
+            return new BigDecimal(exact(n.intValue()));
+        }
+        //NaN once n is past the biggest double
+        if(Double.isNaN(digits) || digits >= Integer.MAX_VALUE){
+            throw new CalculatorException("that factorial is too big even to estimate");
+        }
+        return leading(new BigDecimal(n), Math.max(1, Math.min(scale, MAX_LEADING)));
+    }
+
+    /**
+     *  @return log10(n!), near enough to size it by
+     */
+    static double log10(double n){
+        if(n < 2){
+            return 0;
+        }
+        return (n*Math.log(n) - n + Math.log(2*Math.PI*n)/2) / Math.log(10);
+    }
+
+    /**
+     *  @return n!, for n of at least zero
+     */
+    static BigInteger exact(int n) throws InterruptedException {
+        if(n >= CACHE_FROM){
+            synchronized(recent){
+                BigInteger f = recent.get(n);
+                if(f != null){
+                    return f;
+                }
+            }
+        }
+        //the last few products, of halves of the answer, are most of the work
+        long half = ComputeBudget.digitWords((long)(log10(n)/2));
+        ComputeBudget.expect(2*ComputeBudget.multiplyCost(half, half));
+        BigInteger f = splitRecursive(n);
+        if(n >= CACHE_FROM){
+            synchronized(recent){
+                recent.put(n, f);
+            }
+        }
+        return f;
+    }
+
+    /**
+     *  @return lo * (lo+1) * ... * hi, or 1 if lo is more than hi, as for
+     *          n!/k!
+     */
+    static BigInteger product(long lo, long hi) throws InterruptedException {
+        if(lo > hi){
+            return BigInteger.ONE;
+        }
+        long half = ComputeBudget.digitWords((long)((log10(hi) - log10(lo - 1))/2));
+        ComputeBudget.expect(2*ComputeBudget.multiplyCost(half, half));
+        return run(lo, hi);
+    }
+
+    //lo to hi multiplied as a balanced tree
+    private static BigInteger run(long lo, long hi) throws InterruptedException {
+        long count = hi - lo + 1;
+        if(count <= SMALL){
+            ComputeBudget.multiply(count, count);
+            BigInteger p = BigInteger.valueOf(lo);
+            for(long i = lo + 1; i <= hi; i++){
+                p = p.multiply(BigInteger.valueOf(i));
+            }
+            return p;
+        }
+        if(Thread.interrupted())
+            throw new InterruptedException();
+        long m = lo + count/2;
+        return multiply(run(lo, m - 1), run(m, hi));
+    }
+
+    private static BigInteger splitRecursive(int n) throws InterruptedException {
+        BigInteger p = BigInteger.ONE;
+        BigInteger r = BigInteger.ONE;
+        long low = 1;
+        int shift = 0;
+        int h = 0;
+        int log2n = 31 - Integer.numberOfLeadingZeros(Math.max(n, 1));
+        while(h != n){
+            shift += h;
+            h = n >> log2n--;
+            long high = (h - 1) | 1;
+            if(high > low){
+                p = multiply(p, oddProduct(low + 2, high));
+                r = multiply(r, p);
+            }
+            low = high;
+        }
+        return r.shiftLeft(shift);
+    }
+
+    //a * (a+2) * ... * b, for odd a <= b
+    private static BigInteger oddProduct(long a, long b) throws InterruptedException {
+        long count = (b - a)/2 + 1;
+        if(count <= SMALL){
+            ComputeBudget.multiply(count, count);
+            BigInteger p = BigInteger.valueOf(a);
+            for(long i = a + 2; i <= b; i += 2){
+                p = p.multiply(BigInteger.valueOf(i));
+            }
+            return p;
+        }
+        if(Thread.interrupted())
+            throw new InterruptedException();
+        long m = a + 2*(count/2);
+        return multiply(oddProduct(a, m - 2), oddProduct(m, b));
+    }
+
+    private static BigInteger multiply(BigInteger x, BigInteger y) throws ComputeBudget.Exceeded {
+        ComputeBudget.multiply(ComputeBudget.words(x), ComputeBudget.words(y));
+        if(x.bitLength() > PARALLEL_BITS && y.bitLength() > PARALLEL_BITS){
+            return x.parallelMultiply(y);
+        }
+        return x.multiply(y);
+    }
+
+    /*  n! to sig significant digits, by
+     *
+     *      ln(n!) = n ln(n) - n + ln(2 pi n)/2 + sum B(2k)/(2k(2k-1)n^(2k-1))
+     *
+     *  which, for the n this is used for (a million digits is about 205000!),
+     *  is good to over MAX_LEADING digits after the point.
+     */
+    private static BigDecimal leading(BigDecimal n, int sig) throws InterruptedException {
+        double size = n.doubleValue()*Math.log(n.doubleValue());
+        int scl = sig + GUARD + (int)Math.log10(size) + 1;
+        BigDecimal two = BigDecimal.valueOf(2);
+
+        BigDecimal ln = n.multiply(Transcendental.ln(n, scl)).subtract(n);
+        ln = ln.add(Transcendental.ln(two.multiply(Constants.pi(scl)).multiply(n), scl).divide(two));
+
+        BigDecimal inverse = BigDecimal.ONE.divide(n, scl, RoundingMode.HALF_EVEN);
+        BigDecimal inverse2 = inverse.multiply(inverse).setScale(scl, RoundingMode.HALF_EVEN);
+        BigDecimal power = inverse;
+        for(int k=0; k<STIRLING.length && power.signum()!=0; k++){
+            BigDecimal term = power.multiply(BigDecimal.valueOf(STIRLING[k][0]))
+                                   .divide(BigDecimal.valueOf(STIRLING[k][1]), scl, RoundingMode.HALF_EVEN);
+            ln = ln.add(term);
+            power = power.multiply(inverse2).setScale(scl, RoundingMode.HALF_EVEN);
+        }
+
+        BigDecimal ln10 = Transcendental.ln(BigDecimal.TEN, scl);
+        BigDecimal log10 = ln.divide(ln10, scl, RoundingMode.HALF_EVEN);
+        BigDecimal exponent = log10.setScale(0, RoundingMode.FLOOR);
+        BigDecimal fraction = log10.subtract(exponent);
+
+        BigDecimal mantissa = Transcendental.exp(fraction.multiply(ln10), new MathContext(sig + GUARD));
+        mantissa = mantissa.round(new MathContext(sig, RoundingMode.HALF_UP));
+        return mantissa.scaleByPowerOfTen(exponent.intValue()).stripTrailingZeros();
+    }
+}
@@ -0,0 +1,169 @@
+package org.goat.jcalc;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ *  Splits a normalised equation into typed tokens in a single pass.<BR>
+ *  <BR>
+ *  Words (runs of anything but the operator characters) are classified as
+ *  they are read: function, variable, command, machine number, number, or
+ *  unknown. Operators are read greedily, so "<=" is one token and "<<=" is
+ *  "<<" then "=". Parentheses are counted on the way, and an unmatched or
+ *  unclosed one is reported before anything else, as it always has been.
+ *  Unknown words and lone "&", "|" or "=" are kept as UNKNOWN tokens and
+ *  only reported when the parser reaches them.<BR>
+ *  <BR>
+ *  Positions are character offsets into the normalised equation; a
+ *  token's position is that of its last character.<BR>
+ *  <BR>
+ *  A word "#k#" (see slot) is the k'th of the answers the Lexer was given,
+ *  a long ans(INT) that Calculator binds as a number rather than pasting
+ *  in all its digits to be read back.
+ */
+final class Lexer {
+
+    static final byte NUMBER   = 0; //value is a BigDecimal
+    static final byte MACHINE  = 1; //value is a CalcMachineNumber
+    static final byte VARIABLE = 2; //value is the name
+    static final byte FUNCTION = 3; //value is the Operator
+    static final byte OPERATOR = 4; //value is the Operator
+    static final byte OPEN     = 5;
+    static final byte CLOSE    = 6;
+    static final byte COMMA    = 7;
+    static final byte COMMAND  = 8; //value is the name
+    static final byte UNKNOWN  = 9; //value is the text
+    static final byte END      = 10;
+
+    private static final String DELIMS = "+/-*!^&=()<>|,%~";
+    private static final String SINGLE_OPS = "+-*/%^!~<>";
+    private static final String[] DOUBLE_OPS = {"&&", "||", "^^", "==", "!=", ">=", "<=", ">>", "<<"};
+
+    byte[] type;
+    Object[] value;
+    int[] position;
+    int count;
+
+    private final String s;
+    private final VariableTable variables;
+    private final Vector<String> commands;
+    private final List<BigDecimal> answers;
+
+    Lexer(String s, VariableTable variables, Vector<String> commands, List<BigDecimal> answers){
+        this.s = s;
+        this.variables = variables;
+        this.commands = commands;
+        this.answers = answers;
+        type = new byte[s.length() + 1];
+        value = new Object[s.length() + 1];
+        position = new int[s.length() + 1];
+    }
+
+    /**
+     *  Tokenises the whole equation, ending with an END token positioned
+     *  just past the last character.
+     */
+    Lexer lex() throws CalculatorException, InterruptedException {
+        int depth = 0;
+        int i = 0;
+        while(i < s.length()){
+            char c = s.charAt(i);
+            if(c == '('){
+                depth++;
+                add(OPEN, "(", i);
+                i++;
+            }else if(c == ')'){
+                if(--depth < 0){
+                    throw new CalculatorException("unmatched parenthesis", i);
+                }
+                add(CLOSE, ")", i);
+                i++;
+            }else if(c == ','){
+                add(COMMA, ",", i);
+                i++;
+            }else if(DELIMS.indexOf(c) >= 0){
+                String op = null;
+                if(i+1 < s.length()){
+                    String two = s.substring(i, i+2);
+                    for(int j=0; j<DOUBLE_OPS.length; j++){
+                        if(DOUBLE_OPS[j].equals(two)){
+                            op = DOUBLE_OPS[j];
+                        }
+                    }
+                }
+                if(op != null){
+                    add(OPERATOR, Operator.forSymbol(op), i+1);
+                    i += 2;
+                }else if(SINGLE_OPS.indexOf(c) >= 0){
+                    add(OPERATOR, Operator.forSymbol(String.valueOf(c)), i);
+                    i++;
+                }else{
+                    add(UNKNOWN, String.valueOf(c), i);
+                    i++;
+                }
+            }else{
+                int start = i;
+                while(i < s.length() && DELIMS.indexOf(s.charAt(i)) < 0){
+                    i++;
+                }
+                word(s.substring(start, i), i-1);
+            }
+        }
+        if(depth > 0){
+            throw new CalculatorException("unclosed parenthesis");
+        }
+        add(END, null, s.length());
+        return this;
+    }
+
+    /**
+     *  @return the word that stands for the k'th answer
+     */
+    static String slot(int k){
+        return "#" + k + "#";
+    }
+
+    private void word(String w, int at) throws InterruptedException {
+        Operator function = Operator.forSymbol(w);
+        BigDecimal answer = this.answer(w);
+        if(answer != null){
+            add(NUMBER, answer, at);
+        }else if(function != null && function.isFunction()){
+            add(FUNCTION, function, at);
+        }else if(variables.isVariable(w)){
+            add(VARIABLE, w, at);
+        }else if(commands.contains(w)){
+            add(COMMAND, w, at);
+        }else if(CalcMachineNumber.isMachineNumber(w)){
+            add(MACHINE, new CalcMachineNumber(w), at);
+        }else{
+            try {
+                add(NUMBER, new BigDecimal(w), at);
+            } catch (NumberFormatException e){
+                add(UNKNOWN, w, at);
+            }
+        }
+    }
+
+    //the answer w is the slot for, if it is one
+    private BigDecimal answer(String w){
+        if(answers.isEmpty() || w.length() < 3 || w.charAt(0) != '#' || w.charAt(w.length()-1) != '#'){
+            return null;
+        }
+        try {
+            int k = Integer.parseInt(w.substring(1, w.length()-1));
+            return k >= 0 && k < answers.size() ? answers.get(k) : null;
+        } catch (NumberFormatException e){
+            return null;
+        }
+    }
+
+    //every token takes at least one character, so the arrays never fill
+    private void add(byte t, Object v, int at){
+        type[count] = t;
+        value[count] = v;
+        position[count] = at;
+        count++;
+    }
+}
@@ -0,0 +1,285 @@
+package org.goat.jcalc;
+
+import java.math.*;
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.goat.jcalc.OperatorControlCenter.*;
+
+/**
+ *  Every operator and function the calculator knows, with everything about
+ *  it that doesn't change: precedence, how many operands it takes, which
+ *  kinds of operand it accepts, whether they may be negative, and what it
+ *  does.<BR>
+ *  <BR>
+ *  The Lexer resolves each symbol to one of these once, so evaluation goes
+ *  straight to the implementation instead of comparing the symbol against
+ *  every other one. OperatorControlCenter.evaluate checks and converts the
+ *  operands according to the legal and negatives rules, then calls apply.<BR>
+ *  <BR>
+ *  Operands reach apply in the order they come off the stack, so for a
+ *  binary operator nums[1] is the left hand side and nums[0] the right.
+ */
+enum Operator {
+
+    //                symbol       prec  type         operands legal        negatives
+    FACTORIAL        ("!",          10, UNARY_RIGHT,  1, INTS,        NO_NEGATIVES,   (oc, a) -> oc.factorial(a.ints[0])),
+    POWER            ("^",           9, BINARY_OP,    2, NUM,         NEGATIVES_OK,   (oc, a) -> oc.power(a.nums)),
+    LOGICAL_NOT      ("~",           8, UNARY_LEFT,   1, BOOLEAN,     NEGATIVES_OK,   (oc, a) -> Boolean.valueOf(!a.bools[0])),
+    NEGATIVE         ("#",           9, UNARY_LEFT,   1, NUM,         NEGATIVES_OK,   (oc, a) -> a.nums[0].negate()),
+    MULTIPLY         ("*",           7, BINARY_OP,    2, NUM,         NEGATIVES_OK,   (oc, a) -> a.nums[1].multiply(a.nums[0])),
+    DIVIDE           ("/",           7, BINARY_OP,    2, NUM,         NEGATIVES_OK,   (oc, a) -> oc.divide(a.nums)),
+    MODULO           ("%",           7, BINARY_OP,    2, INTS,        NO_NEGATIVES,   (oc, a) -> oc.remainder("%", a.nums)),
+    ADD              ("+",           6, BINARY_OP,    2, NUM,         NEGATIVES_OK,   (oc, a) -> a.nums[1].add(a.nums[0])),
+    SUBTRACT         ("-",           6, BINARY_OP,    2, NUM,         NEGATIVES_OK,   (oc, a) -> a.nums[1].subtract(a.nums[0])),
+    SHIFT_RIGHT      (">>",          5, BINARY_OP,    2, INTS,        FIRST_POSITIVE, (oc, a) -> new BigDecimal(a.ints[1].shiftRight(shift(a.ints[0])))),
+    SHIFT_LEFT       ("<<",          5, BINARY_OP,    2, INTS,        FIRST_POSITIVE, (oc, a) -> new BigDecimal(a.ints[1].shiftLeft(shift(a.ints[0])))),
+    GREATER_EQUAL    (">=",          3, BINARY_OP,    2, NUM,         NEGATIVES_OK,   (oc, a) -> Boolean.valueOf(a.nums[1].compareTo(a.nums[0])>=0)),
+    LESS_EQUAL       ("<=",          3, BINARY_OP,    2, NUM,         NEGATIVES_OK,   (oc, a) -> Boolean.valueOf(a.nums[1].compareTo(a.nums[0])<=0)),
+    GREATER          (">",           3, BINARY_OP,    2, NUM,         NEGATIVES_OK,   (oc, a) -> Boolean.valueOf(a.nums[1].compareTo(a.nums[0])>0)),
+    LESS             ("<",           3, BINARY_OP,    2, NUM,         NEGATIVES_OK,   (oc, a) -> Boolean.valueOf(a.nums[1].compareTo(a.nums[0])<0)),
+    EQUAL            ("==",          2, BINARY_OP,    2, NUM_BOOLEAN, NEGATIVES_OK,   (oc, a) -> Boolean.valueOf(a.booleans ? a.bools[1]==a.bools[0]
+                                                                                                                         : a.nums[1].compareTo(a.nums[0])==0)),
+    NOT_EQUAL        ("!=",          2, BINARY_OP,    2, NUM_BOOLEAN, NEGATIVES_OK,   (oc, a) -> Boolean.valueOf(a.booleans ? a.bools[1]!=a.bools[0]
+                                                                                                                         : a.nums[1].compareTo(a.nums[0])!=0)),
+    LOGICAL_AND      ("&&",          4, BINARY_OP,    2, INT_BOOLEAN, NO_NEGATIVES,   (oc, a) -> a.booleans ? (Object)Boolean.valueOf(a.bools[0] && a.bools[1])
+                                                                                                            : new BigDecimal(a.ints[1].and(a.ints[0]))),
+    LOGICAL_XOR      ("^^",          4, BINARY_OP,    2, INT_BOOLEAN, NO_NEGATIVES,   (oc, a) -> a.booleans ? (Object)Boolean.valueOf(a.bools[0] ^ a.bools[1])
+                                                                                                            : new BigDecimal(a.ints[1].xor(a.ints[0]))),
+    LOGICAL_OR       ("||",          4, BINARY_OP,    2, INT_BOOLEAN, NO_NEGATIVES,   (oc, a) -> a.booleans ? (Object)Boolean.valueOf(a.bools[0] || a.bools[1])
+                                                                                                            : new BigDecimal(a.ints[1].or(a.ints[0]))),
+    //only made by the Optimiser, for x^2, x/10^k and n!/k!; they answer as the
+    //  operators they replace would, and go by their symbols in messages
+    SQUARE           ("^",           9, BINARY_OP,    2, NUM,         NEGATIVES_OK,   (oc, a) -> oc.square(a.nums)),
+    MOVE_POINT       ("/",           7, BINARY_OP,    2, NUM,         NEGATIVES_OK,   (oc, a) -> oc.movePoint(a.nums)),
+    FACTORIAL_RATIO  ("!",          10, BINARY_OP,    2, NUM,         NEGATIVES_OK,   (oc, a) -> oc.factorialRatio(a.nums)),
+    //only here so isOperator and getPrecedence know them, as they always have
+    OPEN_PAREN       ("(",          -2, PAREN_OPEN,   0, NUM,         NEGATIVES_OK,   null),
+    CLOSE_PAREN      (")",          -2, PAREN_CLOSE,  0, NUM,         NEGATIVES_OK,   null),
+
+    //functions: a negative number of operands means at least that many
+    ABS              ("abs",        1, NUM,         NEGATIVES_OK,   (oc, a) -> a.nums[0].abs()),
+    AND              ("and",       -2, INT_BOOLEAN, NO_NEGATIVES,   (oc, a) -> and(a)),
+    ANDNOT           ("andnot",     2, BOOLEAN,     NO_NEGATIVES,   (oc, a) -> Boolean.valueOf(a.bools[1] && !a.bools[0])),
+    AVG              ("avg",       -1, NUM,         NEGATIVES_OK,   (oc, a) -> sum(a.nums).divide(BigDecimal.valueOf((long)a.nums.length), oc.scale, RoundingMode.HALF_UP)),
+    MIN              ("min",       -1, NUM,         NEGATIVES_OK,   (oc, a) -> min(a.nums)),
+    MAX              ("max",       -1, NUM,         NEGATIVES_OK,   (oc, a) -> max(a.nums)),
+    SUM              ("sum",       -1, NUM,         NEGATIVES_OK,   (oc, a) -> sum(a.nums)),
+    PRODUCT          ("product",   -1, NUM,         NEGATIVES_OK,   (oc, a) -> oc.product(a.nums)),
+    TABLE            ("table",     -1, NUM,         NEGATIVES_OK,   (oc, a) -> table(a.nums)),
+    NEGATE           ("negate",     1, NUM,         NEGATIVES_OK,   (oc, a) -> a.nums[0].negate()),
+    OR               ("or",        -2, INT_BOOLEAN, NO_NEGATIVES,   (oc, a) -> or(a)),
+    NOR              ("nor",       -2, BOOLEAN,     NO_NEGATIVES,   (oc, a) -> Boolean.valueOf(count(a.bools)==0)),
+    XOR              ("xor",       -2, INT_BOOLEAN, NO_NEGATIVES,   (oc, a) -> xor(a)),
+    ONEBITS          ("onebits",    1, INTS,        NO_NEGATIVES,   (oc, a) -> new BigDecimal(a.ints[0].bitCount())),
+    BITLENGTH        ("bitlength",  1, INTS,        NO_NEGATIVES,   (oc, a) -> new BigDecimal(a.ints[0].bitLength())),
+    FLIPBIT          ("flipbit",    2, INTS,        NO_NEGATIVES,   (oc, a) -> new BigDecimal(a.ints[1].flipBit(a.ints[0].intValue()))),
+    NOT              ("not",        1, BOOLEAN,     NO_NEGATIVES,   (oc, a) -> Boolean.valueOf(!a.bools[0])),
+    SETBIT           ("setbit",     2, INTS,        NO_NEGATIVES,   (oc, a) -> new BigDecimal(a.ints[1].setBit(a.ints[0].intValue()))),
+    CLEARBIT         ("clearbit",   2, INTS,        NO_NEGATIVES,   (oc, a) -> new BigDecimal(a.ints[1].clearBit(a.ints[0].intValue()))),
+    TESTBIT          ("testbit",    2, INTS,        NO_NEGATIVES,   (oc, a) -> Boolean.valueOf(a.ints[1].testBit(a.ints[0].intValue()))),
+    GCD              ("gcd",        2, INTS,        NEGATIVES_OK,   (oc, a) -> new BigDecimal(a.ints[1].gcd(a.ints[0]))),
+    MOD              ("mod",        2, INTS,        NO_NEGATIVES,   (oc, a) -> oc.remainder("mod", a.nums)),
+    POW              ("pow",        2, NUM,         NEGATIVES_OK,   (oc, a) -> oc.power(a.nums)),
+    REMAINDER        ("remainder",  2, NUM,         NEGATIVES_OK,   (oc, a) -> oc.remainder("remainder", a.nums)),
+    RANDOM           ("random",     1, INTS,        NO_NEGATIVES,   (oc, a) -> random(a.ints[0])),
+    ROUND            ("round",      1, NUM,         NEGATIVES_OK,   (oc, a) -> a.nums[0].setScale(0, RoundingMode.HALF_UP)),
+    BINARY           ("binary",     1, INTS,        NO_NEGATIVES,   (oc, a) -> CalcMachineNumber.binary(a.ints[0])),
+    OCTAL            ("octal",      1, INTS,        NO_NEGATIVES,   (oc, a) -> CalcMachineNumber.octal(a.ints[0])),
+    HEX              ("hex",        1, INTS,        NO_NEGATIVES,   (oc, a) -> CalcMachineNumber.hex(a.ints[0])),
+    ROMAN            ("roman",      1, INTS,        NO_NEGATIVES,   (oc, a) -> CalcMachineNumber.arabicToRoman(a.ints[0])),
+    SQRT             ("sqrt",       1, NUM,         NO_NEGATIVES,   (oc, a) -> jcalc_math.sqrt(a.nums[0], oc.scale*2)),
+    SCALE            ("scale",      1, NUM,         NEGATIVES_OK,   (oc, a) -> new BigDecimal(a.nums[0].scale())),
+    SETSCALE         ("setscale",   1, INTS,        NO_NEGATIVES,   (oc, a) -> Boolean.valueOf(oc.setScale(a.ints[0].intValue()))),
+    EXP              ("exp",        1, NUM,         NEGATIVES_OK,   (oc, a) -> oc.exp(a.nums[0])),
+    LN               ("ln",         1, NUM,         NO_NEGATIVES,   (oc, a) -> oc.ln("ln", a.nums[0], oc.scale)),
+    LOG              ("log",        1, NUM,         NO_NEGATIVES,   (oc, a) -> oc.log(a.nums[0])),
+    SIN              ("sin",        1, NUM,         NEGATIVES_OK,   (oc, a) -> oc.jtrig.sin(a.nums[0])),
+    COS              ("cos",        1, NUM,         NEGATIVES_OK,   (oc, a) -> oc.jtrig.cos(a.nums[0])),
+    TAN              ("tan",        1, NUM,         NEGATIVES_OK,   (oc, a) -> oc.jtrig.tan(a.nums[0])),
+    CSC              ("csc",        1, NUM,         NEGATIVES_OK,   (oc, a) -> oc.jtrig.csc(a.nums[0])),
+    SEC              ("sec",        1, NUM,         NEGATIVES_OK,   (oc, a) -> oc.jtrig.sec(a.nums[0])),
+    COT              ("cot",        1, NUM,         NEGATIVES_OK,   (oc, a) -> oc.jtrig.cot(a.nums[0]));
+
+    /**
+     *  The operands, converted to whatever the operator's legal operands
+     *  call for: bools if they are all booleans, otherwise nums, and ints as
+     *  well for the int only operators.
+     */
+    static final class Operands {
+        boolean booleans;
+        boolean[] bools;
+        BigDecimal[] nums;
+        BigInteger[] ints;
+    }
+
+    interface Implementation {
+        Object apply(OperatorControlCenter oc, Operands a) throws CalculatorException, InterruptedException;
+    }
+
+    private static final HashMap<String, Operator> symbols = new HashMap<String, Operator>();
+    static {
+        for(Operator op : values()){
+            //the Optimiser's operators don't hide the ones they stand in for
+            symbols.putIfAbsent(op.symbol, op);
+        }
+    }
+
+    final String symbol;
+    final int precedence;
+    final int type;
+    final int operands;
+    final int legal;
+    final int negatives;
+    private final Implementation impl;
+
+    private Operator(String symbol, int precedence, int type, int operands, int legal, int negatives, Implementation impl){
+        this.symbol = symbol;
+        this.precedence = precedence;
+        this.type = type;
+        this.operands = operands;
+        this.legal = legal;
+        this.negatives = negatives;
+        this.impl = impl;
+    }
+
+    private Operator(String symbol, int operands, int legal, int negatives, Implementation impl){
+        this(symbol, -99, FUNCTION, operands, legal, negatives, impl);
+    }
+
+    /**
+     *  @return the operator or function with this symbol, or null
+     */
+    static Operator forSymbol(String s){
+        return symbols.get(s);
+    }
+
+    boolean isFunction(){
+        return type == FUNCTION;
+    }
+
+    boolean rightToLeft(){
+        return this == POWER || this == NEGATIVE || this == LOGICAL_NOT;
+    }
+
+    /**
+     *  Throws unless the operator takes this many operands.
+     */
+    void checkOperands(int count) throws CalculatorException {
+        if(operands==-1 && count<1){
+            throw new CalculatorException(symbol + " requires at least 1 parameter");
+        }
+        else if(operands==-2 && count<2){
+            throw new CalculatorException(symbol + " requires at least 2 parameters");
+        }
+        else if(operands>0 && operands!=count){
+            String throw_me = symbol + " requires " + operands + " parameter";
+            if(operands>1){
+                throw_me += "s";
+            }
+            throw new CalculatorException(throw_me);
+        }
+    }
+
+    Object apply(OperatorControlCenter oc, Operands a) throws CalculatorException, InterruptedException {
+        if(impl == null){
+            throw new CalculatorException(symbol + " is an unknown function");
+        }
+        return impl.apply(oc, a);
+    }
+
+
+    private static int shift(BigInteger by) throws CalculatorException {
+        if(by.abs().compareTo(BigInteger.valueOf(Integer.MAX_VALUE))>=0){
+            throw new CalculatorException("shifting by more then " + Integer.MAX_VALUE + " currently not supported");
+        }
+        return by.intValue();
+    }
+
+    private static BigDecimal sum(BigDecimal[] nums){
+        BigDecimal sum = new BigDecimal(0);
+        for(int i=0; i<nums.length; i++){
+            sum = sum.add(nums[i]);
+        }
+        return sum;
+    }
+
+    private static BigDecimal min(BigDecimal[] nums){
+        BigDecimal min = nums[0];
+        for(int i=0; i<nums.length; i++){
+            if(nums[i].compareTo(min)<0){
+                min = nums[i];
+            }
+        }
+        return min;
+    }
+
+    private static BigDecimal max(BigDecimal[] nums){
+        BigDecimal max = nums[0];
+        for(int i=0; i<nums.length; i++){
+            if(nums[i].compareTo(max)>0){
+                max = nums[i];
+            }
+        }
+        return max;
+    }
+
+    //the arguments in the order they were given
+    private static Table table(BigDecimal[] nums){
+        Object[] values = new Object[nums.length];
+        for(int i=0; i<nums.length; i++){
+            values[i] = nums[nums.length-1-i];
+        }
+        return new Table(values);
+    }
+
+    private static int count(boolean[] bools){
+        int trues = 0;
+        for(int i=0; i<bools.length; i++){
+            if(bools[i]){
+                trues++;
+            }
+        }
+        return trues;
+    }
+
+    private static Object and(Operands a){
+        if(a.booleans){
+            return Boolean.valueOf(count(a.bools)==a.bools.length);
+        }
+        BigInteger anded = a.ints[0];
+        for(int i=0; i<a.ints.length; i++){
+            anded = anded.and(a.ints[i]);
+        }
+        return new BigDecimal(anded);
+    }
+
+    private static Object or(Operands a){
+        if(a.booleans){
+            return Boolean.valueOf(count(a.bools)>0);
+        }
+        BigInteger current = a.ints[0];
+        for(int i=0; i<a.ints.length; i++){
+            current = current.or(a.ints[i]);
+        }
+        return new BigDecimal(current);
+    }
+
+    private static Object xor(Operands a){
+        if(a.booleans){
+            return Boolean.valueOf(count(a.bools)==1);
+        }
+        BigInteger current = a.ints[0];
+        for(int i=0; i<a.ints.length; i++){
+            current = current.xor(a.ints[i]);
+        }
+        return new BigDecimal(current);
+    }
+
+    private static Object random(BigInteger range) throws CalculatorException {
+        if(range.compareTo(BigInteger.valueOf(Integer.MAX_VALUE))>0 || range.signum()==0){
+            throw new CalculatorException("random range is 1 to " + Integer.MAX_VALUE);
+        }
+        return new BigDecimal(String.valueOf(new Random().nextInt(range.intValue())));
+    }
+}
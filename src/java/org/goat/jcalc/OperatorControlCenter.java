@@ -1,8 +1,6 @@
 package org.goat.jcalc;
 
 import java.util.Vector;
-import java.util.Hashtable;
-import java.util.Random;
 
 import java.math.*;
 
@@ -37,43 +35,59 @@ public class OperatorControlCenter {
 		this.limitLowerPower = limitLowerPower;
 	}
 
+	private boolean lazyEquality = true;
+
+	public boolean isLazyEquality() {
+		return lazyEquality;
+	}
+
+	/**
+	 *  Whether comparisons, such as == and <, dirtyRound their operands to
+	 *  scale-1 places first, so 1/3*3==1 is true. On by default.
+	 */
+	public void setLazyEquality(boolean lazyEquality) {
+		this.lazyEquality = lazyEquality;
+	}
+
+	private boolean exactFractions = false;
+
+	public boolean isExactFractions() {
+		return exactFractions;
+	}
+
+	/**
+	 *  Whether a division that doesn't come out whole gives an exact
+	 *  CalcRational, which + - * and / keep exact, instead of a BigDecimal
+	 *  to scale*2 places. Off by default.
+	 */
+	public void setExactFractions(boolean exactFractions) {
+		this.exactFractions = exactFractions;
+	}
+
 	public int getPrecedence(String s){
-        return ((Integer)precedenses.get(s)).intValue();
+        return Operator.forSymbol(s).precedence;
     }
     
     public int operandsRequired(String s){
-        return ((Integer)operandsRequired.get(s)).intValue();
+        return Operator.forSymbol(s).operands;
     }
     
     public int typeOfOperator(String s){
-        return ((Integer)type_of_op.get(s)).intValue();
+        return Operator.forSymbol(s).type+1;
     }
     
     public boolean isOperator(String s){
-        return operators.contains(s);
+        Operator op = Operator.forSymbol(s);
+        return op != null && !op.isFunction();
     }
     
     public boolean isFunction(String s){
-        return functions.contains(s);
-    }
-    
-    private int getLegalOperands(String s){
-        return ((Integer)legalOperands.get(s)).intValue();
-    }
-    
-    private int noNegatives(String s){
-        return ((Integer)no_negatives.get(s)).intValue();
+        Operator op = Operator.forSymbol(s);
+        return op != null && op.isFunction();
     }
     
     public boolean rightToLeft(String s){
-        if(s.equals("^")||
-           //s.equals("!")||
-           s.equals("#")||
-           s.equals("~")
-        ){
-            return true;
-        }
-        return false;
+        return Operator.forSymbol(s).rightToLeft();
     }
 
     public int getScale(){
@@ -94,21 +108,6 @@ public class OperatorControlCenter {
         return good;
     }//end - public int setScale(int i)
     
-    Hashtable precedenses = new Hashtable();
-    
-    //how many operands are required for each operator/funtion
-    Hashtable operandsRequired = new Hashtable();
-    
-    //binary (l|r)unary
-    Hashtable type_of_op = new Hashtable();
-    
-    Hashtable no_negatives = new Hashtable();
-    
-    Hashtable legalOperands = new Hashtable();
-    
-    Vector operators = new Vector(0,1);
-    Vector functions = new Vector(0,1);
-    
     VariableTable variables;
     
     int scale;
@@ -117,41 +116,35 @@ public class OperatorControlCenter {
     jcalc_math jmath;// = new jcalc_math(scale);
     jcalc_trig jtrig;// = new jcalc_trig(scale,jmath);
     
-    //take ( and ) out of here
-    //might cause problems when editing code for infix to rpn
-    //DON'T PAY ANY ATTENTION TO ops_type, AS THESE VALUES ARE CONVERTED
-    //  INTO THE operatorChecker VALUES WHEN THE CALCULATOR IS INITIALIZED
-    String[] ops             = {"!", "^",  "~", "#", "*", "/", "%",  "+", "-",  ">>", "<<", ">=", "<=", ">", "<",  "==", "!=",  "&&", "^^", "||",   "(",  ")"};
-    int[] ops_pres           = { 10,   9,    8,   9,   7,   7,   7,    6,   6,     5,    5,    3,     3,  3,   3,     2,    2,     4,	 4,    4,    -2,   -2};
-    int[] nums_needed        = {  1,   2,    1,   1,   2,   2,   2,    2,   2, 	   2,    2,    2,     2,  2,   2,     2,    2,     2,	 2,    2,     0,    0};
-    int[] ops_legal_operands = {  1,   0,    4,   0,   0,   0,   1,    0,   0, 	   1,    1,    0,     0,  0,   0,     3,    3,     2,	 2,    2,     0,    0};
-    int[] ops_type           = {  2,   0,    1,   1,   0,   0,   0,    0,   0, 	   0,    0,    0,     0,  0,   0,     0,    0,     0,	 0,    0,     3,    4};    
-    int[] no_neges           = {  1,   0,    0,   0,   0,   0,   1,    0,   0,     2,    2,    0,     0,  0,   0,     0,    0,     1,    1,    1,     0,    0};
-    
-    String[] funcs             = {"abs", "and", "andnot", "avg", "min", "max", "sum", "negate", "or", "nor", "xor", "onebits", "bitlength", "flipbit", "not", "setbit", "clearbit", "testbit", "gcd", "mod", "pow", "remainder", "random", "round", "binary", "octal", "hex", "roman", "sqrt", "scale", "setscale"};
-    int[] funcs_nums_needed    = {    1,    -2,        2,    -1,    -1,    -1,    -1,        1,   -2,    -2,    -2,         1,           1,         2,     1,        2,          2,         2,     2,     2,     2,           2,        1,       1,        1,       1,     1,       1,      1,       1,          1};
-    int[] funcs_legal_operands = {    0,     2,        4,     0,     0,     0,     0,        0,    2,     4,     2,         1,           1,         1,     4,        1,          1,         1,     1,     1,     0,           0,        1,       0,        1,       1,     1,       1,      0,       0,          1};
-    int[] no_negs              = {    0,     1,        1,     0,     0,     0,     0,        0,    1,     1,     1,         1,           1,         1,     1,        1,          1,         1,     0,     1,     0,           0,        1,       0,        1,       1,     1,       1,      1,       0,          1};
-    
-    final int NUM         = 0;
-    final int INTS        = 1;
-    final int INT_BOOLEAN = 2;
-    final int NUM_BOOLEAN = 3;
-    final int BOOLEAN     = 3;
+    //
+    // the operators and functions themselves are in Operator
+    //
 
     /*
-     *ops_legal_operands
-     *  0 - any number
-     *  1 - ints only
-     *  2 - int or boolean
-     *  3 - num or boolean
-     *  4 - boolean 
-     *
-     *ops_type
-     *  0 - binary
-     *  1 - unary left
-     *  2 - unary right 
+     *type, offset by one from the operatorChecker numbering
+     */
+    static final int BINARY_OP   = 0;
+    static final int UNARY_LEFT  = 1;
+    static final int UNARY_RIGHT = 2;
+    static final int PAREN_OPEN  = 3;
+    static final int PAREN_CLOSE = 4;
+    static final int FUNCTION    = 6;
+
+    /*
+     *legal operands
+     */
+    static final int NUM         = 0;
+    static final int INTS        = 1;
+    static final int INT_BOOLEAN = 2;
+    static final int NUM_BOOLEAN = 3;
+    static final int BOOLEAN     = 4;
+
+    /*
+     *negatives
      */
+    static final int NEGATIVES_OK   = 0;
+    static final int NO_NEGATIVES   = 1;
+    static final int FIRST_POSITIVE = 2;
     
     
     private String legal_operan_to_string(int i){
@@ -186,47 +179,53 @@ public class OperatorControlCenter {
         
         if(!true){
             boolean xml = false;
-            for(int i=0; i<ops.length; i++){
+            for(Operator op : Operator.values()){
+                if(op.isFunction()){
+                    continue;
+                }
                 if(xml){
                         System.out.println("<OPERATOR>");
-                        System.out.println("\t<NAME> " +ops[i]+ " <\\NAME>");
-                        System.out.println("\t<OPERANS> " +nums_needed[i]+ " <\\OPERANS>");
-                        System.out.println("\t<LEGAL_OPERANS> " + legal_operan_to_string(ops_legal_operands[i]) + " <\\LEGAL_OPERANS>");
-                        System.out.println("\t<NEGATIVES> " + allows_negatives_to_string(no_neges[i]) + " <\\NEGATIVES>");
-                        System.out.println("\t<PRECEDENCE> " +ops_pres[i]+ " <\\PRECEDENCE>");
-                        System.out.println("\t<TYPE> " +operator_type_to_string(ops_type[i])+ " <\\TYPE>");
+                        System.out.println("\t<NAME> " +op.symbol+ " <\\NAME>");
+                        System.out.println("\t<OPERANS> " +op.operands+ " <\\OPERANS>");
+                        System.out.println("\t<LEGAL_OPERANS> " + legal_operan_to_string(op.legal) + " <\\LEGAL_OPERANS>");
+                        System.out.println("\t<NEGATIVES> " + allows_negatives_to_string(op.negatives) + " <\\NEGATIVES>");
+                        System.out.println("\t<PRECEDENCE> " +op.precedence+ " <\\PRECEDENCE>");
+                        System.out.println("\t<TYPE> " +operator_type_to_string(op.type)+ " <\\TYPE>");
                         System.out.println("<\\OPERATOR>");
                         System.out.println();
                 } else {
-                        System.out.println("OPERATOR: " + ops[i]);
-                        System.out.println("\tOPERANS: " +nums_needed[i]);
-                        System.out.println("\tLEGAL_OPERANS: " + legal_operan_to_string(ops_legal_operands[i]));
-                        System.out.println("\tNEGATIVES:     " + allows_negatives_to_string(no_neges[i]));
-                        System.out.println("\tPRECEDENCE:    " +ops_pres[i]);
-                        System.out.println("\tTYPE:          " +operator_type_to_string(ops_type[i]));
+                        System.out.println("OPERATOR: " + op.symbol);
+                        System.out.println("\tOPERANS: " +op.operands);
+                        System.out.println("\tLEGAL_OPERANS: " + legal_operan_to_string(op.legal));
+                        System.out.println("\tNEGATIVES:     " + allows_negatives_to_string(op.negatives));
+                        System.out.println("\tPRECEDENCE:    " +op.precedence);
+                        System.out.println("\tTYPE:          " +operator_type_to_string(op.type));
                         System.out.println();                    
                 }
             }
             
-            for(int i=0; i<funcs.length; i++){
+            for(Operator op : Operator.values()){
+                if(!op.isFunction()){
+                    continue;
+                }
                 if(xml){
                     System.out.println("<FUNCTION>");
-                    System.out.println("\t<NAME> " +funcs[i]+ " <\\NAME>");
-                    System.out.println("\t<OPERANS> " +funcs_nums_needed[i]+ " <\\OPERANS>");
-                    System.out.println("\t<LEGAL_OPERANS> " + legal_operan_to_string(funcs_legal_operands[i]) + " <\\LEGAL_OPERANS>");
-                    System.out.println("\t<NEGATIVES> " + allows_negatives_to_string(no_negs[i]) + " <\\NEGATIVES>");
+                    System.out.println("\t<NAME> " +op.symbol+ " <\\NAME>");
+                    System.out.println("\t<OPERANS> " +op.operands+ " <\\OPERANS>");
+                    System.out.println("\t<LEGAL_OPERANS> " + legal_operan_to_string(op.legal) + " <\\LEGAL_OPERANS>");
+                    System.out.println("\t<NEGATIVES> " + allows_negatives_to_string(op.negatives) + " <\\NEGATIVES>");
                     System.out.println("<\\FUNCTION>");
                     System.out.println();
                 } else {
-                    System.out.println("FUNCTION: " +funcs[i]);
+                    System.out.println("FUNCTION: " +op.symbol);
                     System.out.print("\tOPERANS: ");
-                    if(funcs_nums_needed[i]<0){
-                        System.out.println( Math.abs(funcs_nums_needed[i]) +"+");
+                    if(op.operands<0){
+                        System.out.println( Math.abs(op.operands) +"+");
                     }else{
-                        System.out.println(funcs_nums_needed[i]);
+                        System.out.println(op.operands);
                     }
-                    System.out.println("\tLEGAL_OPERANS: " + legal_operan_to_string(funcs_legal_operands[i]));
-                    System.out.println("\tNEGATIVES: " + allows_negatives_to_string(no_negs[i]));
+                    System.out.println("\tLEGAL_OPERANS: " + legal_operan_to_string(op.legal));
+                    System.out.println("\tNEGATIVES: " + allows_negatives_to_string(op.negatives));
                     System.out.println();                    
                 }
             }
@@ -236,166 +235,143 @@ public class OperatorControlCenter {
         
         variables = vt;
         
-        for(int i=0; i<ops.length; i++){
-            operators.add(ops[i]);
-            precedenses.put(ops[i],    Integer.valueOf(ops_pres[i]));
-            operandsRequired.put(ops[i], Integer.valueOf(nums_needed[i]));
-             
-            legalOperands.put(ops[i], Integer.valueOf(ops_legal_operands[i]));
-            
-            //this needs off set by one because of the look up table in 
-            //the operatorChecker has the zero-throws element as being something
-            //else, then it matches up with this scheme
-            type_of_op.put(ops[i],     Integer.valueOf(ops_type[i]+1));
-            
-            no_negatives.put(ops[i], Integer.valueOf(no_neges[i]));
-        }
-        
-        
-        for(int i=0; i<funcs.length; i++){
-            functions.add(funcs[i]);
-            operandsRequired.put(funcs[i], Integer.valueOf(funcs_nums_needed[i]));
-            precedenses.put(funcs[i],    Integer.valueOf(-99));
-
-            legalOperands.put(funcs[i], Integer.valueOf(funcs_legal_operands[i]));
-            
-            no_negatives.put(funcs[i], Integer.valueOf(no_negs[i]));
-        }
-        
-        
-        //
-        // adding trig functions
-        //
-        String [] tfuncs = jtrig.getFunctions();
-        for(int i=0; i<tfuncs.length; i++){
-            functions.add(tfuncs[i]);
-            operandsRequired.put(tfuncs[i], Integer.valueOf("1"));
-            precedenses.put(     tfuncs[i], Integer.valueOf(-99));
-            legalOperands.put(   tfuncs[i], Integer.valueOf("0"));
-            no_negatives.put(    tfuncs[i], Integer.valueOf("0"));
-            
-        }
-        
     }//end - public OperatorControlCenter()
 
     
 
+    /**
+     *  Applies an operator or function, by name, to a Vector of operands in
+     *  the order they came off the stack: the last one first. Variables and
+     *  machine numbers are replaced by their values.<BR>
+     *  <BR>
+     *  Kept for evaluate_rpn; the Calculator itself resolves operators when
+     *  it parses, and calls evaluate.
+     */
     public Object evaluate_operator(String operator, Vector operans) throws CalculatorException, InterruptedException {
-        
-        int required_params = operandsRequired(operator);
-        if(required_params==-1 && operans.size()<1){
-            throw new CalculatorException(operator + " requires at least 1 parameter");
+        Operator op = Operator.forSymbol(operator);
+        if(op == null){
+            //i decided to leave "unknown operator here
+            //  this way any class can call this and get a logical sounding error
+            throw new CalculatorException(operator + " is an unknown function");
         }
-        else if(required_params==-2 && operans.size()<2){
-            throw new CalculatorException(operator + " requires at least 2 parameters");
+        op.checkOperands(operans.size());
 
-        }
-        else if(required_params>0 && required_params!=operans.size()){
-            String throw_me = operator + " requires " + required_params + " parameter";
-            if(required_params>1){
-                throw_me += "s";
+        //evaluate wants them in the order they went on to the stack
+        Object[] stack = new Object[operans.size()];
+        for(int i=0; i<stack.length; i++){
+            Object obj = operans.elementAt(stack.length-1-i);
+            if(obj instanceof String && variables.isVariable((String)obj)){
+                obj = variables.variableValue((String)obj, scale);
             }
-            throw new CalculatorException(throw_me);
+            stack[i] = obj;
         }
-        
-        
-        BigDecimal[] nums = null;
-        BigInteger[] big_ints = null;
-        boolean[] bools = null;
-        
-        boolean usingBooleans = true;
-        boolean booleanFound = false;
-        
-        int current_operator_type = this.getLegalOperands(operator);
-        
-        
-        //
-        // doing variable substitution here
-        //
-        for(int i=0; i<operans.size(); i++){
-            if(operans.elementAt(i) instanceof String && variables.isVariable((String)operans.elementAt(i))){
-                String s = (String)operans.elementAt(i);
-                operans.set(i, variables.variableValue(s,scale));
+        return this.evaluate(op, stack, 0, stack.length);
+    }//end - public Object evaluate_operator
+
+
+    /**
+     *  Applies an operator to the count values on the stack from the from'th
+     *  up. The number of operands has already been checked, when the
+     *  equation was parsed; this checks the operands are ones the operator
+     *  takes, converts them to the arrays it wants, and applies it.<BR>
+     *  <BR>
+     *  Small integers are Longs, see Parser. If the operator can take them
+     *  as they are and the answer is exact, it's worked out in long
+     *  arithmetic; otherwise they become BigDecimals like anything else.
+     */
+    Object evaluate(Operator op, Object[] stack, int from, int count) throws CalculatorException, InterruptedException {
+
+        if(count==2 && stack[from] instanceof Long && stack[from+1] instanceof Long){
+            Object exact = this.exact(op, ((Long)stack[from]).longValue(), ((Long)stack[from+1]).longValue());
+            if(exact != null){
+                return exact;
+            }
+        }else if(count==1 && stack[from] instanceof Long){
+            Object exact = this.exact(op, 0, ((Long)stack[from]).longValue());
+            if(exact != null){
+                return exact;
             }
         }
-        
-        //
-        // looking for and converting machine numbers
-        //
-        for(int i=0; i<operans.size(); i++){
-            if(operans.elementAt(i) instanceof CalcMachineNumber){
-                CalcMachineNumber cmn = (CalcMachineNumber)operans.elementAt(i);
-                operans.set(i, cmn.getValue());
+
+        if(exactFractions){
+            Object exact = this.fraction(op, stack, from, count);
+            if(exact != null){
+                return exact;
             }
         }
-        
+
+        Operator.Operands a = new Operator.Operands();
         
         //
-        // if everything isn't a boolean
-        //     usingBooleans = false
-        // if one boolean is found
-        //     booleanFound = true
+        // if everything is a boolean, usingBooleans
+        // if only some are, that's an error
         //
-        BOOL: for(int i=0; i<operans.size(); i++){
-            Object obj = operans.elementAt(i);
-            if(!(obj instanceof Boolean)){
+        boolean usingBooleans = true;
+        boolean booleanFound = false;
+        for(int i=from; i<from+count; i++){
+            Object obj = stack[i];
+            if(obj instanceof Long){
+                stack[i] = BigDecimal.valueOf(((Long)obj).longValue());
                 usingBooleans = false;
-            }else{
+            }else if(obj instanceof CalcMachineNumber){
+                stack[i] = ((CalcMachineNumber)obj).getValue();
+                usingBooleans = false;
+            }else if(obj instanceof CalcRational){
+                stack[i] = ((CalcRational)obj).toBigDecimal(scale*2);
+                usingBooleans = false;
+            }else if(obj instanceof Boolean){
                 booleanFound = true;
-            }   
+            }else if(obj instanceof Table){
+                throw new CalculatorException(op.symbol + " does not accept tables");
+            }else{
+                usingBooleans = false;
+            }
         }
         
         if(!usingBooleans && booleanFound){
             throw new CalculatorException("booleans cannot be mixed with nonbooleans");
         }
         
-        //i should actually using the class i set up for this...
-        if(usingBooleans && (current_operator_type==this.NUM || current_operator_type==this.INTS) ){
-            throw new CalculatorException(operator + " does not accept booleans");
+        if(usingBooleans){
+            if(op.legal==NUM || op.legal==INTS){
+                throw new CalculatorException(op.symbol + " does not accept booleans");
+            }
+            a.booleans = true;
+            a.bools = new boolean[count];
+            for(int i=0; i<count; i++){
+                a.bools[i] = ((Boolean)stack[from+count-1-i]).booleanValue();
+            }
+            return op.apply(this, a);
         }
-        
-        
+
         //if an operator that only accepts booleans is being used make sure all operand ARE booleans
-        if(!usingBooleans && current_operator_type==4){
-            throw new CalculatorException(operator + " only accepts booleans");
+        if(op.legal==BOOLEAN){
+            throw new CalculatorException(op.symbol + " only accepts booleans");
         }
         
+        BigDecimal[] nums = new BigDecimal[count];
+        for(int i=0; i<count; i++){
+            nums[i] = (BigDecimal)stack[from+count-1-i];
+        }
+        a.nums = nums;
         
-        //if not usuing booleans initialize the number array
-        //otherwise initialzed the boolean array
-        if(!usingBooleans){
-            nums = new BigDecimal[operans.size()];
+        if(op.negatives==NO_NEGATIVES){
             for(int i=0; i<nums.length; i++){
-                nums[i] = (BigDecimal)operans.elementAt(i);
-                //System.err.print(nums[i] + " ");
-            }
-            
-            if(noNegatives(operator)==1){
-                for(int i=0; i<nums.length; i++){
-                    if(nums[i].abs().compareTo(nums[i])!=0){
-                        throw new CalculatorException(operator + " requires positive numbers only");
-                    }
-                }
-            }
-            if(noNegatives(operator)==2){
-                if(nums[1].abs().compareTo(nums[1])!=0){
-                    throw new CalculatorException(operator + " requires a positive number for the first parameter");
+                if(nums[i].signum()<0){
+                    throw new CalculatorException(op.symbol + " requires positive numbers only");
                 }
             }
-        }else{
-            bools = new boolean[operans.size()];
-            for(int i=0; i<bools.length; i++){
-                bools[i] = ((Boolean)operans.elementAt(i)).booleanValue();
-                //System.err.print(nums[i] + " ");
+        }else if(op.negatives==FIRST_POSITIVE){
+            if(nums[1].signum()<0){
+                throw new CalculatorException(op.symbol + " requires a positive number for the first parameter");
             }
         }
 
-        
         //
-        // if you aren't using booleans AND the operator type takes 
-        //  booleans or numbers round the numbers with a (scale-1) for the compare
+        // if the operator takes booleans or numbers round the numbers
+        //  with a (scale-1) for the compare
         //
-        if(!usingBooleans && (current_operator_type==this.NUM_BOOLEAN)){
+        if(op.legal==NUM_BOOLEAN && lazyEquality){
             for(int i=0; i<nums.length; i++){
                 if(nums[i].scale()>=scale){
                    nums[i] = jcalc_math.dirtyRound(nums[i], scale-1);
@@ -403,537 +379,363 @@ public class OperatorControlCenter {
             }
         }        
 
+        this.charge(op, nums);
+
         //if ints are required make sure they are all ints 
-        //and then initialize the big_ints array
-        if(current_operator_type==this.INTS ||
-           (current_operator_type==this.INT_BOOLEAN && !usingBooleans)
-        
-        ){
-            big_ints = new BigInteger[nums.length];
+        //and then initialize the ints array
+        if(op.legal==INTS || op.legal==INT_BOOLEAN){
+            a.ints = new BigInteger[nums.length];
             for(int i=0; i<nums.length; i++){
-                if(!nums[i].setScale(0, BigDecimal.ROUND_DOWN).equals(nums[i].setScale(0, BigDecimal.ROUND_UP))){
-                    if(operandsRequired(operator)>1 ||operandsRequired(operator)<-1){
-                        throw new CalculatorException("all numbers must be integers when using " + operator);
+                //no places is whole already; otherwise there's a division
+                //to do, which the charge above covers
+                if(nums[i].scale()>0 && nums[i].remainder(BigDecimal.ONE).signum()!=0){
+                    if(op.operands>1 || op.operands<-1){
+                        throw new CalculatorException("all numbers must be integers when using " + op.symbol);
                     }else{
-                        throw new CalculatorException(operator + " only accepts integers");
+                        throw new CalculatorException(op.symbol + " only accepts integers");
                     }
                 }                               
-                big_ints[i] = nums[i].toBigInteger();
-            }
-        }
-
-        
-        
-        if(operator.equals("+")){
-            return nums[1].add( nums[0] );
-        }
-        else if(jtrig.isFunction(operator)){
-            return jtrig.execute(operator, operans);
-        }
-        else if(jmath.isFunction(operator)){
-            return jmath.execute(operator, operans);
-        }        
-        else if(operator.equals("sqrt")){
-            return jcalc_math.sqrt(nums[0],scale);
-        }        
-        else if(operator.equals("-")){
-            return nums[1].subtract( nums[0] );
-        }
-        else if(operator.equals("#")){
-            return nums[0].negate();
-        }        
-        else if(operator.equals("*")){
-            return nums[1].multiply( nums[0] );
-        }
-        else if(operator.equals("/")){
-            if(nums[0].equals(BigDecimal.valueOf(0))){
-                throw new CalculatorException("illegal divide by zero");
+                a.ints[i] = nums[i].toBigInteger();
             }
-            return nums[1].divide( nums[0], scale*2, BigDecimal.ROUND_HALF_UP  );
         }
-        else if(operator.equals("^") || operator.equals("pow")){
-            
-            /*
-             *implement it this way sometime...
-             *
-             *  double value = 1.0;
-
-              if(n < 0) {
-                x = 1.0/x;
-                n = -n;
-            }
 
-            do {
-             if(n & 1) value *= x;  //for odd
-             n >>= 1;
-             x *= x;
-            } while (n);
-            return value;
-        */
+        return op.apply(this, a);
+    }//end - Object evaluate
 
-            //System.out.println("coming into ^, scale: " + nums[0].scale());
 
-            
-            if(!nums[0].setScale(0, BigDecimal.ROUND_DOWN).equals(nums[0].setScale(0, BigDecimal.ROUND_UP))){
-                throw new CalculatorException("non-integer exponents are currently not supported");
-            }
-            
-            if((limitUpperPower > 0) && nums[0].toBigInteger().compareTo(BigInteger.valueOf(limitUpperPower)) == 1) {
-            	throw new CalculatorException("the power function has been limited to " + limitUpperPower);
-            }
-            
-            if((limitLowerPower < 0) && nums[0].toBigInteger().compareTo(BigInteger.valueOf(limitLowerPower)) == -1 ) {
-            	throw new CalculatorException("the power function has been limited to " + limitLowerPower);
-            }
-            
-            BigInteger integer_power = nums[0].toBigInteger();
-            int int_power = nums[0].abs().intValue();
-            //because i am using an int this is no longer "infinite"
-            //granted 1.001^2300000 has about 1000 digits in it....
+    /*  Charges the ComputeBudget for applying op to nums, as far as it can
+     *  be told from the operands. ^, !, sqrt and the like charge for their
+     *  own steps as they go.
+     */
+    private void charge(Operator op, BigDecimal[] nums) throws ComputeBudget.Exceeded {
+        long words = 0;
+        for(int i=0; i<nums.length; i++){
+            words += ComputeBudget.words(nums[i]);
+        }
+        switch(op){
+            case MULTIPLY:
+                ComputeBudget.multiply(ComputeBudget.words(nums[1]), ComputeBudget.words(nums[0]));
+                return;
+            case DIVIDE:
+                ComputeBudget.divide(ComputeBudget.words(nums[1]) + ComputeBudget.digitWords(scale*2), ComputeBudget.words(nums[0]));
+                return;
+            case MODULO:
+            case MOD:
+            case REMAINDER:
+                ComputeBudget.divide(ComputeBudget.words(nums[1]), ComputeBudget.words(nums[0]));
+                return;
+            case GCD:
+                ComputeBudget.gcd(ComputeBudget.words(nums[1]), ComputeBudget.words(nums[0]));
+                return;
+            case SHIFT_LEFT:
+            case SETBIT:
+            case FLIPBIT:
+            case CLEARBIT:
+                //as long as the bit it goes up to
+                ComputeBudget.charge(words + nums[0].min(BigDecimal.valueOf(Integer.MAX_VALUE)).longValue()/64);
+                return;
+            case ROMAN:
+                //an M for every thousand, and the numeral is copied for each
+                double ms = nums[0].min(BigDecimal.valueOf(Long.MAX_VALUE)).longValue()/1000;
+                ComputeBudget.charge(words + (long)(ms * ms / 4));
+                return;
+            default:
+                ComputeBudget.charge(words);
+        }
+    }
+    
 
-            
-            if(integer_power.compareTo(BigInteger.ZERO)<1){
-                if(integer_power.compareTo(BigInteger.ZERO)==0){
-                    return new BigDecimal("1");
-                }else{
-                    //redunant else
-                    //throw new CalculatorException("non-negative exponents are not supported");
-                    nums[1] = BigDecimal.valueOf(1).divide(nums[1], scale, BigDecimal.ROUND_HALF_UP );
-                    integer_power = integer_power.abs();
-                    
-                    //System.out.println("now: " + nums[1] + "^" + integer_power);
-                }
-            }
-            
-            BigDecimal left = new BigDecimal(nums[1].toString());
-            BigDecimal last = new BigDecimal(nums[1].toString());
-            
-            BigInteger maxValue = BigInteger.valueOf((long)Integer.MAX_VALUE);
-            if(maxValue.compareTo(integer_power)>0){
-                for(; int_power>1; int_power--){
-                	if(Thread.interrupted())
-                		throw new InterruptedException();
-                //for(; integer_power.compareTo(BigInteger.ONE)>=1; integer_power = integer_power.subtract(BigInteger.ONE)){
-                    //last = last.multiply(left).setScale((5+scale), BigDecimal.ROUND_HALF_EVEN);
-                    //last = last.multiply(left);
-                    //last = jcalc_math.dirtyRound(last.multiply(left), scale+15);
-                    int this_scale = last.scale() + left.scale() + 5;
-                    
-                    //System.out.println(last.scale() +" "+left.scale());
-                    //System.out.println(last.multiply(left));
-                    
-                    last = jcalc_math.dirtyRound(last.multiply(left), this_scale);
-
-                    String num = last.toString();
-                    if(last.scale()>scale){
-                        FIX: while(num.indexOf('.')>-1 && num.charAt(num.indexOf('.')+1+scale)=='0'){
-                            if(Thread.currentThread().isInterrupted()) {
-                                throw new InterruptedException();
-                            }
-                            //System.out.println("trying to fix");
-                            for(int i=1; i< (scale>>2); i++){
-                                if(num.charAt(num.indexOf('.')+1+scale-i)!='0'){
-                                    break FIX;
-                                }
-                            }
-                            //System.out.println("fixing");
-                            //System.out.println(last);
-                            last = new BigDecimal(num.substring(0,num.indexOf('.')+1+scale));
-                            //System.out.println(last);
-                            break FIX;
-                        }
-
-                        FIX: while(num.indexOf('.')>-1 && num.charAt(num.indexOf('.')+1+scale)=='9'){
-                            if(Thread.currentThread().isInterrupted()) {
-                                throw new InterruptedException();
-                            }
-                            //System.out.println("trying to fix 9 ");
-                            for(int i=1; i< (scale>>2); i++){
-                                if(num.charAt(num.indexOf('.')+1+scale-i)!='9'){
-                                    break FIX;
-                                }
-                            }
-                            //System.out.println("fixing 9");
-                            //System.out.println(last);
-                            last = new BigDecimal(num.substring(0,num.indexOf('.')+1+scale));
-                            BigDecimal shit = new BigDecimal("1");
-                            last = last.add(shit.movePointLeft(scale));
-
-                            //System.out.println(last);
-                            break FIX;
-                        }
-                    }
-                    //System.out.println(last);
-                    //System.out.println(last.toString().substring(0, last.toString().indexOf(".")+scale));
-                    //System.out.println(last.toString().substring(0, last.toString().indexOf(".")+scale+5));
-                    //System.out.println(last.scale());
-                    //System.out.println();
-                    
-                }
-            }else{
-                //System.out.println(integer_power + " is too big");
-                System.err.println("WARNING: " + last +"^"+integer_power+ " may take a while");
-                for(; integer_power.compareTo(BigInteger.ONE)>0; integer_power = integer_power.subtract(BigInteger.ONE)){
-                    if(Thread.currentThread().isInterrupted()) {
-                        throw new InterruptedException();
-                    }
-                    last = last.multiply(left).setScale((5+scale), BigDecimal.ROUND_HALF_UP);
-                }                
-            }
-            
-            //System.out.println(last);
-            //System.out.println(last.setScale(scale, BigDecimal.ROUND_HALF_EVEN));
-            //System.out.println(last.setScale(scale, BigDecimal.ROUND_UNNECESSARY));
-            //System.out.println(last.setScale(scale, BigDecimal.ROUND_HALF_EVEN));
-            //System.out.println(last.setScale(scale, BigDecimal.ROUND_HALF_EVEN));
-            
-            if(true){
-                BigDecimal temp = last;
-                for(int i=0; i<(scale-1); i++){
-                    temp = temp.multiply(BigDecimal.valueOf(10));
-                }
-                //System.out.println("temp: " + temp);
-                //System.out.println("last: " + last);
-                //System.out.println("llll: " + last.setScale(scale, BigDecimal.ROUND_HALF_EVEN));
-                //System.out.println("llll: " + last.setScale(scale, BigDecimal.ROUND_HALF_UP));
-            }
-            
-            //return last.setScale(scale, BigDecimal.ROUND_HALF_UP);
-            return last;
-        }else if(operator.equals("!")){
-            //this needs rewritten, it's lame
-            if(big_ints[0].compareTo(BigInteger.ZERO)==0){
-                return new BigDecimal("1");
-            }
-            
-            BigInteger i = big_ints[0].subtract(BigInteger.ONE);
-            if(limitFactorial > 0 && i.compareTo(BigInteger.valueOf(limitFactorial)) == 1)
-            	throw new CalculatorException("factorial has been limited to " + limitFactorial);
-            BigInteger sum = big_ints[0];
-            while(i.compareTo(BigInteger.ONE)>0){
-            	if(Thread.interrupted())
-            		throw new InterruptedException();
-                sum = sum.multiply(i);
-                i=i.subtract(BigInteger.ONE);
+    /*  The operator done exactly, with exact fractions on: / of two exact
+     *  numbers, and + - * and negation of a CalcRational and an exact
+     *  number. Null for anything else, or division by 0, which the
+     *  BigDecimal code then works out, or throws the usual error for.
+     */
+    private Object fraction(Operator op, Object[] stack, int from, int count) throws ComputeBudget.Exceeded {
+        if(count == 1){
+            if((op == Operator.NEGATIVE || op == Operator.NEGATE) && stack[from] instanceof CalcRational){
+                return CalcRational.negate((CalcRational)stack[from]);
             }
-            return new BigDecimal(sum);
+            return null;
         }
-        
-        else if(operator.equals("<<")){
-            if(big_ints[0].abs().compareTo( new BigInteger(String.valueOf(Integer.MAX_VALUE)) )>=0){
-                throw new CalculatorException("shifting by more then " + Integer.MAX_VALUE + " currently not supported");
-            }            
-            return new BigDecimal(big_ints[1].shiftLeft(big_ints[0].intValue()));
-        }
-        else if(operator.equals(">>")){
-            if(big_ints[0].abs().compareTo( new BigInteger(String.valueOf(Integer.MAX_VALUE)) )>=0){
-                throw new CalculatorException("shifting by more then " + Integer.MAX_VALUE + " currently not supported");
-            }            
-            return new BigDecimal(big_ints[1].shiftRight(big_ints[0].intValue()));
-        }
-        else if(operator.equals("||")){
-            if(!usingBooleans){
-                return new BigDecimal(big_ints[1].or(big_ints[0]));
-            }else{
-                return Boolean.valueOf(bools[0] || bools[1]);
-            }
+        if(count != 2 || (op != Operator.DIVIDE && op != Operator.ADD && op != Operator.SUBTRACT && op != Operator.MULTIPLY)){
+            return null;
         }
-        else if(operator.equals("&&")){
-            if(!usingBooleans){
-                return new BigDecimal(big_ints[1].and(big_ints[0]));
-            }else{
-                return Boolean.valueOf(bools[0] && bools[1]);
-            }
+        if(op != Operator.DIVIDE && !(stack[from] instanceof CalcRational) && !(stack[from+1] instanceof CalcRational)){
+            return null;
         }
-        else if(operator.equals("^^")){
-            if(!usingBooleans){
-                return new BigDecimal(big_ints[1].xor(big_ints[0]));
-            }else{
-                return Boolean.valueOf(bools[0] ^ bools[1]);
-            }
-        }        
-        
-        
-        else if(operator.equals("abs")){
-            return nums[0].abs();
-        }
-        else if(operator.equals("and")){
-            if(!usingBooleans){
-                BigInteger anded = big_ints[0];
-                for(int i=0; i<big_ints.length; i++){
-                    anded = anded.and(big_ints[i]);
-                }
-                return new BigDecimal(anded);
-            }else{
-                for(int i=0; i<bools.length; i++){
-                    if(bools[i]==false){
-                        return Boolean.valueOf(false);
-                    }
-                }
-                return Boolean.valueOf(true);
+        if(op == Operator.DIVIDE && stack[from] instanceof Long && stack[from+1] instanceof Long){
+            long l = ((Long)stack[from]).longValue();
+            long r = ((Long)stack[from+1]).longValue();
+            if(r != 0 && l != Long.MIN_VALUE && l % r == 0){
+                return Long.valueOf(l / r);
             }
         }
-        else if(operator.equals("andnot")){
-            //this would need to go in if it supported INTEGERS
-            //return new BigDecimal(big_ints[1].andNot(big_ints[0]));
-            return Boolean.valueOf(bools[1] && !bools[0]);
+        if(!this.isExact(stack[from]) || !this.isExact(stack[from+1])){
+            return null;
         }
-        else if(operator.equals("avg")){
-            BigDecimal sum = new BigDecimal(0);
-            for(int i=0; i<nums.length; i++){
-               sum = sum.add(nums[i]);
-            }
-            return sum.divide(BigDecimal.valueOf((long)nums.length), scale, BigDecimal.ROUND_UNNECESSARY);
-
+        CalcRational x = CalcRational.valueOf(stack[from]);
+        CalcRational y = CalcRational.valueOf(stack[from+1]);
+        switch(op){
+            case ADD:      return CalcRational.add(x, y);
+            case SUBTRACT: return CalcRational.subtract(x, y);
+            case MULTIPLY: return CalcRational.multiply(x, y);
+            default:       return y.signum() == 0 ? null : CalcRational.divide(x, y);
         }
-        else if(operator.equals("sum")){
-            BigDecimal sum = new BigDecimal(0);
-            for(int i=0; i<nums.length; i++){
-               sum = sum.add(nums[i]);
-            }
-            return sum;
+    }
 
-        }        
-        else if(operator.equals("min")){
-            BigDecimal min = nums[0];
-            for(int i=0; i<nums.length; i++){
-               if(nums[i].compareTo(min)<0){
-                   min = nums[i];
-               }
-            }
-            return min;
-        }
-        else if(operator.equals("max")){
-            BigDecimal max = nums[0];
-            for(int i=0; i<nums.length; i++){
-               if(nums[i].compareTo(max)>0){
-                   max = nums[i];
-               }
-            }
-            return max;
+    //whether o is a number that hasn't been rounded, such as 1.5 but not
+    //  sqrt(2), which would gain nothing from being a fraction
+    private boolean isExact(Object o){
+        if(o instanceof BigDecimal){
+            return ((BigDecimal)o).scale() <= scale;
         }
-        else if(operator.equals("negate")){
-            return nums[0].negate();
+        return o instanceof Long || o instanceof CalcRational || o instanceof CalcMachineNumber;
+    }
+
+    private static final long[] FACTORIALS = new long[21];
+    static {
+        FACTORIALS[0] = 1;
+        for(int i=1; i<FACTORIALS.length; i++){
+            FACTORIALS[i] = FACTORIALS[i-1]*i;
         }
-        else if(operator.equals("or")){
-            if(!usingBooleans){
-                BigInteger current = big_ints[0];
-                for(int i=0; i<big_ints.length; i++){
-                    current = current.or(big_ints[i]);
-                }
-                return new BigDecimal(current);
-            }else{
-                for(int i=0; i<bools.length; i++){
-                    if(bools[i]==true){
-                        return Boolean.valueOf(true);
+    }
+
+    /*  The operator applied to long operands, l on the left and r on the
+     *  right (r alone for unary ones), as a Long or Boolean. Null if the
+     *  answer doesn't fit a long, or the operands are ones the operator
+     *  turns down, or it isn't an operator done this way; the BigDecimal
+     *  code then works it out, or throws the usual error.
+     *
+     *  Only operators whose BigDecimal answer for integers has no decimal
+     *  places are here, so nothing can tell the two apart afterwards. That
+     *  leaves out /, which always answers to scale*2 places.
+     */
+    private Object exact(Operator op, long l, long r){
+        try {
+            switch(op){
+                case ADD:           return Long.valueOf(Math.addExact(l, r));
+                case SUBTRACT:      return Long.valueOf(Math.subtractExact(l, r));
+                case MULTIPLY:      return Long.valueOf(Math.multiplyExact(l, r));
+                case NEGATIVE:
+                case NEGATE:        return Long.valueOf(Math.negateExact(r));
+                case ABS:           return Long.valueOf(Math.absExact(r));
+                case GREATER:       return Boolean.valueOf(l > r);
+                case LESS:          return Boolean.valueOf(l < r);
+                case GREATER_EQUAL: return Boolean.valueOf(l >= r);
+                case LESS_EQUAL:    return Boolean.valueOf(l <= r);
+                case EQUAL:         return Boolean.valueOf(l == r);
+                case NOT_EQUAL:     return Boolean.valueOf(l != r);
+                case MODULO:
+                case MOD:
+                    return (l >= 0 && r > 0) ? Long.valueOf(l % r) : null;
+                case REMAINDER:
+                    return (r != 0 && l != Long.MIN_VALUE && r != Long.MIN_VALUE) ? Long.valueOf(l % r) : null;
+                case LOGICAL_AND:
+                    return (l >= 0 && r >= 0) ? Long.valueOf(l & r) : null;
+                case LOGICAL_OR:
+                    return (l >= 0 && r >= 0) ? Long.valueOf(l | r) : null;
+                case LOGICAL_XOR:
+                    return (l >= 0 && r >= 0) ? Long.valueOf(l ^ r) : null;
+                case SHIFT_LEFT:
+                    //has to stay positive, so the top bit stays clear
+                    return (l >= 0 && r >= 0 && r < Long.numberOfLeadingZeros(l)) ? Long.valueOf(l << r) : null;
+                case SHIFT_RIGHT:
+                    return (l >= 0 && r >= 0 && r < 64) ? Long.valueOf(l >> r) : null;
+                case FACTORIAL:
+                    if(r < 0 || r >= FACTORIALS.length || (limitFactorial > 0 && r-1 > limitFactorial)){
+                        return null;
                     }
-                }
-                return Boolean.valueOf(false);
-            }
-        }
-        else if(operator.equals("nor")){
-            for(int i=0; i<bools.length; i++){
-                if(bools[i]==true){
-                    return Boolean.valueOf(false);
-                }
-            }
-            return Boolean.valueOf(true);
-        }
-        else if(operator.equals("xor")){
-            if(!usingBooleans){
-                BigInteger current = big_ints[0];
-                for(int i=0; i<big_ints.length; i++){
-                    current = current.xor(big_ints[i]);
-                }
-                return new BigDecimal(current);
-            }else{
-                int numTrues = 0;
-                for(int i=0; i<bools.length; i++){
-                    if(bools[i]==true){
-                        numTrues++;
+                    return Long.valueOf(FACTORIALS[(int)r]);
+                case POWER:
+                case POW:
+                case SQUARE:
+                    if(r < 0 || (limitUpperPower > 0 && r > limitUpperPower)){
+                        return null;
                     }
-                }
-                if(numTrues==1){
-                    return Boolean.valueOf(true);
-                }else{
-                    return Boolean.valueOf(false);
-                }
+                    if(r == 0){
+                        return Long.valueOf(1);
+                    }
+                    if(l == 0 || l == 1){
+                        return Long.valueOf(l);
+                    }
+                    if(l == -1){
+                        return Long.valueOf((r & 1) == 0 ? 1 : -1);
+                    }
+                    //|l| is at least 2, so this overflows within 63 goes
+                    long result = l;
+                    for(long i=1; i<r; i++){
+                        result = Math.multiplyExact(result, l);
+                    }
+                    return Long.valueOf(result);
+                default:
+                    return null;
             }
+        } catch(ArithmeticException overflow){
+            return null;
         }
-        
-        else if(operator.equals("onebits")){
-            return new BigDecimal(big_ints[0].bitCount());
-        }
-        else if(operator.equals("bitlength")){
-            return new BigDecimal(big_ints[0].bitLength());
+    }
+
+
+    BigDecimal divide(BigDecimal[] nums) throws CalculatorException {
+        if(nums[0].equals(BigDecimal.valueOf(0))){
+            throw new CalculatorException("illegal divide by zero");
         }
-        else if(operator.equals("flipbit")){
-            int location = big_ints[0].intValue();
-            return new BigDecimal(big_ints[1].flipBit(location));
+        return nums[1].divide( nums[0], scale*2, RoundingMode.HALF_UP  );
+    }
+
+
+    //product, multiplying by one at a time
+    BigDecimal product(BigDecimal[] nums) throws ComputeBudget.Exceeded {
+        BigDecimal product = nums[nums.length-1];
+        for(int i=nums.length-2; i>=0; i--){
+            product = this.multiply(product, nums[i]);
         }
-        else if(operator.equals("negate")){
-            return new BigDecimal(big_ints[0].negate());
+        return product;
+    }
+
+
+    //places past scale*2 are rounded off, as a division's are, so a long
+    //  product of fractions doesn't grow without end
+    BigDecimal multiply(BigDecimal x, BigDecimal y) throws ComputeBudget.Exceeded {
+        ComputeBudget.multiply(ComputeBudget.words(x), ComputeBudget.words(y));
+        BigDecimal product = x.multiply(y);
+        if(product.scale() > scale*2){
+            product = product.setScale(scale*2, RoundingMode.HALF_UP);
         }
-        else if(operator.equals("not")){
-            //uncomment if not will accept INTEGERS
-            //if(!usingBooleans){
-            //    return new BigDecimal(big_ints[0].not());
-            //}else{
-                return Boolean.valueOf(!bools[0]);
-            //}
+        return product;
+    }
+
+
+    //x^2, from the Optimiser: a whole number times itself, as power would
+    //  work it out, otherwise power itself
+    BigDecimal square(BigDecimal[] nums) throws CalculatorException, InterruptedException {
+        BigDecimal x = nums[1];
+        if(x.scale() > 0 || x.signum() == 0 || 2*(x.precision() - x.scale()) >= jcalc_math.MAX_DIGITS
+           || (limitUpperPower > 0 && 2 > limitUpperPower)){
+            return this.power(nums);
         }
-        else if(operator.equals("setbit")){
-            return new BigDecimal(big_ints[1].setBit(big_ints[0].intValue()));
+        ComputeBudget.multiply(ComputeBudget.words(x), ComputeBudget.words(x));
+        return x.multiply(x);
+    }
+
+
+    //x/10^k, from the Optimiser, nums[0] being k: the same answer as
+    //  divide, by moving the point
+    BigDecimal movePoint(BigDecimal[] nums){
+        return nums[1].movePointLeft(nums[0].intValue()).setScale(scale*2, RoundingMode.HALF_UP);
+    }
+
+
+    //n!/k!, from the Optimiser: the numbers between them multiplied, unless
+    //  one's too big to work out exactly, when it's what ! and / would give
+    BigDecimal factorialRatio(BigDecimal[] nums) throws CalculatorException, InterruptedException {
+        BigInteger n = this.factorialOperand(nums[1]);
+        BigInteger k = this.factorialOperand(nums[0]);
+        if(n.bitLength() > 62 || k.bitLength() > 62
+           || Math.abs(Factorial.log10(n.doubleValue()) - Factorial.log10(k.doubleValue())) > jcalc_math.MAX_DIGITS){
+            return this.factorial(n).divide(this.factorial(k), scale*2, RoundingMode.HALF_UP);
         }
-        else if(operator.equals("clearbit")){
-            return new BigDecimal(big_ints[1].clearBit(big_ints[0].intValue()));
+        if(n.compareTo(k) >= 0){
+            return new BigDecimal(Factorial.product(k.longValue() + 1, n.longValue())).setScale(scale*2);
         }
-        else if(operator.equals("testbit")){
-            //returning boolean
-            return Boolean.valueOf(big_ints[1].testBit(big_ints[0].intValue()));
+        BigDecimal product = new BigDecimal(Factorial.product(n.longValue() + 1, k.longValue()));
+        ComputeBudget.divide(ComputeBudget.digitWords(scale*2), ComputeBudget.words(product));
+        return BigDecimal.ONE.divide(product, scale*2, RoundingMode.HALF_UP);
+    }
+
+    //what ! would check of its operand, in the order it would
+    private BigInteger factorialOperand(BigDecimal n) throws CalculatorException {
+        if(n.signum() < 0){
+            throw new CalculatorException(Operator.FACTORIAL.symbol + " requires positive numbers only");
         }
-        else if(operator.equals("gcd")){
-            //System.out.println("1: " + big_ints[1]);
-            //System.out.println("0: " + big_ints[0]);            
-            return new BigDecimal(big_ints[1].gcd(big_ints[0]));
+        if(n.signum() != 0 && n.stripTrailingZeros().scale() > 0){
+            throw new CalculatorException(Operator.FACTORIAL.symbol + " only accepts integers");
         }
-        /*
-        else if(operator.equals("mod") || operator.equals("%") ){
-            return new BigDecimal(big_ints[1].mod(big_ints[0]));
+        BigInteger i = n.toBigInteger();
+        if(limitFactorial > 0 && i.subtract(BigInteger.ONE).compareTo(BigInteger.valueOf(limitFactorial)) == 1){
+            throw new CalculatorException("factorial has been limited to " + limitFactorial);
         }
-         */
-        else if(operator.equals("remainder") || operator.equals("mod") || operator.equals("%")){
+        return i;
+    }
 
-            BigDecimal left = nums[1].abs();
-            BigDecimal right = nums[0].abs();
-            
-            if(nums[0].compareTo(BigDecimal.valueOf(0))==0){
-                throw new CalculatorException(operator + " cannot use zero as the denominator");
-            }
-            
-            if(nums[0].compareTo(nums[1])==0){
-                return new BigDecimal(0);
-            }
-            
-            while(left.compareTo(right)>=0){
-                if(Thread.currentThread().isInterrupted()) {
-                    throw new InterruptedException();
-                }
-                left = left.subtract(right);
-            }
 
-            if(left.compareTo(nums[1])>0){
-               left = left.negate();
-            }
-            
-            return left;
-        }
-        else if(operator.equals("random")){
-            BigInteger max = new BigInteger( String.valueOf(Integer.MAX_VALUE));
-            
-            //this has GOT to be too long...
-            if(big_ints[0].compareTo(max)>0){
-                throw new CalculatorException("random range is 1 to " + Integer.MAX_VALUE);
-            }else if(big_ints[0].compareTo(BigInteger.ZERO)==0){
-                throw new CalculatorException("random range is 1 to " + Integer.MAX_VALUE);
-            }
-            
-            Random ran = new Random();
-            
-            return new BigDecimal(String.valueOf(ran.nextInt(big_ints[0].intValue())));            
-        }
-        else if(operator.equals("round")){
-            return nums[0].setScale(0,BigDecimal.ROUND_HALF_UP);
+    //^ and pow
+    BigDecimal power(BigDecimal[] nums) throws CalculatorException, InterruptedException {
+        if((limitUpperPower > 0) && nums[0].toBigInteger().compareTo(BigInteger.valueOf(limitUpperPower)) == 1) {
+        	throw new CalculatorException("the power function has been limited to " + limitUpperPower);
         }
-
         
-        //
-        // boolean operators: == != >= <= > <
-        //
-        else if(operator.equals("==")){
-            if(usingBooleans){
-                return Boolean.valueOf(bools[1]==bools[0]);
-            }else{
-                if(nums[1].compareTo(nums[0])==0){
-                    return Boolean.valueOf(true);
-                }else{
-                    return Boolean.valueOf(false);
-                }
-            }
-        }
-        else if(operator.equals("!=")){
-            if(usingBooleans){
-                return Boolean.valueOf(bools[1]!=bools[0]);
-            }else{
-                if(nums[1].compareTo(nums[0])!=0){
-                    return Boolean.valueOf(true);
-                }else{
-                    return Boolean.valueOf(false);
-                }
-            }
-            
-        }else if(operator.equals(">=")){
-            if(nums[1].compareTo(nums[0])>=0){
-                return Boolean.valueOf(true);
-            }else{
-                return Boolean.valueOf(false);
-            }
-        }else if(operator.equals("<=")){
-            if(nums[1].compareTo(nums[0])<=0){
-                return Boolean.valueOf(true);
-            }else{
-                return Boolean.valueOf(false);
-            }
-        }else if(operator.equals(">")){
-            if(nums[1].compareTo(nums[0])>0){
-                return Boolean.valueOf(true);
-            }else{
-                return Boolean.valueOf(false);
-            }            
-        }else if(operator.equals("<")){
-            if(nums[1].compareTo(nums[0])<0){
-                return Boolean.valueOf(true);
-            }else{
-                return Boolean.valueOf(false);
-            }            
-        }else if(operator.equals("~")){
-                return Boolean.valueOf(!bools[0]);
+        if((limitLowerPower < 0) && nums[0].toBigInteger().compareTo(BigInteger.valueOf(limitLowerPower)) == -1 ) {
+        	throw new CalculatorException("the power function has been limited to " + limitLowerPower);
         }
         
+        return jcalc_math.power(nums[1], nums[0], scale);
+    }
 
-        else if(operator.equals("scale")){
-            return new BigDecimal(nums[0].scale());
+
+    //exp
+    BigDecimal exp(BigDecimal x) throws CalculatorException, InterruptedException {
+        double digits = x.doubleValue() / Math.log(10);
+        if(digits > jcalc_math.MAX_DIGITS){
+            throw new CalculatorException("the answer would have more than " + jcalc_math.MAX_DIGITS + " digits");
         }
-        else if(operator.equals("setscale")){
-            boolean pass = this.setScale(big_ints[0].intValue());
-            return Boolean.valueOf(pass);            
+        if(digits < -(scale + 1)){
+            return BigDecimal.ZERO;
         }
-        
-        else if(operator.equals("binary")){
-            return CalcMachineNumber.binary(big_ints[0]);
+        MathContext mc = new MathContext(Math.max(0, (int)digits) + 1 + scale + 2);
+        return Transcendental.exp(x, mc).setScale(scale, RoundingMode.HALF_UP);
+    }
+
+
+    //ln, and log on the way
+    BigDecimal ln(String operator, BigDecimal x, int scl) throws CalculatorException, InterruptedException {
+        if(x.signum()==0){
+            throw new CalculatorException(operator + " requires positive numbers only");
         }
-        else if(operator.equals("octal")){
-            return CalcMachineNumber.octal(big_ints[0]);
+        return Transcendental.ln(x, scl);
+    }
+
+
+    //log, to base 10
+    BigDecimal log(BigDecimal x) throws CalculatorException, InterruptedException {
+        //both logs need places for the digits the answer has before the point
+        int scl = scale + 2 + String.valueOf((long)Math.abs(jcalc_math.log10(x))).length();
+        BigDecimal ln = ln("log", x, scl);
+        return ln.divide(Transcendental.ln(BigDecimal.TEN, scl), scale, RoundingMode.HALF_UP);
+    }
+
+
+    BigDecimal factorial(BigInteger n) throws CalculatorException, InterruptedException {
+        if(limitFactorial > 0 && n.subtract(BigInteger.ONE).compareTo(BigInteger.valueOf(limitFactorial)) == 1)
+        	throw new CalculatorException("factorial has been limited to " + limitFactorial);
+        return Factorial.of(n, scale);
+    }
+
+
+    //remainder, mod and %
+    BigDecimal remainder(String operator, BigDecimal[] nums) throws CalculatorException, InterruptedException {
+
+        BigDecimal left = nums[1].abs();
+        BigDecimal right = nums[0].abs();
+        
+        if(nums[0].compareTo(BigDecimal.valueOf(0))==0){
+            throw new CalculatorException(operator + " cannot use zero as the denominator");
         }
-        else if(operator.equals("hex")){
-            return CalcMachineNumber.hex(big_ints[0]);
+        
+        if(nums[0].compareTo(nums[1])==0){
+            return new BigDecimal(0);
         }
-        else if(operator.equals("roman")){
-            return CalcMachineNumber.arabicToRoman(big_ints[0]);
+        
+        if(left.compareTo(right)>=0){
+            left = left.remainder(right);
         }
 
-
-        //i decided to leave "unknown operator here
-        //  this way any class can call this and get a logical sounding error
-        //as it is, only the Calculator class calls this,
-        //  and if it catches this exception it'll convert it to
-        //  a PROGRAM ERROR, as it shouldn't have sent the operator in here
-        //  if it wasn't known to the OperatorControlCenter class
-        //the Calculator class should only call operators/functions that the
-        //  OperatorControlCenter said was legal
-        throw new CalculatorException(operator + " is an unknown function");
+        if(left.compareTo(nums[1])>0){
+           left = left.negate();
+        }
         
-    }//end - public Object evaluate_operator
+        return left;
+    }
     
 
     //take this out, it should be in here
@@ -0,0 +1,244 @@
+package org.goat.jcalc;
+
+import java.math.*;
+
+/**
+ *  Makes a parsed Program cheaper to evaluate, once, before it's cached.<BR>
+ *  <BR>
+ *  Variables such as pi are looked up now, at the scale the Program is
+ *  cached for. An operator or function whose operands are all constant is
+ *  worked out now, by the same OperatorControlCenter evaluation would use,
+ *  and replaced by its answer, so pi/3, sqrt(2) and 2^10 cost nothing the
+ *  next time, or the next value of a range. Anything that fails is left to
+ *  fail at evaluation, with the same message. Anything whose answer could
+ *  be long, such as 10000! or 2^100000, is left to be worked out when it's
+ *  needed, so the cache stays small. random, anything that makes a
+ *  machine number, and comparisons are never worked out ahead.<BR>
+ *  <BR>
+ *  Some forms are rewritten as cheaper ones that give the same answer: x^2
+ *  multiplies x by itself, x/1000 moves the point, and n!/k! multiplies k+1
+ *  to n instead of working out both factorials (see Operator.SQUARE and
+ *  the two after it).<BR>
+ *  <BR>
+ *  A Program that sets the scale is left as it is, as everything after
+ *  the setscale would be worked out at the wrong one.
+ */
+final class Optimiser {
+
+    //answers with more digits than this aren't worked out ahead
+    private static final int FOLD_DIGITS = 5000;
+
+    private static final double LOG10_2 = Math.log10(2);
+
+    private final OperatorControlCenter oc;
+    private final VariableTable variables;
+    private final Program.Builder out = new Program.Builder();
+    //where in out each value on the evaluation stack starts
+    private final int[] starts;
+    private int top;
+
+    private Optimiser(OperatorControlCenter oc, VariableTable variables, int length){
+        this.oc = oc;
+        this.variables = variables;
+        this.starts = new int[length];
+    }
+
+    /**
+     *  @return program, or a cheaper one that gives the same answers at the
+     *          OperatorControlCenter's scale
+     */
+    static Program optimise(Program program, OperatorControlCenter oc, VariableTable variables)
+            throws InterruptedException {
+        if(changesScale(program)){
+            return program;
+        }
+        return new Optimiser(oc, variables, program.length).run(program);
+    }
+
+    private static boolean changesScale(Program program){
+        for(int i=0; i<program.length; i++){
+            if(program.kind[i] == Program.COMMAND || program.value[i] == Operator.SETSCALE
+               || (program.kind[i] == Program.RANGE && changesScale(((Range)program.value[i]).body))){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Program run(Program program) throws InterruptedException {
+        for(int i=0; i<program.length; i++){
+            byte kind = program.kind[i];
+            Object value = program.value[i];
+            int argc = program.argc[i];
+            if(kind == Program.VARIABLE){
+                push(out.length());
+                out.add(Program.NUMBER, variables.variableValue((String)value, oc.getScale()), 0);
+            }else if(kind == Program.RANGE){
+                Range range = (Range)value;
+                Program body = new Optimiser(oc, variables, range.body.length).run(range.body);
+                int start = pop(argc);
+                out.add(Program.RANGE, new Range(range.aggregate, body, range.slot), argc);
+                push(start);
+            }else if(kind == Program.OPERATOR || kind == Program.FUNCTION){
+                this.operator(kind, (Operator)value, argc);
+            }else{
+                push(out.length());
+                out.add(kind, value, argc);
+            }
+        }
+        return out.build();
+    }
+
+    //an operator or function, whose operands are the top argc values
+    private void operator(byte kind, Operator op, int argc) throws InterruptedException {
+        if(argc == 2 && (op == Operator.POWER || op == Operator.POW) && isTwo(constant(top-1))){
+            op = Operator.SQUARE;
+        }else if(argc == 2 && op == Operator.DIVIDE && isFactorial(starts[top-1]-1) && isFactorial(out.length()-1)){
+            out.remove(out.length()-1);
+            out.remove(starts[top-1]-1);
+            starts[top-1]--;
+            op = Operator.FACTORIAL_RATIO;
+        }else if(argc == 2 && op == Operator.DIVIDE){
+            int k = powerOfTen(constant(top-1));
+            if(k != 0){
+                out.truncate(starts[top-1]);
+                out.add(Program.NUMBER, Long.valueOf(k), 0);
+                op = Operator.MOVE_POINT;
+            }
+        }
+
+        Object answer = this.fold(op, argc);
+        int start = pop(argc);
+        if(answer != null){
+            out.truncate(start);
+            out.add(Program.NUMBER, answer, 0);
+        }else{
+            out.add(kind, op, argc);
+        }
+        push(start);
+    }
+
+    /*  The answer to op, if its operands are all constant and it's worth
+     *  keeping, otherwise null.
+     */
+    private Object fold(Operator op, int argc) throws InterruptedException {
+        if(op == Operator.RANDOM || op == Operator.BINARY || op == Operator.OCTAL
+           || op == Operator.HEX || op == Operator.ROMAN || op == Operator.TABLE){
+            return null;
+        }
+        if(op.legal == OperatorControlCenter.NUM_BOOLEAN){
+            //depends on lazy equality, which can be turned off once it's cached
+            return null;
+        }
+        Object[] operands = new Object[argc];
+        for(int i=0; i<argc; i++){
+            operands[i] = constant(top-argc+i);
+            if(operands[i] == null){
+                return null;
+            }
+        }
+        if(!this.small(op, operands)){
+            return null;
+        }
+        Object answer;
+        try {
+            answer = oc.evaluate(op, operands, 0, argc);
+        } catch(CalculatorException e){
+            return null;
+        } catch(ArithmeticException e){
+            return null;
+        }
+        if(answer instanceof BigDecimal && ResultRenderer.size((BigDecimal)answer) > FOLD_DIGITS){
+            return null;
+        }
+        return (answer instanceof Long || answer instanceof BigDecimal || answer instanceof Boolean
+                || answer instanceof CalcRational) ? answer : null;
+    }
+
+    //whether op's answer is sure to be short enough to work out ahead
+    private boolean small(Operator op, Object[] operands){
+        BigDecimal x = number(operands[0]);
+        BigDecimal y = operands.length > 1 ? number(operands[1]) : null;
+        switch(op){
+            case FACTORIAL:
+                return x != null && x.compareTo(BigDecimal.valueOf(FOLD_DIGITS)) <= 0
+                    && Factorial.log10(x.doubleValue()) <= FOLD_DIGITS;
+            case FACTORIAL_RATIO:
+                return x != null && y != null
+                    && Math.abs(Factorial.log10(x.doubleValue()) - Factorial.log10(y.doubleValue())) <= FOLD_DIGITS;
+            case POWER:
+            case POW:
+            case SQUARE:
+                return x != null && y != null && Math.abs(y.doubleValue()*log10(x)) <= FOLD_DIGITS;
+            case EXP:
+                return x != null && x.doubleValue() <= FOLD_DIGITS*Math.log(10);
+            case SHIFT_LEFT:
+            case SETBIT:
+            case FLIPBIT:
+            case CLEARBIT:
+                //as long as the bit it goes up to
+                return y != null && y.doubleValue() <= FOLD_DIGITS/LOG10_2;
+            default:
+                return true;
+        }
+    }
+
+    //about log10|x|, and 0 for 0
+    private static double log10(BigDecimal x){
+        if(x.signum() == 0){
+            return 0;
+        }
+        return x.unscaledValue().bitLength()*LOG10_2 - x.scale();
+    }
+
+    private static BigDecimal number(Object o){
+        if(o instanceof Long){
+            return BigDecimal.valueOf(((Long)o).longValue());
+        }
+        if(o instanceof CalcMachineNumber){
+            return ((CalcMachineNumber)o).getValue();
+        }
+        return o instanceof BigDecimal ? (BigDecimal)o : null;
+    }
+
+    private static boolean isTwo(Object o){
+        BigDecimal x = number(o);
+        return x != null && x.compareTo(BigDecimal.valueOf(2)) == 0;
+    }
+
+    //k if o is exactly 10^k, otherwise 0
+    private static int powerOfTen(Object o){
+        BigDecimal x = number(o);
+        if(x == null || x.signum() <= 0){
+            return 0;
+        }
+        x = x.stripTrailingZeros();
+        if(!x.unscaledValue().equals(BigInteger.ONE)){
+            return 0;
+        }
+        return -x.scale();
+    }
+
+    private boolean isFactorial(int node){
+        return node >= 0 && out.kind(node) == Program.OPERATOR && out.value(node) == Operator.FACTORIAL;
+    }
+
+    //the value at stack position i, if it's a single number node
+    private Object constant(int i){
+        int end = i+1 < top ? starts[i+1] : out.length();
+        if(i < 0 || end - starts[i] != 1 || out.kind(starts[i]) != Program.NUMBER){
+            return null;
+        }
+        return out.value(starts[i]);
+    }
+
+    private void push(int start){
+        starts[top++] = start;
+    }
+
+    //takes argc values off the stack, and says where the first started
+    private int pop(int argc){
+        top -= argc;
+        return argc > 0 ? starts[top] : out.length();
+    }
+}
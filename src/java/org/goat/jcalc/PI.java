@@ -5,9 +5,6 @@ import java.math.*;
 public class PI implements variable_interface {
     
     int scale      = 1000;
-    int safe_scale = scale + 5;
-    
-    BigDecimal pi;
     
 //3.14159265358979323846
 //3.14159265358979323846264338327950288419716939937510582097494459230781640628620899862803482534211706798214808651328230664709384460955058223172535940812848111745028410270193852110555964462294895493038196442881097566593344612847564823378678316527120190914564856692346034861045432664821339360726024914127372458700660631558817488152092096282925409171536436789259036001133053054882046652138414695194151160943305727036575959195309218611738193261179310511854807446237996274956735188575272489122793818301194912983367336244
@@ -15,225 +12,24 @@ public class PI implements variable_interface {
 //3.141592653589793238462643383279502884197169399375105820974944592307816406286208998628034825342117067982148086513282306647093844609550582231725359408128481117450284102701938521105559644622948954930381964428810975665933446128475648233786783165271201909145648566923460348610454326648213393607260249141273724587006606315588174881520920962829254091715364367892590360011330530548820466521384146951941511609433057270365759591953092186117381932611793105118548074462379962749567351885752724891227938183011949129833673362440656643086021394946395224737190702179860943702770539217176293176752384674818467669405132000568127145263560827785771342757789609173637178721468440901224953430146549585371050792279689258923542019956112129021960864034418159813629774771309960518707211349999998372978049951059731732816096318595024459455346908302642522308253344685035261931188171010003137838752886587533208381420617177669147303598253490428755468731159562863882353787593751957781857780532171226806613001927876611195909216420198938095257201065485863278865936153381827968230301952035301852968995773622599413891249721775283479131515574857242454150695950829533116861727855889075098381754637464939319255060400927701671139009848824012858361603563707660104710181942955596198946767837449448255379774726847104047534646208046684259069491293313677028989152104752162056966024058038150193511253382430035587640247496473263914199272604269922796782354781636009341721641219924586315030286182974555706749838505494588586926995690927210797509302955321165344987202755960236480665499119881834797753566369807426542527862551818417574672890977772793800081647060016145249192173217214772350141441973568548161361157352552133475741849468438523323907394143334547762416862518983569485562099219222184272550254256887671790494601653466804988627232791786085784383827967976681454100953883786360950680064225125205117392984896084128488626945604241965285022210661186306744278622039194945047123713786960956364371917287467764657573962413890865832645995813390478027590099465764078951269468398352595709825822620522489407726719478268482601476990902640136394437455305068203496252451749399651431429809190659250937221696461515709858387410597885959772975498930161753928468138268683868942774155991855925245953959431049972524680845987273644695848653836736222626099124608051243884390451244136549762780797715691435997700129616089441694868555848406353422072225828488648158456028506016842739452267467678895252138522549954666727823986456596116354886230577456498035593634568174324112515076069479451096596094025228879710893145669136867228748940560101503308617928680920874760917824938589009714909675985261365549781893129784821682998948722658804857564014270477555132379641451523746234364542858444795265867821051141354735739523113427166102135969536231442952484937187110145765403590279934403742007310578539062198387447808478489683321445713868751943506430218453191048481005370614680674919278191197939952061419663428754440643745123718192179998391015919561814675142691239748940907186494249405
 //3.1415926535897932384626433832795028841971693993751058209749445923078164062862089986280348253421170679821480865132823066470938446095505822317253594081284811174502841027019385211055596446229489549303819644288109756659334461284756482337867831652712019091456485669234603486104543266482133936072602491412737245870066063155881748815209209628292540917153643678925903600113305305488204665213841469519415116094330572703657595919530921861173819326117931051185480744623799627495673518857527248912279381830119491298336733624406566430860213949463952247371907021798609437027705392171762931767523846748184676694051320005681271452635608277857713427577896091736371787214684409012249534301465495853710507922796892589235420199561121290219608640344181598136297747713099605187072113499999983729780499510597317328160963185950244594553469083026425223082533446850352619311881710100031378387528865875332083814206171776691473035982534904287554687311595628638823537875937519577818577805321712268066130019278766111959092164201989380952572010654858632788659361533818279682303019520353018529689957736225994138912497217752834791315155748572424541506959508295331168617278558890750983817546374649393192550604009277016711390098488240128583616035637076601047101819429555961989467678374494482553797747268471040475346462080466842590694912933136770289891521047521620569660240580381501935112533824300355876402474964732639141992726042699227967
 
-    BigDecimal sqrt(BigDecimal bd) throws InterruptedException {
-        BigDecimal prev = new BigDecimal(bd.toString());
-        BigDecimal two = new BigDecimal("2");
-        
-        BigDecimal curr = new BigDecimal(bd.toString());
-        curr = curr.divide(two,safe_scale,BigDecimal.ROUND_HALF_UP);
-        
-        
-        while(prev.compareTo(curr)!=0){
-            if(Thread.currentThread().isInterrupted()) {
-                throw new InterruptedException();
-            }
-            prev = curr;
-            
-            BigDecimal top = curr.multiply(curr).subtract(bd);
-            BigDecimal bottom = two.multiply(curr);
-            BigDecimal result = top.divide(bottom,safe_scale,BigDecimal.ROUND_HALF_UP);
-            
-            curr = curr.subtract(result);
-        }
-        
-        return curr;
-    }
-    
-    BigDecimal pow(BigDecimal left, BigDecimal right) throws InterruptedException {
-        BigDecimal orig = new BigDecimal(left.toString());
-        for(int i=1; i<right.intValue(); i++){
-            left = left.multiply(orig);
-        }
-        return left;
-    }
-    
-    
-    public BigDecimal ramanujan_sum_fast_1() throws InterruptedException {
-       /*
-            Let 
-            y[0] = SqRt(2) - 1,    
-            x[0] = 6 - 4 * SqRt(2)
-            
-            y[n] = (1 - SqRt(SqRt(1 - y[n-1]^4))) / (1 + SqRt(SqRt(1 - y[n-1]^4)))
-            x[n] = ((1 + y[n])^4 * x[n-1]) - 2^(2n+1) * y[n] * (1 + y[n] + y[n]^2)
-        */
-        
-        BigDecimal one  = new BigDecimal("1");
-        BigDecimal two  = new BigDecimal("2");
-        BigDecimal four = new BigDecimal("4");
-
-        //need to put first two iterations in here to speed things up
-        
-        BigDecimal y_n = sqrt(two).subtract(one);
-        BigDecimal x_n = BigDecimal.valueOf(6).subtract( four.multiply(sqrt(two)));
-        
-        BigDecimal prev = y_n;
-        
-        int iteration = 0;
-        
-        boolean debug = false;
-        
-        //System.out.println("using scale: " + scale);
-        
-        while(prev.compareTo(x_n)!=0){
-            if(Thread.currentThread().isInterrupted()) {
-                throw new InterruptedException();
-            }
-
-            iteration++;
-            BigDecimal n = new BigDecimal(iteration);
-            
-            if(debug) System.out.print(iteration+" ");
-
-            prev = new BigDecimal(x_n.toString());
-            
-            //
-            // finding y_n
-            //
-            BigDecimal y_left = sqrt(sqrt(one.subtract(pow(y_n,four))));
-            y_left = one.subtract(y_left);
-            
-            BigDecimal y_right = one.add(sqrt(sqrt(one.subtract(pow(y_n,four)))));
-
-            BigDecimal y = y_left.divide(y_right,safe_scale,BigDecimal.ROUND_HALF_UP);
-
-            //
-            // finding x_n
-            //
-            BigDecimal x_left = pow(one.add(y),four).multiply(x_n);
-            //BigDecimal x_n_left = one.add(pow(y,four)).multiply(x_n);
-            BigDecimal x_right = pow(two, two.multiply(n).add(one)).multiply(y).multiply(one.add(y).add(pow(y,two)));
-            
-            BigDecimal x = x_left.subtract(x_right);
-            
-            y_n = new BigDecimal(y.toString());
-            x_n = new BigDecimal(x.toString());
-            
-            /*
-            //levae these in here for debug purposes
-            System.out.println(y_left);
-            System.out.println(y_right);
-            System.out.println(y);
-            System.out.println(x_left);
-            System.out.println(x_right);
-            System.out.println(x);
-            System.out.println();
-            */
-            //System.out.println(one.divide(x,safe_scale,BigDecimal.ROUND_HALF_UP));
-            //System.out.println(iteration);
-        }//end - for(long i=1; i<iterations; i++)
-        
-        if(debug) System.out.println();
-        
-        return one.divide(x_n,scale,BigDecimal.ROUND_HALF_UP);
-    }
-    
-    public double ramanujan_sum_fast_1_double() throws InterruptedException {
-        double y_n = Math.sqrt(2)-1;
-        double x_n = 6 - 4 * Math.sqrt(2);
-        
-        double prev = y_n;
-        double iteration = 0;
-        //for(int i=1; i<10; i++){
-        while(prev!=x_n){
-            if(Thread.currentThread().isInterrupted()) {
-                throw new InterruptedException();
-            }
-            //double y = (1 - Math.sqrt(Math.sqrt(1-Math.pow(y_n,4)))) / (1+ Math.sqrt(Math.sqrt(1-Math.pow(y_n,4))));
-            //double x = (Math.pow((1+y),4) * x_n) - Math.pow(2,(2*i+1)) * y * (1+y + Math.pow(y,2));
-            iteration++;
-            prev = x_n;
-            
-            double y_n_left  = (1 - Math.sqrt(Math.sqrt(1-Math.pow(y_n,4))));
-            double y_n_right = (1+ Math.sqrt(Math.sqrt(1-Math.pow(y_n,4))));
-            double y = y_n_left/y_n_right;
-            
-            double x_n_left  = (Math.pow((1+y),4) * x_n);
-            double x_n_right = Math.pow(2,(2*iteration+1)) * y * (1+y + Math.pow(y,2));
-            double x = x_n_left - x_n_right;
-            
-            
-            y_n = y;
-            x_n = x;
-            
-            /*
-                System.out.println(y_n_left);
-                System.out.println(y_n_right);
-                System.out.println(y);
-                System.out.println(x_n_left);
-                System.out.println(x_n_right);
-                System.out.println(x +" => " + Math.pow(x,-1));
-                System.out.println();
-             */
-        }
-        return 1/x_n;
-    }
-    
-    
-    public double ramanujan_sum_fast_2_double(){
-        /*
-          Let y[0] = SqRt(1/2),    x[0] = 1/2
-          y[n] = (1 - SqRt(1 - y[n-1]^2)) / (1 + SqRt(1 - y[n-1]^2))
-          x[n] = ((1 + y[n])^2 * x[n-1]) - 2^n * y[n]         
-         */
-
-        double y_n = Math.sqrt(.5);
-        double x_n = .5;
-        
-        for(int i=1; i<10; i++){
-            double y = (1-Math.sqrt(1-Math.pow(y_n,2))) / (1+Math.sqrt(1-Math.pow(y_n,2)));
-            double x = (Math.pow(1+y,2) * x_n) - Math.pow(2,i) * y;
-            
-            y_n = y;
-            x_n = x;
-            
-            //System.out.println(Math.pow(x,-1));
-        }
-        return 1/x_n;
-    }
-
-         
+    /**
+     *  Pi to scl places, or to the last scale asked for if scl is under 16.
+     *  Worked out once for the whole process, see Constants.
+     */
     public BigDecimal getValue(int scl) throws InterruptedException {
-        if(scl>15 && scl!=scale){
+        if(scl>15){
             this.scale=scl;
-            this.safe_scale = scale + 5;
-        }else if(scl<16){
-            return pi;
-        }
-        
-        if(scl>pi.scale()){
-            //System.out.println("get new pi");
-            pi = ramanujan_sum_fast_1();
-        }else if(scl<pi.scale()){
-            pi = pi.setScale(scl,BigDecimal.ROUND_HALF_UP);
         }
-
-        
-        return pi;
+        return Constants.pi(scale);
     }
     
-    //this currently isn't being used, but it might...
-    public BigDecimal getValue(){
-        return pi;
+    public BigDecimal getValue() throws InterruptedException {
+        return Constants.pi(scale);
     }
     
     
-    
-    public String toString(){
-        return pi.toString();
-    }
-    
-    public PI(int scl) throws InterruptedException {
+    public PI(int scl){
         scale = scl;
-        safe_scale = scale + 5;
-        
-        pi = ramanujan_sum_fast_1();
-        
-        /*
-        System.out.println(ramanujan_sum_fast_1());
-        System.out.println(ramanujan_sum_fast_1_double());
-        System.out.println(ramanujan_sum_fast_2_double());
-         */
     }
 
     
@@ -244,4 +40,3 @@ public class PI implements variable_interface {
     }
     
 }
-
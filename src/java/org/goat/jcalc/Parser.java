@@ -0,0 +1,276 @@
+package org.goat.jcalc;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ *  Parses the tokens from a Lexer into a Program, by precedence climbing.<BR>
+ *  <BR>
+ *  The grammar is the one the shunting-yard conversion in infix_to_rpn
+ *  always accepted:
+ *  <PRE>
+ *      operand  := number | variable | ( expr ) | function ( [expr {, expr}] )
+ *               |  aggregate ( expr , name , expr , expr [, expr] )
+ *               |  - operand  |  ~ operand
+ *      expr     := operand { binary-op expr | ! | operand }
+ *  </PRE>
+ *  Operators bind as their Operator precedence says, and the right to
+ *  left ones (^, unary minus, ~) group to the right.
+ *  An operand straight after a number, variable, ")" or "!" multiplies, so
+ *  3(4+5), 2sqrt(9) and (1+2)(3+4) all work. A command such as "clear"
+ *  must be the whole equation. Functions are checked for the right number
+ *  of arguments here, so evaluation needn't. An aggregate such as sum whose
+ *  second argument is a name nothing else has is taken over a range, see
+ *  Range: its first argument is compiled on its own, with the name bound
+ *  to the range's values.<BR>
+ *  <BR>
+ *  Syntax errors are reported at the last character of the offending
+ *  token, or one past the end if the equation stops too soon.
+ */
+final class Parser {
+
+    private static final int LOWEST = Integer.MIN_VALUE;
+
+    //more than any sensible equation, few enough not to run out of stack
+    private static final int MAX_DEPTH = 1000;
+
+    private final Lexer tokens;
+    private Program.Builder out = new Program.Builder();
+    //the names of the ranges being parsed, innermost last
+    private final ArrayList<String> bound = new ArrayList<String>();
+    private int pos;
+    private int depth;
+
+    private Parser(Lexer tokens){
+        this.tokens = tokens;
+    }
+
+    /**
+     *  @param equation - a normalised equation: lower case, no spaces
+     *  @param commands - the names of the calculator commands
+     *  @param answers - the numbers the equation's answer slots stand for,
+     *                   see Lexer.slot
+     */
+    static Program parse(String equation, VariableTable variables, Vector<String> commands, List<BigDecimal> answers)
+            throws CalculatorException, InterruptedException {
+        Lexer tokens = new Lexer(equation, variables, commands, answers).lex();
+        return new Parser(tokens).program();
+    }
+
+    private Program program() throws CalculatorException {
+        if(type() == Lexer.COMMAND){
+            out.add(Program.COMMAND, tokens.value[pos++], 0);
+            if(type() != Lexer.END){
+                throw syntaxError();
+            }
+            return out.build();
+        }
+        expression(LOWEST);
+        if(type() != Lexer.END){
+            throw unexpected();
+        }
+        return out.build();
+    }
+
+    /*  Parses an operand and then every operator that binds tighter than
+     *  one of precedence |min|, emitting them in rpn order. Stops, without
+     *  consuming it, at the first token that doesn't belong to this level.
+     */
+    private void expression(int min) throws CalculatorException {
+        if(++depth > MAX_DEPTH){
+            throw new CalculatorException("equation is nested too deeply", tokens.position[pos]);
+        }
+        operand();
+        while(true){
+            byte t = type();
+            if(t == Lexer.OPERATOR){
+                Operator op = (Operator)tokens.value[pos];
+                if(op == Operator.LOGICAL_NOT){
+                    throw syntaxError();
+                }
+                if(!bindsTighter(op, min)){
+                    break;
+                }
+                pos++;
+                if(op == Operator.FACTORIAL){
+                    out.add(Program.OPERATOR, op, 1);
+                }else{
+                    expression(op.precedence);
+                    out.add(Program.OPERATOR, op, 2);
+                }
+            }else if(t == Lexer.NUMBER || t == Lexer.MACHINE || t == Lexer.VARIABLE
+                     || t == Lexer.FUNCTION || t == Lexer.OPEN || isBound()){
+                //implied multiplication
+                if(!bindsTighter(Operator.MULTIPLY, min)){
+                    break;
+                }
+                expression(Operator.MULTIPLY.precedence);
+                out.add(Program.OPERATOR, Operator.MULTIPLY, 2);
+            }else{
+                break;
+            }
+        }
+        depth--;
+    }
+
+    private static boolean bindsTighter(Operator op, int min){
+        return op.precedence > min || (op.precedence == min && op.rightToLeft());
+    }
+
+    private void operand() throws CalculatorException {
+        byte t = type();
+        Object v = tokens.value[pos];
+        if(t == Lexer.NUMBER){
+            pos++;
+            out.add(Program.NUMBER, small((BigDecimal)v), 0);
+        }else if(t == Lexer.MACHINE){
+            pos++;
+            out.add(Program.NUMBER, v, 0);
+        }else if(t == Lexer.VARIABLE){
+            pos++;
+            out.add(Program.VARIABLE, v, 0);
+        }else if(t == Lexer.OPEN){
+            if(tokens.type[pos+1] == Lexer.CLOSE){
+                //"()" with no function in front of it
+                pos++;
+                throw syntaxError();
+            }
+            pos++;
+            expression(LOWEST);
+            expect(Lexer.CLOSE);
+        }else if(isBound()){
+            pos++;
+            out.add(Program.BOUND, Integer.valueOf(bound.lastIndexOf(v)), 0);
+        }else if(t == Lexer.FUNCTION){
+            pos++;
+            if(type() != Lexer.OPEN){
+                throw syntaxError();
+            }
+            pos++;
+            int comma = Range.isAggregate((Operator)v) ? rangeName() : -1;
+            if(comma > 0){
+                range((Operator)v, comma);
+                return;
+            }
+            int args = 0;
+            if(type() == Lexer.CLOSE){
+                pos++;
+            }else{
+                while(true){
+                    expression(LOWEST);
+                    args++;
+                    if(type() == Lexer.COMMA){
+                        pos++;
+                    }else{
+                        expect(Lexer.CLOSE);
+                        break;
+                    }
+                }
+            }
+            ((Operator)v).checkOperands(args);
+            out.add(Program.FUNCTION, v, args);
+        }else if(t == Lexer.OPERATOR && (v == Operator.SUBTRACT || v == Operator.LOGICAL_NOT)){
+            //the only prefix operators: negation, which is "#" inside, and not
+            Operator op = v == Operator.SUBTRACT ? Operator.NEGATIVE : Operator.LOGICAL_NOT;
+            pos++;
+            expression(op.precedence);
+            out.add(Program.OPERATOR, op, 1);
+        }else if(t == Lexer.UNKNOWN){
+            throw new CalculatorException("unknown string: " + v);
+        }else{
+            throw syntaxError();
+        }
+    }
+
+    /*  If the function whose "(" was just passed has a name nothing else has
+     *  for its second argument, the comma before that name, otherwise -1.
+     */
+    private int rangeName(){
+        int depth = 0;
+        for(int i=pos; ; i++){
+            byte t = tokens.type[i];
+            if(t == Lexer.OPEN){
+                depth++;
+            }else if(t == Lexer.CLOSE){
+                if(depth-- == 0){
+                    return -1;
+                }
+            }else if(t == Lexer.END){
+                return -1;
+            }else if(t == Lexer.COMMA && depth == 0){
+                return tokens.type[i+1] == Lexer.UNKNOWN && tokens.type[i+2] == Lexer.COMMA ? i : -1;
+            }
+        }
+    }
+
+    /*  The rest of op(body, name, start, end [, step]), from the body, which
+     *  is compiled on its own with name bound.
+     */
+    private void range(Operator op, int comma) throws CalculatorException {
+        String name = (String)tokens.value[comma+1];
+        Program.Builder outside = out;
+        out = new Program.Builder();
+        bound.add(name);
+        expression(LOWEST);
+        if(pos != comma){
+            throw unexpected();
+        }
+        Range range = new Range(op, out.build(), bound.size()-1);
+        bound.remove(bound.size()-1);
+        out = outside;
+
+        pos = comma + 2;
+        int args = 0;
+        while(type() == Lexer.COMMA){
+            pos++;
+            expression(LOWEST);
+            args++;
+        }
+        expect(Lexer.CLOSE);
+        if(args < 2 || args > 3){
+            throw new CalculatorException(op.symbol + " over a range requires an expression, a name, a start, an end and optionally a step");
+        }
+        out.add(Program.RANGE, range, args);
+    }
+
+    //the current token is the name of a range being parsed
+    private boolean isBound(){
+        return type() == Lexer.UNKNOWN && bound.contains(tokens.value[pos]);
+    }
+
+    //whole numbers that fit are Longs, for OperatorControlCenter.exact
+    private static Object small(BigDecimal bd){
+        if(bd.scale()==0 && bd.precision()<=18){
+            return Long.valueOf(bd.longValue());
+        }
+        return bd;
+    }
+
+    private void expect(byte t) throws CalculatorException {
+        if(type() != t){
+            throw unexpected();
+        }
+        pos++;
+    }
+
+    //the current token can't go here
+    private CalculatorException unexpected(){
+        if(type() == Lexer.UNKNOWN){
+            return new CalculatorException("unknown string: " + tokens.value[pos]);
+        }
+        if(type() == Lexer.COMMA){
+            return new CalculatorException("syntax error: , appears to have been used illegally", tokens.position[pos]);
+        }
+        return syntaxError();
+    }
+
+    private CalculatorException syntaxError(){
+        return new CalculatorException("syntax error", tokens.position[pos]);
+    }
+
+    private byte type(){
+        return tokens.type[pos];
+    }
+}
@@ -0,0 +1,142 @@
+package org.goat.jcalc;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Vector;
+
+/**
+ *  A parsed equation, as reverse polish notation over typed nodes.<BR>
+ *  <BR>
+ *  Each node is a kind and a value: a Long, BigDecimal or CalcMachineNumber
+ *  for numbers, the name of a variable or command, or the Operator for
+ *  operators and functions. Functions also record how many arguments they
+ *  were given, so no "(" marker is needed to find where their arguments
+ *  start. Inside the body of a range, the range's variable is a BOUND node
+ *  whose value is its slot among the bound values, and the range itself is
+ *  a RANGE node holding a Range, taking its start, end and step.<BR>
+ *  <BR>
+ *  Immutable once built, so one Program can be evaluated by any number of
+ *  threads at once, see ProgramCache. It's evaluated as an ExpressionTree,
+ *  made the first time it's wanted and kept with the Program.
+ */
+final class Program {
+
+    static final byte NUMBER   = 0; //Long, BigDecimal or CalcMachineNumber
+    static final byte VARIABLE = 1;
+    static final byte OPERATOR = 2;
+    static final byte FUNCTION = 3;
+    static final byte COMMAND  = 4;
+    static final byte BOUND    = 5; //Integer slot
+    static final byte RANGE    = 6; //Range
+
+    final byte[] kind;
+    final Object[] value;
+    final int[] argc;   //values taken off the stack: operands or arguments
+    final int length;
+
+    //made by tree; any thread that finds it missing may make it
+    private volatile ExpressionTree.Node tree;
+
+    private Program(byte[] kind, Object[] value, int[] argc, int length){
+        this.kind = kind;
+        this.value = value;
+        this.argc = argc;
+        this.length = length;
+    }
+
+    /**
+     *  @return the Program as an ExpressionTree, which mustn't be a command
+     */
+    ExpressionTree.Node tree() throws CalculatorException {
+        ExpressionTree.Node t = tree;
+        if(t == null){
+            t = ExpressionTree.compile(this);
+            tree = t;
+        }
+        return t;
+    }
+
+    /**
+     *  The legacy rpn Vector, as infix_to_rpn has always returned and
+     *  evaluate_rpn expects: functions have a "(" marker before their
+     *  arguments.
+     */
+    Vector<Object> toVector(){
+        Vector<Object> v = new Vector<Object>(length);
+        //where in v each value on the evaluation stack starts
+        int[] starts = new int[length];
+        int top = 0;
+        for(int i=0; i<length; i++){
+            int start = v.size();
+            if(argc[i] > 0){
+                top -= argc[i];
+                start = starts[top];
+            }
+            if(kind[i] == FUNCTION){
+                v.insertElementAt("(", start);
+            }
+            if(kind[i] == OPERATOR || kind[i] == FUNCTION){
+                v.add(((Operator)value[i]).symbol);
+            }else if(value[i] instanceof Long){
+                v.add(BigDecimal.valueOf(((Long)value[i]).longValue()));
+            }else{
+                v.add(value[i]);
+            }
+            starts[top++] = start;
+        }
+        return v;
+    }
+
+    /**
+     *  Builds a Program node by node, in rpn order.
+     */
+    static final class Builder {
+        private byte[] kind = new byte[16];
+        private Object[] value = new Object[16];
+        private int[] argc = new int[16];
+        private int length;
+
+        void add(byte k, Object v, int args){
+            if(length == kind.length){
+                kind = Arrays.copyOf(kind, length*2);
+                value = Arrays.copyOf(value, length*2);
+                argc = Arrays.copyOf(argc, length*2);
+            }
+            kind[length] = k;
+            value[length] = v;
+            argc[length] = args;
+            length++;
+        }
+
+        int length(){
+            return length;
+        }
+
+        byte kind(int i){
+            return kind[i];
+        }
+
+        Object value(int i){
+            return value[i];
+        }
+
+        //drops node i, and everything after it moves down one
+        void remove(int i){
+            System.arraycopy(kind, i+1, kind, i, length-i-1);
+            System.arraycopy(value, i+1, value, i, length-i-1);
+            System.arraycopy(argc, i+1, argc, i, length-i-1);
+            value[--length] = null;
+        }
+
+        //drops every node from i on
+        void truncate(int i){
+            Arrays.fill(value, i, length, null);
+            length = i;
+        }
+
+        Program build(){
+            return new Program(Arrays.copyOf(kind, length), Arrays.copyOf(value, length),
+                               Arrays.copyOf(argc, length), length);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.goat.jcalc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *  A bounded, least recently used cache of equations already parsed into
+ *  Programs, so that an equation seen recently can skip the parsing and go
+ *  straight to evaluation.<BR>
+ *  <BR>
+ *  Entries are keyed by the normalised equation (lower case, spaces removed,
+ *  ans/entry substituted), the scale it was parsed at and whether exact
+ *  fractions were on, as the Optimiser folds divisions differently.
+ *  Programs are immutable, so one can be shared by any number of
+ *  evaluations.<BR>
+ *  <BR>
+ *  Safe to share between threads, as the Calculator itself is.
+ */
+class ProgramCache {
+
+    private final LinkedHashMap<String, Program> programs;
+    private int capacity;
+    private long hits, misses;
+
+    public ProgramCache(int capacity){
+        this.capacity = capacity;
+        //access order, so the eldest entry is the least recently used one
+        this.programs = new LinkedHashMap<String, Program>(16, 0.75f, true){
+            private static final long serialVersionUID = 1L;
+            protected boolean removeEldestEntry(Map.Entry<String, Program> eldest){
+                return size() > ProgramCache.this.capacity;
+            }
+        };
+    }
+
+    private static String key(String equation, int scale, boolean exact){
+        return scale + (exact ? "q:" : ":") + equation;
+    }
+
+    /**
+     *  @return the cached program for the equation, or null if there isn't one
+     */
+    public synchronized Program get(String equation, int scale, boolean exact){
+        Program program = programs.get(key(equation, scale, exact));
+        if(program == null){
+            misses++;
+        }else{
+            hits++;
+        }
+        return program;
+    }
+
+    public synchronized void put(String equation, int scale, boolean exact, Program program){
+        if(capacity > 0){
+            programs.put(key(equation, scale, exact), program);
+        }
+    }
+
+    /**
+     *  Changes how many programs are kept, dropping the least recently used
+     *  ones if there are now too many. Zero turns the cache off.
+     */
+    public synchronized void setCapacity(int capacity){
+        this.capacity = Math.max(0, capacity);
+        while(programs.size() > this.capacity){
+            programs.remove(programs.keySet().iterator().next());
+        }
+    }
+
+    public synchronized int getCapacity(){
+        return capacity;
+    }
+
+    public synchronized int size(){
+        return programs.size();
+    }
+
+    public synchronized long getHits(){
+        return hits;
+    }
+
+    public synchronized long getMisses(){
+        return misses;
+    }
+
+    public synchronized void clear(){
+        programs.clear();
+    }
+}
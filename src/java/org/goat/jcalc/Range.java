@@ -0,0 +1,288 @@
+package org.goat.jcalc;
+
+import java.math.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ *  An aggregate over a range, as in sum(1/n^2, n, 1, 100000): the body
+ *  is worked out for every value of n from the start to the end, by the
+ *  step if there is one, and the values summed, multiplied, tabled, or the
+ *  smallest, biggest or average taken.<BR>
+ *  <BR>
+ *  The Parser compiles the body once, as its own Program, with n as a
+ *  bound slot instead of a variable. The Program node holding the Range
+ *  takes the start, end and step off the stack. Values of the body don't
+ *  depend on each other, so the range is split into chunks worked out
+ *  across a ForkJoinPool, each chunk reducing its own values before the
+ *  chunks' results are put together, left to right. A chunk runs on the
+ *  ComputeBudget of the equation it's part of, and stops the others if it
+ *  fails.<BR>
+ *  <BR>
+ *  Sums and tables of whole numbers are exact. A product is rounded to
+ *  scale*2 places as it goes, as a division is.
+ */
+final class Range {
+
+    //the most values table gives
+    static final int MAX_TABLE = 1000;
+
+    //what a node of the body costs to evaluate, besides what its operator
+    //  charges, in ComputeBudget units
+    private static final long NODE_COST = 100;
+
+    //fewer values than this aren't worth a task of their own
+    private static final int MIN_CHUNK = 64;
+
+    private static final ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    final Operator aggregate;
+    final Program body;
+    final int slot;     //where the body finds n among the bound values
+
+    Range(Operator aggregate, Program body, int slot){
+        this.aggregate = aggregate;
+        this.body = body;
+        this.slot = slot;
+    }
+
+    /**
+     *  @return true if op can be taken over a range
+     */
+    static boolean isAggregate(Operator op){
+        switch(op){
+            case SUM:
+            case PRODUCT:
+            case MIN:
+            case MAX:
+            case AVG:
+            case TABLE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    //a chunk has failed, see Chunk.failure for why
+    private static final class Failure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    //what a chunk works out: its values put together, or all of them for table
+    private static final class Partial {
+        BigDecimal value;
+        List<Object> values;
+    }
+
+    /**
+     *  Works out the aggregate over the range whose start, end and optional
+     *  step are the count values of stack from from.
+     *
+     *  @param bound - the values of the ranges this one is inside
+     */
+    Object evaluate(Calculator calc, Object[] bound, Object[] stack, int from, int count)
+            throws CalculatorException, InterruptedException {
+        BigDecimal start = number(calc, stack[from]);
+        BigDecimal end = number(calc, stack[from+1]);
+        BigDecimal step = count > 2 ? number(calc, stack[from+2]) : BigDecimal.ONE;
+        if(step.signum() == 0){
+            throw new CalculatorException(aggregate.symbol + " can't step by 0");
+        }
+
+        BigInteger values = end.subtract(start).divide(step, 0, RoundingMode.FLOOR).toBigInteger().add(BigInteger.ONE);
+        if(values.signum() <= 0){
+            return empty();
+        }
+        if(values.compareTo(BigInteger.valueOf(Integer.MAX_VALUE)) > 0){
+            throw new CalculatorException(aggregate.symbol + " over a range is limited to " + Integer.MAX_VALUE + " values");
+        }
+        int n = values.intValue();
+        if(aggregate == Operator.TABLE && n > MAX_TABLE){
+            throw new CalculatorException("table is limited to " + MAX_TABLE + " values");
+        }
+        ComputeBudget.expect(n * (body.length * NODE_COST));
+
+        AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        Chunk all = new Chunk(calc, bound, start, step, 0, n, chunkSize(n), ComputeBudget.running(), failure);
+        Partial result;
+        try {
+            result = n <= MIN_CHUNK ? all.work() : pool.invoke(all);
+        } catch(Failure f){
+            //the first chunk to fail says why; the others just stopped
+            if(failure.get() instanceof InterruptedException){
+                throw (InterruptedException)failure.get();
+            }
+            throw (CalculatorException)failure.get();
+        }
+
+        if(aggregate == Operator.TABLE){
+            return new Table(result.values.toArray());
+        }
+        if(aggregate == Operator.AVG){
+            return result.value.divide(BigDecimal.valueOf(n), calc.opCon.scale*2, RoundingMode.HALF_UP);
+        }
+        return result.value;
+    }
+
+    //the aggregate of no values at all
+    private Object empty() throws CalculatorException {
+        switch(aggregate){
+            case SUM:
+                return BigDecimal.ZERO;
+            case PRODUCT:
+                return BigDecimal.ONE;
+            case TABLE:
+                return new Table(new Object[0]);
+            default:
+                throw new CalculatorException(aggregate.symbol + " of an empty range");
+        }
+    }
+
+    //enough chunks to keep every thread busy as some finish before others
+    private static int chunkSize(int n){
+        return Math.max(MIN_CHUNK, n / (pool.getParallelism()*8));
+    }
+
+    private BigDecimal number(Calculator calc, Object o) throws CalculatorException, ComputeBudget.Exceeded {
+        if(o instanceof CalcRational){
+            return ((CalcRational)o).toBigDecimal(calc.opCon.scale*2);
+        }
+        if(o instanceof Long){
+            return BigDecimal.valueOf(((Long)o).longValue());
+        }
+        if(o instanceof CalcMachineNumber){
+            return ((CalcMachineNumber)o).getValue();
+        }
+        if(o instanceof BigDecimal){
+            return (BigDecimal)o;
+        }
+        throw new CalculatorException(aggregate.symbol + " over a range only accepts numbers");
+    }
+
+    //n for the i'th value, a Long if it fits, for OperatorControlCenter.exact
+    private static Object value(BigDecimal start, BigDecimal step, long i){
+        BigDecimal n = start.add(step.multiply(BigDecimal.valueOf(i)));
+        if(n.scale() > 0){
+            n = n.stripTrailingZeros();
+        }
+        if(n.signum() == 0 || n.scale() <= 0 && n.precision() - n.scale() <= 18){
+            return Long.valueOf(n.longValueExact());
+        }
+        return n;
+    }
+
+    /*  Values lo to hi of the range, split in two until there are no more
+     *  than chunk of them.
+     */
+    private final class Chunk extends RecursiveTask<Partial> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Calculator calc;  // tasks are never serialized
+        private final transient Object[] outer;
+        private final BigDecimal start, step;
+        private final int lo, hi, chunk;
+        private final transient ComputeBudget budget;
+        private final AtomicReference<Exception> failure;  //shared by every chunk of the range
+
+        Chunk(Calculator calc, Object[] outer, BigDecimal start, BigDecimal step, int lo, int hi,
+              int chunk, ComputeBudget budget, AtomicReference<Exception> failure){
+            this.calc = calc;
+            this.outer = outer;
+            this.start = start;
+            this.step = step;
+            this.lo = lo;
+            this.hi = hi;
+            this.chunk = chunk;
+            this.budget = budget;
+            this.failure = failure;
+        }
+
+        @Override
+        protected Partial compute(){
+            if(hi - lo <= chunk){
+                ComputeBudget previous = ComputeBudget.enter(budget);
+                try {
+                    return work();
+                } finally {
+                    ComputeBudget.leave(previous);
+                }
+            }
+            int mid = lo + (hi - lo)/2;
+            Chunk left = new Chunk(calc, outer, start, step, lo, mid, chunk, budget, failure);
+            Chunk right = new Chunk(calc, outer, start, step, mid, hi, chunk, budget, failure);
+            right.fork();
+            Partial l = left.compute();
+            Partial r = right.join();
+            try {
+                return combine(l, r);
+            } catch(ComputeBudget.Exceeded e){
+                throw fail(e);
+            }
+        }
+
+        //the values in this chunk, one at a time, on this thread
+        Partial work(){
+            Object[] bound = new Object[slot+1];
+            System.arraycopy(outer, 0, bound, 0, slot);
+            long cost = body.length * NODE_COST;
+            Partial p = new Partial();
+            try {
+                for(int i=lo; i<hi; i++){
+                    if(failure.get() != null){
+                        throw new Failure();
+                    }
+                    ComputeBudget.charge(cost);
+                    bound[slot] = value(start, step, i);
+                    add(p, calc.evaluate_program(body, bound));
+                }
+            } catch(CalculatorException | InterruptedException e){
+                throw fail(e);
+            }
+            return p;
+        }
+
+        private Failure fail(Exception e){
+            failure.compareAndSet(null, e);
+            return new Failure();
+        }
+
+        private void add(Partial p, Object o) throws CalculatorException, ComputeBudget.Exceeded {
+            if(aggregate == Operator.TABLE){
+                if(p.values == null){
+                    p.values = new ArrayList<Object>(hi - lo);
+                }
+                p.values.add(o);
+                return;
+            }
+            BigDecimal x = number(calc, o);
+            p.value = p.value == null ? x : reduce(p.value, x);
+        }
+
+        private Partial combine(Partial l, Partial r) throws ComputeBudget.Exceeded {
+            if(aggregate == Operator.TABLE){
+                l.values.addAll(r.values);
+            }else{
+                l.value = reduce(l.value, r.value);
+            }
+            return l;
+        }
+
+        private BigDecimal reduce(BigDecimal a, BigDecimal b) throws ComputeBudget.Exceeded {
+            switch(aggregate){
+                case PRODUCT:
+                    return calc.opCon.multiply(a, b);
+                case MIN:
+                    return a.compareTo(b) <= 0 ? a : b;
+                case MAX:
+                    return a.compareTo(b) >= 0 ? a : b;
+                default:
+                    //sum and avg
+                    ComputeBudget.charge(ComputeBudget.words(a) + ComputeBudget.words(b));
+                    return a.add(b);
+            }
+        }
+    }
+}
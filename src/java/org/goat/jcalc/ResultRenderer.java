@@ -0,0 +1,194 @@
+package org.goat.jcalc;
+
+import java.math.*;
+
+/**
+ *  Describes a number too long to print in full, without printing it.<BR>
+ *  <BR>
+ *  Turning a big number into decimal digits is a lot of work, most of it
+ *  wasted when only a page of the answer is ever shown. Here the number of
+ *  digits comes from the bit length, checked against the leading digits.
+ *  The leading digits come from the top bits alone, times a power of two
+ *  worked out to only as many digits as are wanted. The trailing digits
+ *  are the number mod a small power of ten. Only if the leading digits end
+ *  in a long run of 0s or 9s, where the top bits can't say which way it
+ *  goes, is the number divided down exactly.
+ */
+public final class ResultRenderer {
+
+    //digits worked out beyond the leading ones asked for
+    private static final int GUARD = 12;
+
+    //numbers with fewer bits than this are just printed
+    private static final int SMALL_BITS = 2048;
+
+    private static final double LOG10_2 = Math.log10(2);
+
+    //the first digits of a number, and how many it has
+    private static final class Head {
+        final String digits;
+        final long count;
+
+        Head(String digits, long count){
+            this.digits = digits;
+            this.count = count;
+        }
+    }
+
+    private ResultRenderer(){
+    }
+
+    /**
+     *  @return x as "213237 digits:  33473…00000" if it's a whole number,
+     *          otherwise as "100001 digits, 100000 after the point:
+     *          3.1415…25648", with n digits each end; the first digits are
+     *          in scientific notation if x starts too far after the point
+     *          for them to show
+     */
+    public static String summary(BigDecimal x, int n) throws ComputeBudget.Exceeded {
+        String sign = x.signum() < 0 ? "-" : "";
+        if(x.scale() <= 0){
+            BigInteger whole = x.toBigInteger();
+            Head head = head(whole, n);
+            return head.count + " digits:  " + sign + head.digits + "…" + trailing(whole, n);
+        }
+        BigInteger digits = x.unscaledValue();
+        Head head = head(digits, n);
+        long before = head.count - x.scale();
+        String first;
+        if(before >= n){
+            first = sign + head.digits;
+        }else if(before > 0){
+            first = sign + head.digits.substring(0, (int)before) + "." + head.digits.substring((int)before);
+        }else if(-before < n){
+            String point = sign + "." + "0".repeat((int)-before) + head.digits;
+            first = point.substring(0, sign.length() + 1 + n);
+        }else{
+            first = scientific(x, n);
+        }
+        String last = trailing(digits, n);
+        if(x.scale() < n){
+            last = last.substring(0, n - x.scale()) + "." + last.substring(n - x.scale());
+        }
+        return head.count + " digits, " + x.scale() + " after the point:  " + first + "…" + last;
+    }
+
+    /**
+     *  @return x to sig significant digits, rounded half up, as in
+     *          3.3473205E+213236
+     */
+    public static String scientific(BigDecimal x, int sig) throws ComputeBudget.Exceeded {
+        Head head = head(x.unscaledValue(), sig + 1);
+        BigDecimal approx = new BigDecimal(new BigInteger(head.digits), Math.toIntExact(x.scale() - (head.count - head.digits.length())));
+        approx = approx.round(new MathContext(sig, RoundingMode.HALF_UP)).stripTrailingZeros();
+        return (x.signum() < 0 ? "-" : "") + approx.toString();
+    }
+
+    /**
+     *  @return how many digits |x| has
+     */
+    public static long digits(BigInteger x) throws ComputeBudget.Exceeded {
+        return head(x, 1).count;
+    }
+
+    /**
+     *  @return the last n digits of |x|, with leading zeros
+     */
+    public static String trailing(BigInteger x, int n) throws ComputeBudget.Exceeded {
+        ComputeBudget.divide(ComputeBudget.words(x), ComputeBudget.digitWords(n));
+        BigInteger power = BigInteger.TEN.pow(n);
+        String tail = x.abs().mod(power).toString();
+        if(x.abs().compareTo(power) < 0){
+            return tail;
+        }
+        StringBuilder sb = new StringBuilder(n);
+        for(int i=tail.length(); i<n; i++){
+            sb.append('0');
+        }
+        return sb.append(tail).toString();
+    }
+
+    /**
+     *  @return the first n digits of |x|, or all of them if it has fewer
+     */
+    public static String leading(BigInteger x, int n) throws ComputeBudget.Exceeded {
+        return head(x, n).digits;
+    }
+
+    private static Head head(BigInteger x, int n) throws ComputeBudget.Exceeded {
+        x = x.abs();
+        int bits = x.bitLength();
+        if(bits < SMALL_BITS || bits*LOG10_2 < 2*(n + GUARD)){
+            String all = x.toString();
+            return new Head(all.length() > n ? all.substring(0, n) : all, all.length());
+        }
+
+        //x = top*2^shift + something less than 2^shift, with top having
+        //  n + GUARD digits and then some, so x/10^drop is near
+        //  top*2^shift/10^drop to well within GUARD digits
+        int keep = (int)((n + GUARD)/LOG10_2) + 64;
+        int shift = bits - keep;
+        BigInteger top = x.shiftRight(shift);
+        long count = (long)Math.floor(Math.log10(top.doubleValue()) + shift*LOG10_2) + 1;
+        long drop = count - n - GUARD;
+
+        MathContext mc = new MathContext(n + 2*GUARD);
+        ComputeBudget.multiply(ComputeBudget.digitWords(mc.getPrecision()), ComputeBudget.digitWords(mc.getPrecision()));
+        BigDecimal scaled = BigDecimal.valueOf(2).pow(shift, mc).multiply(new BigDecimal(top), mc);
+        String digits = scaled.movePointLeft(Math.toIntExact(drop)).toBigInteger().toString();
+        //a wrong guess at count is put right by how many digits are left
+        count = drop + digits.length();
+
+        String guard = digits.substring(n);
+        boolean nines = isRun(guard, '9');
+        if(nines || isRun(guard, '0')){
+            //the estimate is within a unit of the last guard digit, so x is
+            //  either side of b*10^k; which side is settled exactly
+            int k = Math.toIntExact(count - n);
+            BigInteger b = new BigInteger(digits.substring(0, n));
+            if(nines){
+                b = b.add(BigInteger.ONE);
+            }
+            if(!atLeast(x, b, k)){
+                b = b.subtract(BigInteger.ONE);
+            }
+            String head = b.toString();
+            if(head.length() > n){
+                //just over a power of ten: 1000...
+                return new Head(head.substring(0, n), count + 1);
+            }
+            if(b.compareTo(BigInteger.TEN.pow(n - 1)) < 0){
+                //just under one: 999...
+                return new Head(BigInteger.TEN.pow(n).subtract(BigInteger.ONE).toString(), count - 1);
+            }
+            return new Head(head, count);
+        }
+        return new Head(digits.substring(0, n), count);
+    }
+
+    /*  x >= b*10^k, which is x/2^k >= b*5^k, as b*5^k is whole
+     */
+    private static boolean atLeast(BigInteger x, BigInteger b, int k) throws ComputeBudget.Exceeded {
+        long half = (long)(k*Math.log(5)/Math.log(2)) / 128 + 1;
+        ComputeBudget.charge(2*ComputeBudget.multiplyCost(half, half));
+        BigInteger bound = b.multiply(BigInteger.valueOf(5).pow(k));
+        return x.shiftRight(k).compareTo(bound) >= 0;
+    }
+
+    /**
+     *  @return about how many digits the number has before any point, and
+     *          after it, near enough to decide whether to summarise it
+     */
+    public static long size(BigDecimal x){
+        return (long)(x.unscaledValue().bitLength()*LOG10_2) + 1;
+    }
+
+    private static boolean isRun(String s, char c){
+        for(int i=0; i<s.length(); i++){
+            if(s.charAt(i) != c){
+                return false;
+            }
+        }
+        return true;
+    }
+}
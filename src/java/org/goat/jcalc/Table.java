@@ -0,0 +1,26 @@
+package org.goat.jcalc;
+
+/**
+ *  The answer to table(...), a list of values, as {1, 4, 9, 16}. The
+ *  Calculator renders each value as it would an answer of its own; other
+ *  operators don't take tables.
+ */
+final class Table {
+
+    final Object[] values;
+
+    Table(Object[] values){
+        this.values = values;
+    }
+
+    public String toString(){
+        StringBuilder sb = new StringBuilder("{");
+        for(int i=0; i<values.length; i++){
+            if(i > 0){
+                sb.append(", ");
+            }
+            sb.append(values[i]);
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,377 @@
+package org.goat.jcalc;
+
+import java.math.*;
+
+/**
+ *  ln, exp and the trig functions, to however many places the caller asks
+ *  for.<BR>
+ *  <BR>
+ *  Everything is static and takes its precision with each call, so any
+ *  number of calculators, at any scales, can use it at once. ln, sin, cos
+ *  and tan take the number of places after the point; exp takes a
+ *  MathContext, as its answer may be any size.<BR>
+ *  <BR>
+ *  Up to AGM_DIGITS places ln and exp are series: ln(x) is split into
+ *  k*ln(2) + ln(m) with m near 1, and exp(x) into k*ln(2) + r with r small.
+ *  Beyond that ln is the arithmetic-geometric mean, which needs only a
+ *  couple of dozen square roots even for thousands of digits, and exp is
+ *  Newton's method on ln, doubling the digits it has each step; both check
+ *  the whole cost against the ComputeBudget before they start. ln only
+ *  ever works on as many of x's leading digits as the places need, so
+ *  ln(10^999999) costs little more than ln(10).<BR>
+ *  <BR>
+ *  sin and cos take out multiples of pi/2, using pi from Constants to as
+ *  many places as the angle has digits, so sin(10^20) costs little more
+ *  than sin(1). What's left is divided by a power of 3 for the Taylor
+ *  series, which is summed in binary fixed point, and put back by the
+ *  triple angle formula, and cos on it is sqrt(1-sin^2).
+ */
+final class Transcendental {
+
+    //digits worked out beyond those kept
+    private static final int GUARD = 10;
+
+    //above this many places ln uses the AGM and exp Newton's method
+    static final int AGM_DIGITS = 2500;
+
+    //angles with more digits than this before the point are refused
+    static final int MAX_ANGLE_DIGITS = 10000;
+
+    //sin works on the angle over 3^MIN_TRIPLINGS at least
+    private static final int MIN_TRIPLINGS = 5;
+
+    private static final BigDecimal ONE = BigDecimal.ONE;
+    private static final BigDecimal TWO = BigDecimal.valueOf(2);
+    private static final double LOG2_10 = Math.log(10) / Math.log(2);
+
+    private Transcendental(){
+    }
+
+
+    /**
+     *  Natural log of a positive number, to scl places.
+     */
+    static BigDecimal ln(BigDecimal x, int scl) throws InterruptedException {
+        if(x.compareTo(ONE)==0){
+            return BigDecimal.ZERO.setScale(scl);
+        }
+        //only x's leading bits count, so a long or far off x is cut to them
+        //  and what's cut off put back as multiples of ln(2) and ln(10)
+        BigInteger n = x.unscaledValue();
+        int keep = (int)((scl + GUARD) * LOG2_10) + 64;
+        int drop = Math.max(0, n.bitLength() - keep);
+        if(drop > 0 || Math.abs((long)x.scale()) > keep){
+            int wscl = scl + GUARD + String.valueOf((long)drop + Math.abs((long)x.scale())).length();
+            BigDecimal result = ln(new BigDecimal(n.shiftRight(drop)), wscl);
+            result = result.add(Constants.ln2(wscl).multiply(BigDecimal.valueOf(drop)));
+            result = result.subtract(ln(BigDecimal.TEN, wscl).multiply(BigDecimal.valueOf(x.scale())));
+            return result.setScale(scl, RoundingMode.HALF_UP);
+        }
+        if(scl > AGM_DIGITS){
+            return agm(x, scl);
+        }
+        return series(x, scl);
+    }
+
+    /*  x is split into m*2^k with m between 1/sqrt(2) and sqrt(2), and
+     *  ln(m) = 2*atanh((m-1)/(m+1)), whose series gains over a digit and a
+     *  half a term.
+     */
+    private static BigDecimal series(BigDecimal x, int scl) throws InterruptedException {
+        long k = Math.round(jcalc_math.log10(x) * LOG2_10);
+        int wscl = scl + GUARD + String.valueOf(Math.abs(k)).length();
+
+        BigDecimal m;
+        if(k>=0){
+            m = x.divide(new BigDecimal(BigInteger.ONE.shiftLeft((int)k)), wscl, RoundingMode.HALF_EVEN);
+        }else{
+            m = x.multiply(new BigDecimal(BigInteger.ONE.shiftLeft((int)-k)));
+        }
+        BigDecimal z = m.subtract(ONE).divide(m.add(ONE), wscl, RoundingMode.HALF_EVEN);
+        BigDecimal result = atanh(z, wscl).multiply(TWO);
+        if(k!=0){
+            result = result.add(Constants.ln2(wscl).multiply(BigDecimal.valueOf(k)));
+        }
+        return result.setScale(scl, RoundingMode.HALF_UP);
+    }
+
+    /*  ln(s) = pi/(2 AGM(1, 4/s)) to about as many digits as s has, so x is
+     *  scaled by 2^m up to s with half again as many digits as are wanted,
+     *  and m*ln(2) taken back off.
+     */
+    private static BigDecimal agm(BigDecimal x, int scl) throws InterruptedException {
+        int digits = scl + GUARD;
+        long m = (long)Math.ceil(digits * LOG2_10 / 2) + 2 - (long)Math.floor(jcalc_math.log10(x) * LOG2_10);
+        int wscl = digits + String.valueOf(Math.abs(m)).length();
+        MathContext mc = new MathContext(wscl + GUARD);
+
+        BigDecimal s;
+        if(m>=0){
+            s = x.multiply(new BigDecimal(BigInteger.ONE.shiftLeft((int)m)));
+        }else{
+            s = x.divide(new BigDecimal(BigInteger.ONE.shiftLeft((int)-m)), mc);
+        }
+
+        ComputeBudget.expect(agmCost(mc.getPrecision()) + Constants.cost(wscl));
+        BigDecimal a = ONE;
+        BigDecimal b = BigDecimal.valueOf(4).divide(s, mc);
+        BigDecimal eps = ONE.movePointLeft(wscl);
+        long words = ComputeBudget.digitWords(mc.getPrecision());
+        while(a.subtract(b).abs().compareTo(eps.multiply(a))>0){
+            if(Thread.interrupted())
+                throw new InterruptedException();
+            ComputeBudget.multiply(words, words);
+            BigDecimal mean = a.add(b).divide(TWO, mc);
+            b = jcalc_math.sqrt(a.multiply(b, mc), mc);
+            a = mean;
+        }
+
+        BigDecimal lnS = Constants.pi(wscl).divide(a.multiply(TWO), mc);
+        BigDecimal result = lnS.subtract(Constants.ln2(wscl).multiply(BigDecimal.valueOf(m)));
+        return result.setScale(scl, RoundingMode.HALF_UP);
+    }
+
+    /*  what the AGM costs to this many digits: a multiplication and a square
+     *  root each step, and it takes about log2 of the bits in steps
+     */
+    private static long agmCost(int digits){
+        long words = ComputeBudget.digitWords(digits);
+        long steps = 64 - Long.numberOfLeadingZeros((long)(digits * LOG2_10));
+        return steps * (ComputeBudget.multiplyCost(words, words) + 2*ComputeBudget.divideCost(words, words));
+    }
+
+    /**
+     *  atanh(z) = z + z^3/3 + z^5/5 + ..., to scl places, for |z| well
+     *  under 1.
+     */
+    static BigDecimal atanh(BigDecimal z, int scl) throws InterruptedException {
+        BigDecimal z2 = z.multiply(z).setScale(scl, RoundingMode.HALF_EVEN);
+        BigDecimal power = z.setScale(scl, RoundingMode.HALF_EVEN);
+        BigDecimal sum = power;
+        long words = ComputeBudget.digitWords(scl);
+        for(long n=3; ; n+=2){
+            if(Thread.interrupted())
+                throw new InterruptedException();
+            //the product has twice the places, and rounding it back is a
+            //  division by 10^scl
+            long product = ComputeBudget.words(power) + ComputeBudget.words(z2);
+            ComputeBudget.multiply(ComputeBudget.words(power), ComputeBudget.words(z2));
+            ComputeBudget.divide(product, words);
+            ComputeBudget.divide(words, 1);
+            power = power.multiply(z2).setScale(scl, RoundingMode.HALF_EVEN);
+            if(power.signum()==0){
+                return sum;
+            }
+            sum = sum.add(power.divide(BigDecimal.valueOf(n), scl, RoundingMode.HALF_EVEN));
+        }
+    }
+
+
+    /**
+     *  e^x, to mc's number of significant digits.
+     */
+    static BigDecimal exp(BigDecimal x, MathContext mc) throws InterruptedException {
+        if(x.signum()==0){
+            return ONE;
+        }
+        if(mc.getPrecision() > AGM_DIGITS){
+            return newton(x, mc);
+        }
+        return taylor(x, mc);
+    }
+
+    /*  x is split into k*ln(2) + r, with r under ln(2)/2. e^r is the Taylor
+     *  series of r/256, squared eight times, and e^x is that times 2^k.
+     */
+    private static BigDecimal taylor(BigDecimal x, MathContext mc) throws InterruptedException {
+        long k = Math.round(x.doubleValue() / Math.log(2));
+        int digitsK = String.valueOf(Math.abs(k)).length();
+        MathContext wc = new MathContext(mc.getPrecision() + GUARD + digitsK);
+        int wscl = wc.getPrecision();
+
+        BigDecimal r = x.subtract(Constants.ln2(wscl + digitsK).multiply(BigDecimal.valueOf(k)));
+        r = r.divide(BigDecimal.valueOf(256), wc);
+
+        BigDecimal eps = ONE.movePointLeft(wscl);
+        BigDecimal sum = ONE;
+        BigDecimal term = ONE;
+        long words = ComputeBudget.digitWords(wscl);
+        for(int i=1; ; i++){
+            if(Thread.interrupted())
+                throw new InterruptedException();
+            //rounding the product back to wc is a division by 10^wscl
+            ComputeBudget.multiply(ComputeBudget.words(term), ComputeBudget.words(r));
+            ComputeBudget.divide(ComputeBudget.words(term) + ComputeBudget.words(r), words);
+            ComputeBudget.divide(words, 1);
+            term = term.multiply(r, wc).divide(BigDecimal.valueOf(i), wc);
+            if(term.abs().compareTo(eps)<0){
+                break;
+            }
+            sum = sum.add(term, wc);
+        }
+        for(int i=0; i<8; i++){
+            ComputeBudget.multiply(words, words);
+            ComputeBudget.divide(2*words, words);
+            sum = sum.multiply(sum, wc);
+        }
+
+        BigDecimal twoK = new BigDecimal(BigInteger.ONE.shiftLeft((int)Math.abs(k)));
+        if(k>=0){
+            sum = sum.multiply(twoK);
+        }else{
+            sum = sum.divide(twoK, wc);
+        }
+        return sum.round(mc);
+    }
+
+    /*  y = e^x to half the digits, then y(1 + x - ln(y)), which is right to
+     *  twice as many as y was
+     */
+    private static BigDecimal newton(BigDecimal x, MathContext mc) throws InterruptedException {
+        MathContext wc = new MathContext(mc.getPrecision() + GUARD);
+        //the last ln is most of the work, so see it can be paid for first
+        ComputeBudget.expect(agmCost(wc.getPrecision()) + Constants.cost(wc.getPrecision()));
+        BigDecimal y = exp(x, new MathContext(wc.getPrecision()/2 + 1));
+        BigDecimal correction = ONE.add(x).subtract(ln(y, wc.getPrecision()));
+        long words = ComputeBudget.digitWords(wc.getPrecision());
+        ComputeBudget.multiply(words, words);
+        return y.multiply(correction, wc).round(mc);
+    }
+
+
+    /**
+     *  @return sin(x), to scl places
+     */
+    static BigDecimal sin(BigDecimal x, int scl) throws CalculatorException, InterruptedException {
+        return sinCos(x, scl, 0).setScale(scl, RoundingMode.HALF_UP);
+    }
+
+    /**
+     *  @return cos(x), to scl places
+     */
+    static BigDecimal cos(BigDecimal x, int scl) throws CalculatorException, InterruptedException {
+        return sinCos(x, scl, 1).setScale(scl, RoundingMode.HALF_UP);
+    }
+
+    /**
+     *  @return tan(x), to scl places
+     */
+    static BigDecimal tan(BigDecimal x, int scl) throws CalculatorException, InterruptedException {
+        //tan is big where cos is small, so cos needs places for the digits
+        //  tan has before the point
+        BigDecimal cos = sinCos(x, scl, 1);
+        int size = Math.max(0, -(cos.precision() - cos.scale()));
+        if(size > 0){
+            cos = sinCos(x, scl + 2*size, 1);
+        }
+        if(cos.signum()==0){
+            throw new CalculatorException("illegal divide by zero");
+        }
+        return sinCos(x, scl + 2*size, 0).divide(cos, scl, RoundingMode.HALF_UP);
+    }
+
+    /*  sin(x + quarter*pi/2), to scl + GUARD places
+     */
+    private static BigDecimal sinCos(BigDecimal x, int scl, int quarter) throws CalculatorException, InterruptedException {
+        int size = Math.max(0, x.precision() - x.scale());
+        if(size > MAX_ANGLE_DIGITS){
+            throw new CalculatorException("that angle is too big to reduce");
+        }
+        int wscl = scl + GUARD;
+
+        //pi and the series are most of the work, so see they can be paid
+        //  for first; r is no bigger than x, nor than pi/4
+        double angle = Math.min(Math.abs(x.doubleValue()), Math.PI/4);
+        ComputeBudget.expect(Constants.cost(wscl + size + 1) + sineCost(angle, wscl));
+
+        //x = q*pi/2 + r, with r between -pi/4 and pi/4
+        long words = ComputeBudget.digitWords(wscl + size);
+        ComputeBudget.divide(words, words);
+        ComputeBudget.multiply(words, words);
+        BigDecimal halfPi = Constants.pi(wscl + size + 1).divide(TWO);
+        BigInteger q = x.divide(halfPi, 0, RoundingMode.HALF_EVEN).toBigInteger();
+        BigDecimal r = x.subtract(halfPi.multiply(new BigDecimal(q))).setScale(wscl, RoundingMode.HALF_EVEN);
+
+        switch(q.add(BigInteger.valueOf(quarter)).mod(BigInteger.valueOf(4)).intValue()){
+            case 0:  return sinReduced(r, wscl);
+            case 1:  return cosReduced(r, wscl);
+            case 2:  return sinReduced(r, wscl).negate();
+            default: return cosReduced(r, wscl).negate();
+        }
+    }
+
+    //sin(r) for |r| <= pi/4, summed in binary fixed point, so that a term
+    //  is a multiplication and a shift rather than a division by 10^scl
+    private static BigDecimal sinReduced(BigDecimal r, int wscl) throws InterruptedException {
+        //each tripling can triple the error, so a few more places, and a
+        //  word of bits for the truncation in every term
+        int triplings = triplings(wscl);
+        int scl = wscl + triplings/2 + 1;
+        int bits = (int)(scl * LOG2_10) + 64;
+        long words = ComputeBudget.digitWords(scl);
+        ComputeBudget.divide(words, words);
+        ComputeBudget.multiply(words, words);
+        BigInteger y = r.multiply(new BigDecimal(BigInteger.ONE.shiftLeft(bits))).setScale(0, RoundingMode.HALF_EVEN)
+                        .toBigInteger().divide(BigInteger.valueOf(3).pow(triplings));
+        BigInteger y2 = y.multiply(y).shiftRight(bits);
+
+        BigInteger sum = y;
+        BigInteger term = y;
+        for(long n=2; term.signum()!=0; n+=2){
+            if(Thread.interrupted())
+                throw new InterruptedException();
+            //the term is under 1, so y^2 is only needed to as many bits as
+            //  the term has, and a word more
+            int cut = Math.max(0, bits - term.bitLength() - 64);
+            BigInteger y2cut = y2.shiftRight(cut);
+            ComputeBudget.multiply(ComputeBudget.words(term), ComputeBudget.words(y2cut));
+            ComputeBudget.divide(ComputeBudget.words(term), 1);
+            term = term.multiply(y2cut).shiftRight(bits - cut).divide(BigInteger.valueOf(n*(n+1))).negate();
+            sum = sum.add(term);
+        }
+
+        //sin(3y) = 3 sin(y) - 4 sin(y)^3
+        for(int i=0; i<triplings; i++){
+            if(Thread.interrupted())
+                throw new InterruptedException();
+            ComputeBudget.multiply(words, words);
+            ComputeBudget.multiply(words, words);
+            BigInteger s3 = sum.multiply(sum).shiftRight(bits).multiply(sum).shiftRight(bits);
+            sum = sum.multiply(BigInteger.valueOf(3)).subtract(s3.shiftLeft(2));
+        }
+        ComputeBudget.divide(words, words);
+        return new BigDecimal(sum).divide(new BigDecimal(BigInteger.ONE.shiftLeft(bits)), wscl, RoundingMode.HALF_EVEN);
+    }
+
+    //how many times sin's angle is divided by 3: more make the series
+    //  shorter, at two multiplications each, so it's about the square root
+    //  of the places
+    private static int triplings(int scl){
+        return Math.max(MIN_TRIPLINGS, (int)Math.sqrt(scl)/3);
+    }
+
+    /*  about what sinReduced costs for sin(r) to scl places, |r| at most
+     *  pi/4: term n is the last times y^2/(n(n+1)), y = r/3^triplings, and
+     *  is multiplied by y^2 at as many places as the term still has
+     */
+    private static long sineCost(double r, int scl){
+        int triplings = triplings(scl);
+        long words = ComputeBudget.digitWords(scl);
+        double shrink = -2*(Math.log10(Math.abs(r)) - triplings*Math.log10(3));
+        double digits = 0;
+        long cost = 2*triplings*ComputeBudget.multiplyCost(words, words);
+        for(long n=2; digits < scl; n+=2){
+            digits += shrink + Math.log10((double)n*(n+1));
+            long left = ComputeBudget.digitWords((long)Math.max(0, scl - digits));
+            cost += ComputeBudget.multiplyCost(left, left);
+        }
+        return cost;
+    }
+
+    //cos(r) for |r| <= pi/4, where it's at least 0.7
+    private static BigDecimal cosReduced(BigDecimal r, int wscl) throws InterruptedException {
+        BigDecimal sin = sinReduced(r, wscl + 1);
+        BigDecimal cos = jcalc_math.sqrt(ONE.subtract(sin.multiply(sin)), wscl + 2);
+        return cos.setScale(wscl, RoundingMode.HALF_EVEN);
+    }
+}
@@ -47,136 +47,307 @@ public class jcalc_math {
     }    
     
     public static BigDecimal factorial(BigDecimal bd) throws InterruptedException {
-        BigInteger bi = bd.toBigInteger();
+        return new BigDecimal(Factorial.exact(bd.intValue()));
+    }
+    
+    public static BigDecimal pow(BigDecimal left, BigDecimal right) throws InterruptedException {
+        if(right.intValue()<2){
+            return left;
+        }
+        return pow(left, right.intValue(), MathContext.UNLIMITED);
+    }    
+    
+    
+    //no answer to ^ may have more digits than this
+    static final int MAX_DIGITS = 1000000;
+    
+    //whole powers with no more digits than this are worked out exactly
+    private static final int EXACT_DIGITS = 2000;
+    
+    //extra digits worked with, so the ones kept are right
+    private static final int GUARD = 10;
+
+    private static final double LOG10_2 = Math.log10(2);
+    
+    /**
+     *  base^exponent, for ^ and pow.<BR>
+     *  <BR>
+     *  A whole exponent is done by repeated squaring: exactly, if the base is
+     *  a whole number or the answer isn't too long, otherwise to enough
+     *  digits for scale places. Negative
+     *  ones are done as the reciprocal of the base, to scale places, raised
+     *  to the positive power. Any other exponent is exp(exponent*ln(base)),
+     *  rounded to scale places.
+     */
+    public static BigDecimal power(BigDecimal base, BigDecimal exponent, int scale) throws CalculatorException, InterruptedException {
+        if(exponent.signum()==0 || exponent.stripTrailingZeros().scale()<=0){
+            return power(base, exponent.toBigInteger(), scale);
+        }
+        
+        if(base.signum()<0){
+            throw new CalculatorException("negative numbers can't be raised to non-integer powers");
+        }
+        if(base.signum()==0){
+            if(exponent.signum()<0){
+                throw new CalculatorException("illegal divide by zero");
+            }
+            return BigDecimal.ZERO;
+        }
+        
+        double digits = exponent.doubleValue() * log10(base);
+        if(digits > MAX_DIGITS){
+            throw new CalculatorException("the answer would have more than " + MAX_DIGITS + " digits");
+        }
+        if(digits < -(scale + GUARD)){
+            return BigDecimal.ZERO;
+        }
         
-        if(bi.compareTo(BigInteger.ZERO)==0){
+        //the error in ln(base) is multiplied by exponent*ln(base), which
+        //  is about 2.3 times digits
+        int size = Math.max(0, (int)digits) + 1;
+        int places = scale + GUARD + size + (int)Math.log10(2.31*Math.abs(digits) + 1) + 1;
+        BigDecimal y = exponent.multiply(Transcendental.ln(base, places));
+        return Transcendental.exp(y, new MathContext(size + scale + GUARD)).setScale(scale, RoundingMode.HALF_UP);
+    }
+    
+    private static BigDecimal power(BigDecimal base, BigInteger n, int scale) throws CalculatorException, InterruptedException {
+        if(n.signum()==0){
             return new BigDecimal("1");
         }
-
-        BigInteger i = bi.subtract(BigInteger.ONE);
-        BigInteger sum = bi;
-        while(i.compareTo(BigInteger.ONE)>0){
-            if(Thread.currentThread().isInterrupted()) {
+        if(n.signum()<0){
+            if(base.signum()==0){
+                throw new CalculatorException("illegal divide by zero");
+            }
+            base = BigDecimal.valueOf(1).divide(base, scale, RoundingMode.HALF_UP);
+            n = n.negate();
+        }
+        if(n.equals(BigInteger.ONE)){
+            return base;
+        }
+        
+        if(base.signum()==0 || base.abs().compareTo(ONE)==0){
+            //never grows, however big n is
+            BigDecimal unit = n.testBit(0) ? base : base.abs();
+            return unit.signum()==0 ? unit : unit.setScale(0, RoundingMode.UNNECESSARY);
+        }
+        
+        double digits = n.doubleValue() * log10(base);
+        if(digits > MAX_DIGITS){
+            throw new CalculatorException("the answer would have more than " + MAX_DIGITS + " digits");
+        }
+        if(digits < -(scale + GUARD)){
+            return BigDecimal.ZERO;
+        }
+        
+        int k = n.intValue();
+        BigDecimal result;
+        if(base.scale()<=0){
+            //a whole number, whose digits BigInteger can raise in one go;
+            //  the last squaring, of half the answer, is most of the work
+            long half = ComputeBudget.digitWords((long)digits/2);
+            ComputeBudget.charge(2*ComputeBudget.multiplyCost(half, half));
+            return new BigDecimal(base.unscaledValue().pow(k), base.scale()*k);
+        }else if((long)k * base.precision() <= EXACT_DIGITS){
+            result = pow(base, k, MathContext.UNLIMITED);
+        }else{
+            result = pow(base, k, new MathContext(Math.max(0, (int)digits) + 1 + scale + GUARD));
+        }
+        return fix(result, scale);
+    }
+    
+    //x^n for n of at least 1, by repeated squaring
+    private static BigDecimal pow(BigDecimal x, int n, MathContext mc) throws InterruptedException {
+        BigDecimal result = null;
+        while(true){
+            if(Thread.interrupted())
                 throw new InterruptedException();
+            if((n & 1) == 1){
+                if(result != null){
+                    ComputeBudget.multiply(ComputeBudget.words(result), ComputeBudget.words(x));
+                }
+                result = result==null ? x : result.multiply(x, mc);
             }
-            sum = sum.multiply(i);
-            i=i.subtract(BigInteger.ONE);
+            n >>>= 1;
+            if(n==0){
+                return result;
+            }
+            ComputeBudget.multiply(ComputeBudget.words(x), ComputeBudget.words(x));
+            x = x.multiply(x, mc);
         }
-        return new BigDecimal(sum);
     }
     
-    public static BigDecimal pow(BigDecimal left, BigDecimal right) throws InterruptedException {
-        BigDecimal orig = new BigDecimal(left.toString());
-        for(int i=1; i<right.intValue(); i++){
-            left = left.multiply(orig);
+    /*  Cleans up a power that went past scale places: if the digits either
+     *  side of the last place are a long run of 0s or 9s, it's cut off (and
+     *  rounded up, for 9s) there. ^ has always done this. A power that's
+     *  all past the last place, such as .1^40, is left as it is.
+     */
+    private static BigDecimal fix(BigDecimal last, int scale) throws InterruptedException {
+        if(last.scale()<=scale){
+            return last;
         }
-        return left;
-    }    
+        //the digits up to the one after the last place
+        BigInteger digits = places(last, scale+1);
+        if(digits.signum()==0){
+            return last;
+        }
+        int run = tail(digits, Math.max(1, scale>>2));
+        if(run<0){
+            return last;
+        }
+        digits = digits.divide(BigInteger.TEN);
+        if(run==9){
+            digits = digits.add(BigInteger.ONE);
+        }
+        return new BigDecimal(last.signum()<0 ? digits.negate() : digits, scale);
+    }
+    
+    
+    /*  log10 of a positive number, near enough to size an answer by. It's
+     *  read off the top 64 bits, as precision() and doubleValue() both cost
+     *  a good deal on a number with a million digits.
+     */
+    static double log10(BigDecimal x){
+        BigInteger n = x.unscaledValue().abs();
+        int drop = Math.max(0, n.bitLength() - 64);
+        return Math.log10(n.shiftRight(drop).doubleValue()) + drop*LOG10_2 - x.scale();
+    }
     
     /**
      *  Attempts to correct rounding errors during arithmetic. Trys to convert numbers
-     *  like .500000000001 to .5 or .499999999999999 to .5
-     *
-     *
+     *  like .500000000001 to .5 or .499999999999999 to .5<BR>
+     *  <BR>
+     *  bd is cut to scl places. If the scl/2 places before the last are all
+     *  0s it's cut to one place fewer, and if they're all 9s it's rounded up
+     *  at that place, away from zero. This is worked out on bd's unscaled
+     *  digits, so it costs a division or two rather than printing bd.
      */    
     public static BigDecimal dirtyRound(BigDecimal bd, int scl) throws InterruptedException {
-        //System.out.println(bd.scale() +"="+ scl);
-        
         if(scl>=bd.scale())
             return bd;
         
-        String num = bd.toString();
-        if(num.indexOf('.')==-1){
-            return bd;
+        if(Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException();
         }
-        
-        
-        int dot = num.indexOf('.');
-        int last_spot = dot+scl+1;
-        int test_length = scl >> 1; 
-        
-        
-        num = num.substring(0,last_spot);
 
-        //System.out.println("\t"+bd);
-        //System.out.println("\t"+num);
+        BigInteger digits = places(bd, scl);
+        BigInteger[] qr = digits.divideAndRemainder(BigInteger.TEN);
         
-        NINE: while(num.charAt(last_spot-2)=='9'){
-            //System.out.println("might be 9");
-            
-            for(int i=0; i<test_length; i++){
-                if(num.charAt(last_spot-2-i)!='9'){
-                    break NINE;
-                }
-            }
-            BigDecimal new_bd = new BigDecimal(num.substring(0, num.length()-1));
-            
-            //if(false){
-            //    System.out.println("\twas a nine that needed rounded");
-            //    System.out.println("\t"+num);
-            //    System.out.println("\t"+new_bd);
-            //    System.out.println("\t"+bd);
-            //}
-            
-            BigDecimal increment = ONE.movePointLeft(scl-1);
-
-            if(Thread.currentThread().isInterrupted()) {
-                throw new InterruptedException();
-            }
-            //System.out.println("\t"+increment);
-            return new_bd.add(increment);
+        int run = tail(qr[0], Math.max(1, scl >> 1));
+        if(run==9){
+            digits = qr[0].add(BigInteger.ONE);
+            scl--;
+        }else if(run==0){
+            digits = qr[0];
+            scl--;
         }
         
-        ZERO: while(num.charAt(last_spot-2)=='0'){
-            if(Thread.currentThread().isInterrupted()) {
-                throw new InterruptedException();
-            }
-            for(int i=0; i<test_length; i++){
-                if(num.charAt(last_spot-2-i)!='0'){
-                    break ZERO;
-                }
-            }
-            BigDecimal new_bd = new BigDecimal(num.substring(0, num.length()-1));
-            //System.out.println("\t"+num);
-            //System.out.println("\t"+new_bd);
-            return new_bd;
+        return new BigDecimal(bd.signum()<0 ? digits.negate() : digits, scl);
+    }
+    
+    //10^i, for the scales rounding is done at
+    private static final BigInteger[] TENS = new BigInteger[256];
+    static {
+        TENS[0] = BigInteger.ONE;
+        for(int i=1; i<TENS.length; i++){
+            TENS[i] = TENS[i-1].multiply(BigInteger.TEN);
         }
-        //System.out.println(num);
-
-        
-        return new BigDecimal(num);
     }
     
-    static BigDecimal sqrt(BigDecimal bd, int scale) throws InterruptedException {
-        scale *= 2;
-        int safe_scale = scale + 5;
-        
-        BigDecimal prev = new BigDecimal(bd.toString());
-        BigDecimal two = new BigDecimal("2");
-        
-        BigDecimal curr = new BigDecimal(bd.toString());
-        curr = curr.divide(two,safe_scale,BigDecimal.ROUND_HALF_UP);
-        
-        
-        while(prev.compareTo(curr)!=0){
-            if(Thread.currentThread().isInterrupted()) {
-                throw new InterruptedException();
-            }
-            prev = curr;
-            
-            BigDecimal top = curr.multiply(curr).subtract(bd);
-            BigDecimal bottom = two.multiply(curr);
-            BigDecimal result = top.divide(bottom,safe_scale,BigDecimal.ROUND_HALF_UP);
-            //BigDecimal result = top.divide(bottom,safe_scale,BigDecimal.ROUND_HALF_EVEN);
-            
-            curr = curr.subtract(result);
+    private static BigInteger ten(int n){
+        return n < TENS.length ? TENS[n] : BigInteger.TEN.pow(n);
+    }
+    
+    /*  |x| cut off at places places, as a whole number of 10^-places
+     */
+    private static BigInteger places(BigDecimal x, int places){
+        BigInteger digits = x.unscaledValue().abs();
+        int drop = x.scale() - places;
+        return drop > 0 ? digits.divide(ten(drop)) : digits.multiply(ten(-drop));
+    }
+    
+    /*  0 if the last n digits of x are all 0s, 9 if they're all 9s,
+     *  otherwise -1. That's x, or x+1, a multiple of 10^n, so of 2^n, which
+     *  the low bits say at once, before dividing by 5^n to be sure.
+     */
+    private static int tail(BigInteger x, int n){
+        if(x.signum()==0 || x.getLowestSetBit()>=n && multipleOfFive(x, n)){
+            return 0;
         }
-        
-        //System.out.println(curr);
-        //System.out.println(curr.setScale(scale, BigDecimal.ROUND_HALF_DOWN));
-        return curr.setScale(scale, BigDecimal.ROUND_HALF_DOWN);
-        //return curr.setScale(scale, BigDecimal.ROUND_HALF_EVEN);
-    }    
+        BigInteger up = x.add(BigInteger.ONE);
+        return up.getLowestSetBit()>=n && multipleOfFive(up, n) ? 9 : -1;
+    }
+    
+    private static boolean multipleOfFive(BigInteger x, int n){
+        return x.mod(BigInteger.valueOf(5).pow(n)).signum()==0;
+    }
+    
+    /**
+     *  The square root of x, which mustn't be negative, to places places,
+     *  rounded half up. This is the one square root: sqrt(), pi and the
+     *  log and trig functions all use it.<BR>
+     *  <BR>
+     *  x is made a whole number with twice the places and its whole square
+     *  root taken, see isqrt; the remainder says which way to round.
+     */
+    static BigDecimal sqrt(BigDecimal x, int places) throws InterruptedException {
+        int shift = 2*places - x.scale();
+        BigInteger n = shift >= 0 ? x.unscaledValue().multiply(BigInteger.TEN.pow(shift))
+                                  : x.unscaledValue().divide(BigInteger.TEN.pow(-shift));
+        ComputeBudget.sqrt(ComputeBudget.words(n));
+        BigInteger root = isqrt(n);
+        //past halfway if n > (root + 1/2)^2, that is n - root^2 > root
+        if(n.subtract(root.multiply(root)).compareTo(root) > 0){
+            root = root.add(BigInteger.ONE);
+        }
+        return new BigDecimal(root, places);
+    }
+    
+    /**
+     *  The square root of x to mc's precision, for when the size of the
+     *  answer isn't known.
+     */
+    static BigDecimal sqrt(BigDecimal x, MathContext mc) throws InterruptedException {
+        if(x.signum() == 0){
+            return BigDecimal.ZERO;
+        }
+        //the root has about half as many digits before the point as x
+        int whole = (x.precision() - x.scale() + 1) >> 1;
+        return sqrt(x, mc.getPrecision() + 1 - whole).round(mc);
+    }
+    
+    /*  The whole square root of n, rounded down.<BR>
+     *  <BR>
+     *  A double gives the first 50 bits or so. After that the root of n's
+     *  top half, shifted up, is right to about a quarter of n's bits, and a
+     *  single step of Newton's method, r = (r + n/r)/2, doubles that. So a
+     *  root costs about two divisions of its own size, where Newton's method
+     *  from a guess costs one every step.
+     */
+    private static BigInteger isqrt(BigInteger n) throws InterruptedException {
+        if(Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException();
+        }
+        int bits = n.bitLength();
+        BigInteger root;
+        if(bits < 100){
+            root = BigInteger.valueOf((long)Math.sqrt(n.doubleValue()));
+        }else{
+            int quarter = bits/4;
+            root = isqrt(n.shiftRight(2*quarter)).shiftLeft(quarter);
+            root = root.add(n.divide(root)).shiftRight(1);
+        }
+        //now within a few of the answer
+        BigInteger rest = n.subtract(root.multiply(root));
+        while(rest.signum() < 0){
+            root = root.subtract(BigInteger.ONE);
+            rest = rest.add(root.shiftLeft(1)).add(BigInteger.ONE);
+        }
+        while(rest.compareTo(root.shiftLeft(1)) > 0){
+            rest = rest.subtract(root.shiftLeft(1)).subtract(BigInteger.ONE);
+            root = root.add(BigInteger.ONE);
+        }
+        return root;
+    }
     
     public int setScale(int scl) throws InterruptedException {
         if(scl<16)
@@ -0,0 +1,223 @@
+package org.goat.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Dictionary words indexed by their letters, for the Countdown letters
+ * round.
+ * <p/>
+ * Each word's signature is its letters in alphabetical order, packed into a
+ * long as base 27 digits, so anagrams share a signature and words of up to
+ * {@link #MAX_LENGTH} letters fit.  The words are kept sorted by signature
+ * in flat arrays, with an open-addressing table from signature to the first
+ * word that has it.
+ * <p/>
+ * Checking a word is one table lookup.  Finding the longest words in a
+ * draw looks up each distinct sub-multiset of the draw, largest first: at
+ * most 511 lookups for nine letters, however big the dictionary.
+ * <p/>
+ * Read-only once built, so it can be shared between threads.
+ */
+public class AnagramIndex {
+    public static final int MAX_LENGTH = 13;    // 27^13 still fits a long
+
+    private final int n;            // Number of words
+    private final long wkeys[];     // Signature of each word, ascending
+    private final byte letters[];   // The words' letters, end to end
+    private final int offset[];     // Word i is letters[offset[i]..offset[i+1])
+
+    private final long hkeys[];     // Signature, or 0 for an empty slot
+    private final int hfirst[];     // First word with the signature
+
+    /**
+     * Index the words.  Case is ignored; words with anything but the
+     * letters A to Z in them, or longer than {@link #MAX_LENGTH}, are left
+     * out, as are repeats.
+     * @param words
+     */
+    public AnagramIndex(Iterable<String> words) {
+        List<String> kept = new ArrayList<String>();
+        for (String w : words) {
+            String u = w.toUpperCase();
+            if (key(u) > 0) kept.add(u);
+        }
+        String sorted[] = kept.toArray(new String[kept.size()]);
+        long k[] = new long[sorted.length];
+        Integer idx[] = new Integer[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            k[i] = key(sorted[i]);
+            idx[i] = i;
+        }
+        Arrays.sort(idx, (a, b) -> k[a] != k[b] ? Long.compare(k[a], k[b])
+                                                : sorted[a].compareTo(sorted[b]));
+
+        /* Flatten, dropping repeats, which sort next to each other */
+        long wk[] = new long[idx.length];
+        int off[] = new int[idx.length + 1];
+        StringBuilder all = new StringBuilder();
+        int m = 0;
+        String prev = null;
+        for (Integer i : idx) {
+            if (sorted[i].equals(prev)) continue;
+            prev = sorted[i];
+            wk[m] = k[i];
+            off[m++] = all.length();
+            all.append(prev);
+        }
+        off[m] = all.length();
+        n = m;
+        wkeys = Arrays.copyOf(wk, m);
+        offset = Arrays.copyOf(off, m + 1);
+        letters = new byte[all.length()];
+        for (int i = 0; i < letters.length; i++)
+            letters[i] = (byte)all.charAt(i);
+
+        int size = Integer.highestOneBit(Math.max(n, 1)) * 4;
+        hkeys = new long[size];
+        hfirst = new int[size];
+        for (int i = 0; i < n; i++) {
+            if (i > 0 && wkeys[i] == wkeys[i - 1]) continue;
+            int h = slot(wkeys[i]);
+            hkeys[h] = wkeys[i];
+            hfirst[h] = i;
+        }
+    }
+
+    /** Signature of an upper case word, or -1 if it can't have one */
+    private static long key(String w) {
+        if (w.isEmpty() || w.length() > MAX_LENGTH) return -1;
+        int counts[] = new int[26];
+        for (int i = 0; i < w.length(); i++) {
+            int c = w.charAt(i) - 'A';
+            if (c < 0 || c >= 26) return -1;
+            counts[c]++;
+        }
+        long k = 0;
+        for (int c = 0; c < 26; c++)
+            for (int j = 0; j < counts[c]; j++) k = k * 27 + c + 1;
+        return k;
+    }
+
+    /** Slot holding the signature, or the empty slot where it would go */
+    private int slot(long k) {
+        int mask = hkeys.length - 1;
+        int h = (int)(k * 0x9E3779B97F4A7C15L >>> 40) & mask;
+        while (hkeys[h] != 0 && hkeys[h] != k)
+            h = (h + 1) & mask;
+        return h;
+    }
+
+    /** Index of the first word with the signature, or -1 */
+    private int first(long k) {
+        int h = slot(k);
+        return hkeys[h] == 0 ? -1 : hfirst[h];
+    }
+
+    private String word(int i) {
+        return new String(letters, offset[i], offset[i + 1] - offset[i], StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Is this a dictionary word?  Case is ignored.
+     * @param word
+     * @return
+     */
+    public boolean contains(String word) {
+        String u = word.toUpperCase();
+        long k = key(u);
+        if (k < 0) return false;
+        for (int i = first(k); i >= 0 && i < n && wkeys[i] == k; i++) {
+            int len = offset[i + 1] - offset[i];
+            if (len != u.length()) continue;
+            boolean same = true;
+            for (int j = 0; j < len && same; j++)
+                same = letters[offset[i] + j] == u.charAt(j);
+            if (same) return true;
+        }
+        return false;
+    }
+
+    /**
+     * The longest dictionary words that can be made from the letters, each
+     * letter used no more often than it appears.
+     * @param draw the letters; case is ignored, anything else is skipped
+     * @return the words in alphabetical order, or none if no word can be
+     *         made
+     */
+    public String[] longest(String draw) {
+        int counts[] = new int[26];
+        int size = 0;
+        for (int i = 0; i < draw.length() && size < MAX_LENGTH; i++) {
+            int c = Character.toUpperCase(draw.charAt(i)) - 'A';
+            if (c >= 0 && c < 26) { counts[c]++; size++; }
+        }
+
+        /* Every distinct sub-multiset, as a signature, with its size */
+        int kinds = 0, total = 1;
+        int letter[] = new int[26], count[] = new int[26];
+        for (int c = 0; c < 26; c++)
+            if (counts[c] > 0) {
+                letter[kinds] = c;
+                count[kinds++] = counts[c];
+                total *= counts[c] + 1;
+            }
+        long subs[] = new long[total];
+        int sizes[] = new int[total];
+        int got = subsets(letter, count, kinds, 0, 0, 0, subs, sizes, 0);
+
+        List<String> out = new ArrayList<String>();
+        for (int len = size; len > 0 && out.isEmpty(); len--)
+            for (int s = 0; s < got; s++) {
+                if (sizes[s] != len) continue;
+                for (int i = first(subs[s]); i >= 0 && i < n && wkeys[i] == subs[s]; i++)
+                    out.add(word(i));
+            }
+        String words[] = out.toArray(new String[out.size()]);
+        Arrays.sort(words);
+        return words;
+    }
+
+    /* Append the signatures of every sub-multiset of the letters from the
+    |i|th on, each extending |k| of size |len|; returns the new fill */
+    private static int subsets(int letter[], int count[], int kinds, int i, long k, int len,
+                               long subs[], int sizes[], int fill) {
+        if (i == kinds) {
+            subs[fill] = k;
+            sizes[fill] = len;
+            return fill + 1;
+        }
+        for (int j = 0; j <= count[i]; j++) {
+            fill = subsets(letter, count, kinds, i + 1, k, len + j, subs, sizes, fill);
+            k = k * 27 + letter[i] + 1;
+        }
+        return fill;
+    }
+
+    /**
+     * Can the word be made from the letters, each used no more often than
+     * it appears?  Case is ignored.
+     * @param word
+     * @param draw
+     * @return
+     */
+    public static boolean fits(String word, String draw) {
+        int counts[] = new int[26];
+        for (int i = 0; i < draw.length(); i++) {
+            int c = Character.toUpperCase(draw.charAt(i)) - 'A';
+            if (c >= 0 && c < 26) counts[c]++;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            int c = Character.toUpperCase(word.charAt(i)) - 'A';
+            if (c < 0 || c >= 26 || --counts[c] < 0) return false;
+        }
+        return !word.isEmpty();
+    }
+
+    /** Number of distinct words indexed */
+    public int size() {
+        return n;
+    }
+}
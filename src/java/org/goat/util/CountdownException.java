@@ -0,0 +1,17 @@
+package org.goat.util;
+
+/**
+ * A Countdown answer that breaks the rules; the message says how, in words
+ * fit to show the player.
+ */
+public class CountdownException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    /** Offset in the answer where the problem was found */
+    public final int location;
+
+    public CountdownException(String s, int location) {
+        super(s);
+        this.location = location;
+    }
+}
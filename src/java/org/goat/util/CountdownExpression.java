@@ -0,0 +1,200 @@
+package org.goat.util;
+
+/**
+ * Check and evaluate a player's answer to a Countdown numbers round.
+ * <p/>
+ * One pass over the answer does everything: a recursive descent parser
+ * evaluates as it reads, so each character is looked at once and only ints
+ * are ever kept.  Along the way it checks that
+ * <ul>
+ * <li>only the round's operators, digits, brackets and spaces are used;</li>
+ * <li>every number is one of the drawn numbers, each used no more often
+ * than it was drawn;</li>
+ * <li>every intermediate result is a positive whole number, as on the TV
+ * show, so no negatives, no zero and no fractions along the way.</li>
+ * </ul>
+ * Precedence is the usual one: {@code |} (concatenation) binds tightest,
+ * then {@code ^}, which is right associative, then {@code * /}, then
+ * {@code + -}.  Only two drawn numbers can be concatenated, so
+ * {@code 2 | 5} is 25 but {@code 2 | 5 | 3} is refused, just as the solver
+ * never joins more than two.  There is no unary minus.
+ */
+public class CountdownExpression {
+    /* Deeper than any sensible answer, shallow enough to be safe from
+    somebody sending a page of brackets */
+    private static final int MAX_DEPTH = 64;
+
+    private final String s;
+    private final int source[];
+    private final int ops;
+    private int pos;
+    private int used;       // Bitmap of the drawn numbers used so far
+    private int depth;
+
+    private CountdownExpression(String s, int source[], int ops) {
+        this.s = s; this.source = source; this.ops = ops;
+    }
+
+    /**
+     * Evaluate an answer.
+     * @param expr what the player typed
+     * @param source the numbers drawn
+     * @param operators bitmap of the operators allowed, as for
+     *        {@link CountdownSolver#CountdownSolver(int, int)}
+     * @return the value of the answer
+     * @throws CountdownException if the answer breaks the rules or doesn't
+     *         parse
+     */
+    public static int evaluate(String expr, int source[], int operators) throws CountdownException {
+        if (source.length > 31)
+            throw new IllegalArgumentException("too many numbers: " + source.length);
+        CountdownExpression e = new CountdownExpression(expr, source, operators);
+        int v = e.sum();
+        if (e.skip() >= 0)
+            throw e.unexpected();
+        return v;
+    }
+
+    /* sum := product (('+' | '-') product)* */
+    private int sum() throws CountdownException {
+        int v = product();
+        for (int c = skip(); ; c = skip()) {
+            if (c == '+' && allowed(CountdownSolver.PLUS)) {
+                pos++;
+                v = checked((long)v + product());
+            } else if (c == '-' && allowed(CountdownSolver.MINUS)) {
+                int at = pos++;
+                int w = product();
+                if (v <= w)
+                    throw new CountdownException(
+                            "Every step has to come out positive, no negatives or zero allowed!", at);
+                v -= w;
+            } else
+                return v;
+        }
+    }
+
+    /* product := power (('*' | '/') power)* */
+    private int product() throws CountdownException {
+        int v = power();
+        for (int c = skip(); ; c = skip()) {
+            if (c == '*' && allowed(CountdownSolver.TIMES)) {
+                pos++;
+                v = checked((long)v * power());
+            } else if (c == '/' && allowed(CountdownSolver.DIVIDE)) {
+                int at = pos++;
+                int w = power();
+                if (v % w != 0)
+                    throw new CountdownException(
+                            "You used a formula that resulted in a non-int answer. This is not allowed!", at);
+                v /= w;
+            } else
+                return v;
+        }
+    }
+
+    /* power := primary ('^' power)? */
+    private int power() throws CountdownException {
+        int v = primary();
+        if (skip() != '^' || !allowed(CountdownSolver.POWER))
+            return v;
+        pos++;
+        nest();
+        int w = power();
+        depth--;
+        if (v == 1)
+            return 1;
+        long x = 1;
+        for (int i = 0; i < w; i++)
+            x = checked(x * v);
+        return (int)x;
+    }
+
+    /* primary := number ('|' number)? | '(' sum ')' */
+    private int primary() throws CountdownException {
+        int c = skip();
+        if (c == '(') {
+            pos++;
+            nest();
+            int v = sum();
+            depth--;
+            if (skip() != ')')
+                throw unexpected();
+            pos++;
+            return v;
+        }
+        if (c < '0' || c > '9')
+            throw unexpected();
+        long v = number();
+        if (skip() == '|' && allowed(CountdownSolver.CONCAT)) {
+            pos++;
+            if (skip() < '0' || skip() > '9')
+                throw unexpected();
+            int start = pos;
+            int w = number();
+            for (int i = start; i < pos; i++)
+                v = checked(v * 10);
+            v = checked(v + w);
+            if (skip() == '|')
+                throw new CountdownException("You can only join two numbers together", pos);
+        }
+        return (int)v;
+    }
+
+    /* A run of digits, which must be one of the drawn numbers not yet used */
+    private int number() throws CountdownException {
+        int start = pos;
+        long v = 0;
+        while (pos < s.length() && s.charAt(pos) >= '0' && s.charAt(pos) <= '9') {
+            v = v * 10 + s.charAt(pos++) - '0';
+            if (v > Integer.MAX_VALUE)
+                throw new CountdownException("You used a number not in the selection!", start);
+        }
+        for (int i = 0; i < source.length; i++)
+            if (source[i] == v && (used & 1 << i) == 0) {
+                used |= 1 << i;
+                return (int)v;
+            }
+        throw new CountdownException("You used a number not in the selection!", start);
+    }
+
+    /** Skip spaces; the next character, or -1 at the end */
+    private int skip() {
+        while (pos < s.length() && Character.isWhitespace(s.charAt(pos)))
+            pos++;
+        return pos < s.length() ? s.charAt(pos) : -1;
+    }
+
+    private boolean allowed(int op) {
+        return (ops & 1 << op) != 0;
+    }
+
+    private void nest() throws CountdownException {
+        if (++depth > MAX_DEPTH)
+            throw new CountdownException("That's too many brackets for me", pos);
+    }
+
+    private int checked(long v) throws CountdownException {
+        if (v > Integer.MAX_VALUE)
+            throw new CountdownException("That's too big a number for me", pos);
+        return (int)v;
+    }
+
+    /* Whatever is at |pos| doesn't belong there.  A character no rule
+    allows at all is a bad operator, anything else is a syntax error */
+    private CountdownException unexpected() {
+        if (pos >= s.length())
+            return new CountdownException("That expression isn't finished", pos);
+        char c = s.charAt(pos);
+        boolean known = c >= '0' && c <= '9' || c == '(' || c == ')'
+                || c == '+' && allowed(CountdownSolver.PLUS)
+                || c == '-' && allowed(CountdownSolver.MINUS)
+                || c == '*' && allowed(CountdownSolver.TIMES)
+                || c == '/' && allowed(CountdownSolver.DIVIDE)
+                || c == '^' && allowed(CountdownSolver.POWER)
+                || c == '|' && allowed(CountdownSolver.CONCAT);
+        if (!known)
+            return new CountdownException("Invalid operators in expression", pos);
+        return new CountdownException("I can't make sense of that expression", pos);
+    }
+}
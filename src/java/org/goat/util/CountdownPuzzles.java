@@ -0,0 +1,196 @@
+package org.goat.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Deal Countdown numbers rounds of a chosen difficulty.
+ * <p/>
+ * A target is rated by the fewest operations any solution needs and by how
+ * many distinct solutions there are, both read from one
+ * {@link CountdownSolutions} pool build per draw, however many targets are
+ * tried against it.  Targets are picked at random from those the pools say
+ * need the right number of operations for the band, so easy and hard
+ * targets are dealt without counting anything and only medium ones are
+ * turned down, for having too many or too few ways.  Draws are tried until
+ * a target falls in the requested band or the time budget runs out, in
+ * which case the nearest miss is dealt instead.
+ * <p/>
+ * The bands, for six numbers:
+ * <ul>
+ * <li>{@link #EASY}: three numbers or fewer will do, or there are more than
+ * {@value #PLENTY} ways to get there.</li>
+ * <li>{@link #HARD}: every number is needed, or there are no more than
+ * {@value #FEW} ways.</li>
+ * <li>{@link #MEDIUM}: everything in between.</li>
+ * </ul>
+ * Every target dealt can be made exactly.  Not thread-safe.
+ */
+public class CountdownPuzzles {
+    public static final int EASY = 0, MEDIUM = 1, HARD = 2;
+
+    private static final int PLENTY = 30, FEW = 3;
+
+    private static final long DEFAULT_BUDGET = 5000000L;     // 5ms
+    private static final int TRIES_PER_DRAW = 40;
+    private static final int WARMING_ROUNDS = 100;
+
+    private final int big[], small[];
+    private final int size;
+    private final Random random;
+
+    /** A dealt round */
+    public static final class Puzzle {
+        public final int draw[];
+        public final int target;
+        public final int operations;    // fewest any solution needs
+        public final long ways;         // distinct solutions, up to PLENTY + 1,
+                                        // or -1 if the operations settle it
+        public final int difficulty;
+
+        Puzzle(int draw[], int target, int operations, long ways, int difficulty) {
+            this.draw = draw; this.target = target; this.operations = operations;
+            this.ways = ways; this.difficulty = difficulty;
+        }
+    }
+
+    /**
+     * Deal standard rounds: six numbers, one or two of them big.
+     */
+    public CountdownPuzzles() {
+        this(new int[] { 25, 50, 75, 100 },
+             new int[] { 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10 },
+             6, new Random());
+    }
+
+    /**
+     * @param big the big numbers to draw from
+     * @param small the small numbers to draw from
+     * @param size how many numbers to draw
+     * @param random
+     */
+    public CountdownPuzzles(int big[], int small[], int size, Random random) {
+        if (big.length < 2 || small.length < size - 1)
+            throw new IllegalArgumentException("not enough numbers to draw " + size);
+        this.big = big.clone();
+        this.small = small.clone();
+        this.size = size;
+        this.random = random;
+    }
+
+    /**
+     * Which band a target falls in.
+     * @param operations the fewest operations needed
+     * @param ways how many distinct solutions there are
+     * @return EASY, MEDIUM or HARD
+     */
+    public int difficulty(int operations, long ways) {
+        if (operations <= size / 2 - 1 || ways > PLENTY)
+            return EASY;
+        if (operations == size - 1 || ways <= FEW)
+            return HARD;
+        return MEDIUM;
+    }
+
+    /**
+     * Deal a round of the given difficulty within the default budget.
+     * @param difficulty EASY, MEDIUM or HARD
+     * @return
+     */
+    public Puzzle generate(int difficulty) {
+        return generate(difficulty, DEFAULT_BUDGET);
+    }
+
+    /**
+     * Deal a round of the given difficulty.
+     * @param difficulty EASY, MEDIUM or HARD
+     * @param budget nanoseconds to spend looking; at least one draw is
+     *        always rated, so a round is always dealt, and the one rating
+     *        under way when it runs out is finished
+     * @return
+     */
+    public Puzzle generate(int difficulty, long budget) {
+        if (difficulty < EASY || difficulty > HARD)
+            throw new IllegalArgumentException("no such difficulty " + difficulty);
+        long deadline = System.nanoTime() + budget;
+        Puzzle nearest = null;
+        do {
+            int draw[] = draw();
+            CountdownSolutions solutions = new CountdownSolutions(draw);
+            int fewest[] = solutions.fewestOperations(CountdownTable.MIN_TARGET, CountdownTable.MAX_TARGET);
+            int targets[] = candidates(fewest, difficulty);
+            for (int i = 0; i < TRIES_PER_DRAW; i++) {
+                if (nearest != null && System.nanoTime() > deadline) break;
+                int target = CountdownTable.MIN_TARGET + targets[random.nextInt(targets.length)];
+                int operations = fewest[target - CountdownTable.MIN_TARGET];
+                if (operations < 0) operations = solutions.fewestOperations(target);
+                if (operations < 0) continue;
+                /* Counting is the expensive part, and the band only
+                turns on the ways for targets in the middle */
+                boolean settled = operations <= size / 2 - 1 || operations == size - 1;
+                long ways = settled ? -1 : solutions.count(target, PLENTY + 1);
+                Puzzle p = new Puzzle(draw, target, operations, ways, difficulty(operations, ways));
+                if (p.difficulty == difficulty)
+                    return p;
+                if (nearest == null || Math.abs(p.difficulty - difficulty)
+                        < Math.abs(nearest.difficulty - difficulty))
+                    nearest = p;
+            }
+        } while (nearest == null || System.nanoTime() < deadline);
+        return nearest;
+    }
+
+    /* The targets, as offsets from MIN_TARGET, whose fewest operations
+    put them in the band on their own or leave it to the number of ways:
+    few enough operations for EASY, every number for HARD, and anything
+    in between for MEDIUM.  When the draw has none, every target is a
+    candidate and the nearest miss is likely. */
+    private int[] candidates(int fewest[], int difficulty) {
+        int targets[] = new int[fewest.length], n = 0;
+        for (int t = 0; t < fewest.length; t++) {
+            int likely = fewest[t] < 0 ? HARD : fewest[t] <= size / 2 - 1 ? EASY : MEDIUM;
+            if (likely == difficulty) targets[n++] = t;
+        }
+        if (n == 0)
+            for (n = 0; n < fewest.length; n++) targets[n] = n;
+        return Arrays.copyOf(targets, n);
+    }
+
+    /**
+     * Deal throwaway rounds of every difficulty on a background thread.
+     * On a cold JVM the first round takes ten times the default budget,
+     * nearly all of it building pools in the interpreter, so call this
+     * when the game is loaded rather than when a round is asked for.
+     * @return the warming thread, a daemon
+     */
+    public static Thread warm() {
+        Thread t = new Thread(() -> {
+            CountdownPuzzles puzzles = new CountdownPuzzles();
+            for (int i = 0; i < WARMING_ROUNDS; i++)
+                puzzles.generate(i % (HARD + 1));
+        }, "countdown-warming");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+        return t;
+    }
+
+    /* Four draws in five have one big number, the rest two */
+    private int[] draw() {
+        int bigs = random.nextInt(5) < 4 ? 1 : 2;
+        int draw[] = new int[size];
+        pick(big, bigs, draw, 0);
+        pick(small, size - bigs, draw, bigs);
+        return draw;
+    }
+
+    /* Partial Fisher-Yates shuffle of a copy of |from| */
+    private void pick(int from[], int n, int into[], int at) {
+        int deck[] = from.clone();
+        for (int i = 0; i < n; i++) {
+            int j = i + random.nextInt(deck.length - i);
+            int t = deck[i]; deck[i] = deck[j]; deck[j] = t;
+            into[at + i] = deck[i];
+        }
+    }
+}
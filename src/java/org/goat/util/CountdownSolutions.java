@@ -0,0 +1,505 @@
+package org.goat.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Every distinct way to make a Countdown target.
+ * <p/>
+ * {@link CountdownSolver} throws an expression away as soon as another one
+ * makes it redundant, so it can only offer a single answer.  Here the pools
+ * keep every value that each set of inputs can make, and the expressions
+ * are rebuilt from them on demand, one at a time.  A draw with hundreds of
+ * thousands of solutions costs no more memory than a draw with one.
+ * <p/>
+ * Two expressions count as the same solution when they differ only in the
+ * order of the terms of a sum or product, in brackets made redundant by
+ * associativity, or in which of two equal draw numbers was used.  Each
+ * solution is produced once, in canonical form: sums and products are
+ * chains read left to right, largest term first, with the added (or
+ * multiplied) terms before the subtracted (or divided) ones.  Multiplying
+ * or dividing by one never makes a new solution, and nor does padding a
+ * chain with terms that cancel out, as in 75 + 25 + 3 - 3 or 75 + 25 + 3 +
+ * 4 - 7 or 100 * 6 / 2 / 3: each is the same solution with spare numbers.
+ * <p/>
+ * Not thread-safe while streams are open; build one per game.
+ */
+public class CountdownSolutions {
+    private static final int CONST = CountdownSolver.CONST, PLUS = CountdownSolver.PLUS,
+            MINUS = CountdownSolver.MINUS, TIMES = CountdownSolver.TIMES,
+            DIVIDE = CountdownSolver.DIVIDE;
+
+    /* Sums and products are the two families of chain */
+    private static final int NEITHER = 0, SUM = 1, PRODUCT = 2;
+
+    private final int draw[];
+    private final int expN;
+
+    /* |vals[s]| holds, in ascending order, every value that can be made
+    using exactly the set of inputs |s|, with all intermediate results
+    positive whole numbers.  Unlike the solver's pools nothing is pruned,
+    because a value that is redundant on its own may still be part of a
+    distinct solution.  The pool for the whole draw is by far the largest
+    and is only needed to list the values nearest an unreachable target,
+    so it is left until then. */
+
+    private final int vals[][];
+
+    /* Equal draw numbers are told apart by insisting that they appear in
+    the printed expression in index order, and that a solution uses the
+    lowest-indexed copies.  |lower[s]| is the set of inputs that are
+    copies, with a lower index, of some input in |s|. */
+
+    private final int lower[];
+
+    private int everything[];
+
+    /**
+     * Build the value pools for a draw.
+     * @param draw the source numbers, all positive
+     */
+    public CountdownSolutions(int draw[]) {
+        this.draw = draw.clone();
+        expN = 1 << draw.length;
+        vals = new int[expN][];
+        lower = new int[expN];
+        for (int s = 1; s < expN; s++) {
+            int i = Integer.numberOfTrailingZeros(s), dups = 0;
+            for (int j = 0; j < i; j++)
+                if (draw[j] == draw[i]) dups |= 1 << j;
+            lower[s] = lower[s & s - 1] | dups;
+        }
+        build();
+    }
+
+    /* Fill the pools in order of the number of inputs used, combining
+    each unordered pair of disjoint pools that make up the set */
+    private void build() {
+        ValueSet set = new ValueSet();
+        for (int i = 1; i < draw.length; i++) {
+            for (int s = 1; s < expN - 1; s++) {
+                if (Integer.bitCount(s) != i) continue;
+                if (i == 1) {
+                    vals[s] = new int[] { draw[Integer.numberOfTrailingZeros(s)] };
+                    continue;
+                }
+                vals[s] = build(s, set);
+            }
+        }
+    }
+
+    private int[] build(int s, ValueSet set) {
+        for (int r = (s - 1) & s; r > 0; r = (r - 1) & s)
+            if (r < (s ^ r)) combine(vals[r], vals[s ^ r], set);
+        return set.drain();
+    }
+
+    /** The pool for |s|, building the whole draw's on first use */
+    private int[] values(int s) {
+        if (vals[s] == null)
+            vals[s] = draw.length == 1 ? draw.clone() : build(s, new ValueSet());
+        return vals[s];
+    }
+
+    private static void combine(int a[], int b[], ValueSet set) {
+        for (int x : a) {
+            for (int y : b) {
+                int big = Math.max(x, y), small = Math.min(x, y);
+                set.add(big + small);
+                if (big > small) set.add(big - small);
+                if (small > 1) {
+                    long product = (long)big * small;
+                    if (product <= Integer.MAX_VALUE) set.add((int)product);
+                    if (big % small == 0) set.add(big / small);
+                }
+            }
+        }
+    }
+
+    private static boolean contains(int sorted[], long v) {
+        return v > 0 && v <= Integer.MAX_VALUE && Arrays.binarySearch(sorted, (int)v) >= 0;
+    }
+
+    /**
+     * Every distinct expression with the target's value, those using the
+     * fewest numbers first.  Nothing is built until it is consumed.
+     * @param target
+     * @return expressions such as "(75 + 6) * 10 + 2"
+     */
+    public Stream<String> solutions(int target) {
+        return stream(target).map(Expr::text);
+    }
+
+    /**
+     * How many distinct expressions make the target.  The expressions are
+     * walked but never printed, so this is cheap enough for rating targets.
+     * @param target
+     * @return
+     */
+    public long count(int target) {
+        return stream(target).count();
+    }
+
+    /**
+     * How many distinct expressions make the target, counting no further
+     * than the limit.
+     * @param target
+     * @param limit
+     * @return
+     */
+    public long count(int target, long limit) {
+        return stream(target).limit(limit).count();
+    }
+
+    /**
+     * The fewest operations any solution needs.
+     * @param target
+     * @return the number of operations, or -1 if the target can't be made
+     */
+    public int fewestOperations(int target) {
+        int fewest = draw.length;
+        for (int s = 1; s < expN - 1; s++)
+            if (Integer.bitCount(s) < fewest && contains(vals[s], target))
+                fewest = Integer.bitCount(s);
+        if (fewest == draw.length && count(target, 1) == 0)
+            return -1;
+        return fewest - 1;
+    }
+
+    /**
+     * The fewest operations needed for each target in a range, read
+     * straight from the pools.  Targets that need every number are left
+     * out, since their pool is the one that is expensive to build; ask
+     * {@link #fewestOperations(int)} about those one at a time.
+     * @param from the lowest target
+     * @param to the highest target
+     * @return element t - from is the fewest operations needed to make t,
+     *         or -1 if t can't be made without using every number
+     */
+    public int[] fewestOperations(int from, int to) {
+        int fewest[] = new int[to - from + 1];
+        Arrays.fill(fewest, -1);
+        for (int s = 1; s < expN - 1; s++) {
+            int ops = Integer.bitCount(s) - 1, pool[] = vals[s];
+            int i = Arrays.binarySearch(pool, from);
+            for (i = i < 0 ? -i - 1 : i; i < pool.length && pool[i] <= to; i++)
+                if (fewest[pool[i] - from] < 0 || ops < fewest[pool[i] - from])
+                    fewest[pool[i] - from] = ops;
+        }
+        return fewest;
+    }
+
+    /**
+     * Solutions for the reachable values nearest the target, nearest first
+     * (the lower value first when two are equally near), in the same form
+     * as {@link CountdownSolver#describe(int)}.  Use {@code limit(k)} for
+     * the k best.
+     * @param target
+     * @return lines such as "812 = (75 + 6) * 10 + 2" or
+     *         "813 = 75 * 10 + 63 (off by 1)"
+     */
+    public Stream<String> closest(int target) {
+        return nearest(target).flatMap(v -> stream(v).map(e -> {
+            int dist = Math.abs(v - target);
+            return dist == 0 ? v + " = " + e.text()
+                    : v + " = " + e.text() + " (off by " + dist + ")";
+        }));
+    }
+
+    /* Every reachable value, ordered by distance from the target */
+    private Stream<Integer> nearest(int target) {
+        if (everything == null) {
+            ValueSet set = new ValueSet();
+            for (int s = 1; s < expN; s++)
+                for (int v : values(s)) set.add(v);
+            everything = set.drain();
+        }
+        return IntStream.of(everything).boxed().sorted(Comparator
+                .comparingInt((Integer v) -> Math.abs(v - target)).thenComparingInt(v -> v));
+    }
+
+    private Stream<Expr> stream(int target) {
+        Iterator<Expr> it = new Gen() {
+            int s = 0, size = 0;
+            Iterator<Expr> current;
+
+            Expr compute() {
+                while (true) {
+                    if (current != null && current.hasNext()) return current.next();
+                    current = null;
+                    /* Next canonical set of inputs, smallest sets first */
+                    do {
+                        if (++s == expN) {
+                            if (++size > draw.length) return null;
+                            s = 1;
+                        }
+                    } while (Integer.bitCount(s) != size || (lower[s] & ~s) != 0
+                            || vals[s] != null && !contains(vals[s], target));
+                    current = exprs(s, target, NEITHER, null);
+                }
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /* An expression tree, built only as far as it is consumed */
+    private static final class Expr {
+        final int op, val;
+        final Expr left, right;
+        private String text;
+
+        Expr(int op, int val, Expr left, Expr right) {
+            this.op = op; this.val = val; this.left = left; this.right = right;
+        }
+
+        int family() {
+            return op == PLUS || op == MINUS ? SUM : op == TIMES || op == DIVIDE ? PRODUCT : NEITHER;
+        }
+
+        void walk(int p, StringBuilder buf) {
+            if (op == CONST)
+                buf.append(val);
+            else {
+                int xp = CountdownSolver.pri[op];
+                if (xp < p) buf.append('(');
+                left.walk(xp, buf);
+                buf.append(' ').append(CountdownSolver.sym[op]).append(' ');
+                right.walk(CountdownSolver.rpri[op], buf);
+                if (xp < p) buf.append(')');
+            }
+        }
+
+        String text() {
+            if (text == null) {
+                StringBuilder buf = new StringBuilder();
+                walk(1, buf);
+                text = buf.toString();
+            }
+            return text;
+        }
+
+        /* May this term come before |t| in a chain?  Larger values come
+        first; equal values are ordered by their printed form, which does
+        not depend on which copy of a repeated number was used. */
+        boolean precedes(Expr t) {
+            return val != t.val ? val > t.val : text().compareTo(t.text()) >= 0;
+        }
+
+        /* Do some of the terms of this chain cancel out?  A sum is padded
+        when some of its added terms add up to some of its subtracted ones,
+        and a product likewise.  The terms are read from the last back to
+        the first, which is always added (or multiplied). */
+        boolean cancels() {
+            int family = family();
+            if (family == NEITHER) return false;
+            int n = 1;
+            for (Expr e = this; e.family() == family; e = e.left) n++;
+            long term[] = new long[n];
+            int added = 0;
+            Expr e = this;
+            for (int k = 0; k < n; k++, e = e.left) {
+                boolean first = k == n - 1;
+                term[k] = first ? e.val : e.right.val;
+                if (first || e.op == PLUS || e.op == TIMES) added |= 1 << k;
+            }
+            for (int m = 1; m < (1 << n) - 1; m++) {
+                if ((m & added) == 0 || (m & ~added) == 0) continue;
+                long up = family == SUM ? 0 : 1, down = up;
+                for (int k = 0; k < n; k++) {
+                    if ((m >> k & 1) == 0) continue;
+                    boolean add = (added >> k & 1) != 0;
+                    if (family == SUM) {
+                        if (add) up += term[k]; else down += term[k];
+                    } else {
+                        if (add) up *= term[k]; else down *= term[k];
+                    }
+                }
+                if (up == down) return true;
+            }
+            return false;
+        }
+    }
+
+    /* A lazy iterator: |compute| returns the next element, or null */
+    private abstract static class Gen implements Iterator<Expr> {
+        private Expr next;
+        private boolean done;
+
+        abstract Expr compute();
+
+        public boolean hasNext() {
+            if (next == null && !done) {
+                next = compute();
+                done = next == null;
+            }
+            return next != null;
+        }
+
+        public Expr next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Expr e = next;
+            next = null;
+            return e;
+        }
+    }
+
+    private static Iterator<Expr> concat(Iterator<Expr> a, Iterator<Expr> b) {
+        return new Gen() {
+            Expr compute() {
+                if (a.hasNext()) return a.next();
+                return b.hasNext() ? b.next() : null;
+            }
+        };
+    }
+
+    private static final Iterator<Expr> EMPTY = new Gen() {
+        Expr compute() { return null; }
+    };
+
+    /* Canonical expressions for value |v| from inputs |s| that are not
+    chains of |family|, and come no later than |bound| in a chain */
+    private Iterator<Expr> exprs(int s, int v, int family, Expr bound) {
+        if (bound != null && v < bound.val) return EMPTY;
+        if ((s & s - 1) == 0) {
+            Expr leaf = new Expr(CONST, v, null, null);
+            if (draw[Integer.numberOfTrailingZeros(s)] != v || bound != null && !leaf.precedes(bound))
+                return EMPTY;
+            return Arrays.asList(leaf).iterator();
+        }
+        Iterator<Expr> it = EMPTY;
+        if (family != SUM)
+            it = concat(chain(s, v, PLUS, null), chain(s, v, MINUS, null));
+        if (family != PRODUCT)
+            it = concat(it, concat(chain(s, v, TIMES, null), chain(s, v, DIVIDE, null)));
+        Iterator<Expr> all = it;
+        boolean tied = bound != null && v == bound.val;
+        return new Gen() {
+            Expr compute() {
+                while (all.hasNext()) {
+                    Expr e = all.next();
+                    if (!e.cancels() && (!tied || e.precedes(bound))) return e;
+                }
+                return null;
+            }
+        };
+    }
+
+    /* Chains of the form L op T for value |v| from inputs |s|, whose last
+    term T comes no earlier than |bound|.  T is never itself a chain of the
+    same family; L is the rest of the chain, or its first term. */
+    private Iterator<Expr> chain(int s, int v, int op, Expr bound) {
+        int family = op == PLUS || op == MINUS ? SUM : PRODUCT;
+        return new Gen() {
+            int l = s, t, i;
+            long lv;
+            Iterator<Expr> terms = EMPTY, lefts = EMPTY;
+            Expr term;
+
+            Expr compute() {
+                while (true) {
+                    if (lefts.hasNext()) return new Expr(op, v, lefts.next(), term);
+                    if (terms.hasNext()) {
+                        term = terms.next();
+                        lefts = left(l, (int)lv, family, op, term);
+                        continue;
+                    }
+                    if (!nextValue()) return null;
+                    terms = exprs(t, vals[t][i], family, bound);
+                }
+            }
+
+            /* Step to the next split of |s| and term value whose other
+            side is reachable */
+            boolean nextValue() {
+                while (true) {
+                    if (l != s && ++i < vals[t].length) {
+                        int tv = vals[t][i];
+                        if (bound != null && tv < bound.val) continue;
+                        switch (op) {
+                        case PLUS: lv = (long)v - tv; break;
+                        case MINUS: lv = (long)v + tv; break;
+                        case TIMES: lv = v % tv == 0 ? v / tv : 0; break;
+                        default: lv = (long)v * tv; break;
+                        }
+                        /* Values only grow from here, so once L is out of
+                        reach on the large side it stays there */
+                        if (op == PLUS || op == TIMES ? tv > v : lv > vals[l][vals[l].length - 1]) {
+                            i = vals[t].length;
+                            continue;
+                        }
+                        if (family == PRODUCT && tv < 2) continue;
+                        if (family == PRODUCT && lv < 2) continue;
+                        if (contains(vals[l], lv)) return true;
+                        continue;
+                    }
+                    /* Next split: the inputs of L must all precede the
+                    equal inputs of T */
+                    do {
+                        l = (l - 1) & s;
+                        if (l == 0) return false;
+                        t = s ^ l;
+                    } while ((t & lower[l]) != 0);
+                    i = -1;
+                }
+            }
+        };
+    }
+
+    /* The left operand of a chain ending in |op| T: either the first term,
+    which must not be smaller than T when op adds or multiplies, or a
+    shorter chain whose last term of the same sign is not smaller than T */
+    private Iterator<Expr> left(int s, int v, int family, int op, Expr term) {
+        boolean pos = op == PLUS || op == TIMES;
+        int neg = family == SUM ? MINUS : DIVIDE;
+        if (pos)
+            return concat(exprs(s, v, family, term), chain(s, v, op, term));
+        return concat(exprs(s, v, family, null),
+                concat(chain(s, v, op == MINUS ? PLUS : TIMES, null), chain(s, v, neg, term)));
+    }
+
+    /* Open-addressing set of positive ints, emptied by |drain| */
+    private static final class ValueSet {
+        private int keys[] = new int[1 << 10];
+        private int items[] = new int[1 << 9];
+        private int size;
+
+        void add(int v) {
+            int mask = keys.length - 1;
+            int h = (v * 0x9E3779B1) >>> 7 & mask;
+            while (keys[h] != 0) {
+                if (keys[h] == v) return;
+                h = (h + 1) & mask;
+            }
+            keys[h] = v;
+            if (size == items.length) items = Arrays.copyOf(items, size * 2);
+            items[size++] = v;
+            if (size * 2 > keys.length) {
+                keys = new int[keys.length * 2];
+                mask = keys.length - 1;
+                for (int k = 0; k < size; k++) {
+                    int x = items[k];
+                    h = (x * 0x9E3779B1) >>> 7 & mask;
+                    while (keys[h] != 0) h = (h + 1) & mask;
+                    keys[h] = x;
+                }
+            }
+        }
+
+        /** The members in ascending order; the set is left empty */
+        int[] drain() {
+            int out[] = Arrays.copyOf(items, size);
+            Arrays.sort(out);
+            Arrays.fill(keys, 0);
+            size = 0;
+            return out;
+        }
+    }
+}
@@ -3,138 +3,379 @@ package org.goat.util;
  * Created on 25-Feb-2006
  */
 
-/** Solve the CountDown problem */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Solve the CountDown problem.
+ * <p/>
+ * All search state lives in the instance, so each thread (or each game) can
+ * hold its own solver without any locking.  An instance may be reused for
+ * any number of draws; {@link #solve(int[])} resets it.  The static
+ * {@link #Solve(int[], int)} and {@link #getBestVal(int[], int)} helpers
+ * create a fresh solver per call.
+ * <p/>
+ * The default solver plays the TV show's rules: six numbers and the four
+ * arithmetic operators.  Variant rounds can use up to {@link #MAX_N}
+ * numbers and add {@link #POWER} or {@link #CONCAT} to the operator set.
+ */
 public class CountdownSolver {
-    private static final int N = 6;
-    private static final int expN = 1 << N;
-    private static final int HSIZE = 20000;
-
-    private static int          // Operator symbols
-            CONST = 0, PLUS = 1, MINUS = 2, TIMES = 3, DIVIDE = 4;
-
-    /* Each expression formed is recorded as a `blob'.  These blobs are
-    linked together in three ways: a blob that's labelled with a binary
-    operator is linked to its left and right operands in a binary tree
-    structure.  Also, each blob is put in a linked list with all others
-    that use the same inputs.  Finally, there is a chained hash table
-    that allows us to find all blobs with a certain value. */
-
-    private static class Blob {
-        int op;                 // Operator
-        Blob left, right;       // Left and right operands
-        int val;                // Value of expression
-        int used;               // Bitmap of inputs used
-        Blob next;              // Next blob with same inputs
-        Blob hlink;             // Next blob in same hash chain
-    }
-
-    /* The binary tree structure of blobs is used by |Grind|, which
-    converts an expression to printed form.  The output is simplified by
-    omitting brackets where they are unnecessary because of the
-    priority and associativity of operators.  Thus both of the
-    expressions \verb|(1+2)+3| and \verb|1+(2+3)| will be shown without
-    brackets. */
-
-    private static final char sym[] = { '?', '+', '-', '*', '/' };
-    private static final int pri[] = { 0, 1, 1, 2, 2 };
-    private static final int rpri[] = { 0, 1, 2, 2, 3 };
-
-    /** Pretty-print an expression into a StringBuffer */
-    private static void Walk(Blob e, int p, StringBuffer buf) {
-        if (e.op == CONST)
-            buf.append(e.val);
+    public static final int MAX_N = 10;
+    private static final int HSIZE = 1 << 15;
+    private static final int INITIAL_EXPRS = 1 << 14;
+
+    public static final int           // Operator symbols
+            CONST = 0, PLUS = 1, MINUS = 2, TIMES = 3, DIVIDE = 4,
+            POWER = 5, CONCAT = 6;
+
+    /** Operator sets are bitmaps of the symbols above */
+    public static final int STANDARD = 1 << PLUS | 1 << MINUS | 1 << TIMES | 1 << DIVIDE;
+
+    private static final int NONE = -1;
+
+    private final int N;                // Number of inputs
+    private final int expN;             // Number of sets of inputs
+    private final int words;            // Longs per bitmap of sets
+    private final int ops;              // Operators allowed
+
+    /* Each expression formed is recorded as a row in a set of parallel
+    arrays, indexed by expression number.  An expression that's labelled
+    with a binary operator refers to its left and right operands by
+    number, giving a binary tree structure.  Each expression is also put
+    in a list with all others that use the same inputs, threaded through
+    |next|.  Expressions are numbered in the order they were created. */
+
+    private int op[];                   // Operator
+    private int left[], right[];        // Left and right operands
+    private int val[];                  // Value of expression
+    private int used[];                 // Bitmap of inputs used
+    private int next[];                 // Next expression with same inputs
+    private int count;                  // Number of expressions created
+
+    /* The binary tree structure is used by |Grind|, which converts an
+    expression to printed form.  The output is simplified by omitting
+    brackets where they are unnecessary because of the priority and
+    associativity of operators.  Thus both of the expressions
+    \verb|(1+2)+3| and \verb|1+(2+3)| will be shown without brackets. */
+
+    /* Powers group to the right, so their left operand binds tighter.
+    Concatenation only ever joins two draw numbers. */
+
+    static final char sym[] = { '?', '+', '-', '*', '/', '^', '|' };
+    static final int pri[] = { 0, 1, 1, 2, 2, 3, 4 };
+    static final int lpri[] = { 0, 1, 1, 2, 2, 4, 4 };
+    static final int rpri[] = { 0, 1, 2, 2, 3, 3, 4 };
+
+    /** Pretty-print an expression into a StringBuilder */
+    private void Walk(int e, int p, StringBuilder buf) {
+        if (op[e] == CONST)
+            buf.append(val[e]);
         else {
-            int xp = pri[e.op], rp = rpri[e.op];
+            int xp = pri[op[e]], rp = rpri[op[e]];
             if (xp < p) buf.append('(');
-            Walk(e.left, xp, buf);
-            buf.append(" " + sym[e.op] + " ");
-            Walk(e.right, rp, buf);
+            Walk(left[e], lpri[op[e]], buf);
+            buf.append(' ').append(sym[op[e]]).append(' ');
+            Walk(right[e], rp, buf);
             if (xp < p) buf.append(')');
         }
     }
 
     /** Convert an expression to a string for display */
-    private static String Grind(Blob e) {
-        StringBuffer buf = new StringBuffer();
+    private String Grind(int e) {
+        StringBuilder buf = new StringBuilder();
         Walk(e, 1, buf);
         return buf.toString();
     }
 
+    /** The length |Grind| would produce, without building the string */
+    private int Width(int e, int p) {
+        if (op[e] == CONST)
+            return digits(val[e]);
+        int xp = pri[op[e]];
+        int w = Width(left[e], lpri[op[e]]) + 3 + Width(right[e], rpri[op[e]]);
+        return xp < p ? w + 2 : w;
+    }
+
+    private static int digits(int v) {
+        int d = 1;
+        while (v >= 10) { v /= 10; d++; }
+        return d;
+    }
+
     /* Sets of input numbers are represented by bitmaps, i.e. integers in
-    the range [0..2^N) in which the one bits indicate which
-    numbers are present.  The array entry |pool[s]| shows all the expressions
-    that have been created using the set of inputs |s|. */
-
-    private static Blob pool[] = new Blob[expN];
-
-    /* For each possible value |val|, we keep track of all the expressions
-    with value |val| that have been created: they are kept in a linked
-    list starting at |htable[val % HSIZE]|, together (of course) with
-    others that hash to the same bucket.  We've chosen |HSIZE| large
-    enough that such collisions will rarely happen.
-    The purpose of this hash table is to make it easy to avoid creating
-    a `useless' expression if another with the same value already
-    exists and uses no inputs that the new one would not use.  This
-    speeds up the search immensely. */
-
-    private static Blob htable[] = new Blob[HSIZE];
-
-    /* As we generate expressions, we keep track of the best answer seen
-    so far: an expression that comes closest to the target, and of the
-    expressions that are that close, the one that is the shortest when
-    printed. We don't guarantee to produce the shortest of all, because
-    some expressions are discarded as useless. */
-
-    private static int target;
-    private static String best;
-    private static int bestval, bestdist;
-
-    /** Try to create a new blob with specified operator and arguments */
-    private static void Add(int op, Blob p, Blob q, int val, int used) {
-        /* Return immediately if the expression is useless */
-        for (Blob r = htable[val % HSIZE]; r != null; r = r.hlink) {
-            if (r.val == val && (r.used & ~used) == 0)
-                return;
+    the range [0..2^N) in which the one bits indicate which numbers are
+    present.  The array entry |pool[s]| is the most recently created
+    expression using the set of inputs |s|, or |NONE|. */
+
+    private final int pool[];
+
+    /* For each value |val| that has been created, we keep track of the
+    sets of inputs that produce it.  There are |2^N| such sets, so they
+    fit in a bitmap of |words| longs (a single long for up to six inputs).
+    The values live in an open-addressing table; values are always
+    positive, so a zero key marks an empty slot.  Each slot holds the
+    value's ordinal, and the bitmaps are stored densely by ordinal, so
+    the empty half of the table costs no bitmap space however large N
+    makes them.
+    The purpose of this table is to make it easy to avoid creating a
+    `useless' expression if another with the same value already exists
+    and uses no inputs that the new one would not use.  With the bitmap
+    that test is an AND against |submasks[used]|, the set of all subsets
+    of |used|, a word at a time.  This speeds up the search immensely,
+    and matters more the larger N gets. */
+
+    private int hkeys[];
+    private int hords[];
+    private long hsets[];
+    private int hcount;
+
+    private final long submasks[];
+
+    /**
+     * A solver for the standard game: six numbers, + - * /.
+     */
+    public CountdownSolver() {
+        this(6, STANDARD);
+    }
+
+    /**
+     * A solver for a variant round.
+     * @param n how many numbers are drawn, 1 to {@link #MAX_N}
+     * @param operators bitmap of the operators allowed, e.g.
+     *        {@code STANDARD | 1 << POWER}
+     */
+    public CountdownSolver(int n, int operators) {
+        this(n, operators, HSIZE);
+    }
+
+    /**
+     * @param n how many numbers are drawn, 1 to {@link #MAX_N}
+     * @param operators bitmap of the operators allowed
+     * @param tableSize initial slots in the value table; it grows as
+     *        needed, but a good guess saves rehashing on large draws
+     */
+    public CountdownSolver(int n, int operators, int tableSize) {
+        if (n < 1 || n > MAX_N)
+            throw new IllegalArgumentException("can't solve for " + n + " numbers");
+        if ((operators & ~(STANDARD | 1 << POWER | 1 << CONCAT)) != 0)
+            throw new IllegalArgumentException("unknown operators " + Integer.toBinaryString(operators));
+        N = n;
+        expN = 1 << n;
+        words = (expN + 63) >> 6;
+        ops = operators;
+        pool = new int[expN];
+        submasks = submasks(n);
+        stages = stages(n);
+        op = new int[INITIAL_EXPRS];
+        left = new int[INITIAL_EXPRS];
+        right = new int[INITIAL_EXPRS];
+        val = new int[INITIAL_EXPRS];
+        used = new int[INITIAL_EXPRS];
+        next = new int[INITIAL_EXPRS];
+        int size = Integer.highestOneBit(Math.max(tableSize, 16) - 1) << 1;
+        hkeys = new int[size];
+        hords = new int[size];
+        hsets = new long[size / 2 * words];
+    }
+
+    /* The bitmaps of subsets are the same for every solver of a given
+    size, so they are built once and shared */
+    private static final long submaskCache[][] = new long[MAX_N + 1][];
+
+    private static synchronized long[] submasks(int n) {
+        if (submaskCache[n] == null) {
+            int expN = 1 << n, words = (expN + 63) >> 6;
+            long subs[] = new long[expN * words];
+            for (int s = 0; s < expN; s++)
+                for (int t = s; ; t = (t - 1) & s) {
+                    subs[s * words + (t >> 6)] |= 1L << t;
+                    if (t == 0) break;
+                }
+            submaskCache[n] = subs;
         }
+        return submaskCache[n];
+    }
+
+    /** Find the slot holding |v|, or the empty slot where it would go */
+    private int slot(int v) {
+        int mask = hkeys.length - 1;
+        int h = (v * 0x9E3779B1) >>> 7 & mask;
+        while (hkeys[h] != 0 && hkeys[h] != v)
+            h = (h + 1) & mask;
+        return h;
+    }
 
-        /* Create the expression and add it to |pool| and |htable| */
-        Blob t = new Blob();
-        t.op = op; t.left = p; t.right = q; t.val = val; t.used = used;
-        t.next = pool[used]; pool[used] = t;
-        t.hlink = htable[val % HSIZE]; htable[val % HSIZE] = t;
-
-        /* See if the new expression comes near the target */
-        int dist = Math.abs(val - target);
-        if (dist <= bestdist) {
-            String temp = Grind(t);
-            if (dist < bestdist || temp.length() < best.length()) {
-                bestval = val; bestdist = dist; best = temp;
+    private void growTable() {
+        int oldKeys[] = hkeys, oldOrds[] = hords;
+        hkeys = new int[oldKeys.length * 2];
+        hords = new int[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int h = slot(oldKeys[i]);
+                hkeys[h] = oldKeys[i];
+                hords[h] = oldOrds[i];
             }
         }
+        hsets = Arrays.copyOf(hsets, hkeys.length / 2 * words);
+    }
+
+    /** Does some subset of |u| already make the value in slot |h|? */
+    private boolean useless(int h, int u) {
+        if (hkeys[h] == 0) return false;
+        int hs = hords[h] * words, us = u * words;
+        for (int k = 0; k < words; k++)
+            if ((hsets[hs + k] & submasks[us + k]) != 0) return true;
+        return false;
+    }
+
+    private void growExprs() {
+        int n = op.length * 2;
+        op = Arrays.copyOf(op, n);
+        left = Arrays.copyOf(left, n);
+        right = Arrays.copyOf(right, n);
+        val = Arrays.copyOf(val, n);
+        used = Arrays.copyOf(used, n);
+        next = Arrays.copyOf(next, n);
+    }
+
+    /** Try to create a new expression with specified operator and arguments */
+    private void Add(int o, int p, int q, int v, int u) {
+        int h = slot(v);
+
+        /* Return immediately if the expression is useless */
+        if (useless(h, u))
+            return;
+
+        /* Record the expression and add it to |pool| and the value table */
+        if (count == op.length) growExprs();
+        int t = count++;
+        op[t] = o; left[t] = p; right[t] = q; val[t] = v; used[t] = u;
+        next[t] = pool[u]; pool[u] = t;
+
+        if (hkeys[h] == 0) {
+            hkeys[h] = v;
+            hords[h] = hcount;
+            if (++hcount * 2 > hkeys.length) {
+                growTable();
+                h = slot(v);
+            }
+        }
+        hsets[hords[h] * words + (u >> 6)] |= 1L << u;
     }
 
     /* The |Combine| procedure combines the contents of |pool[r]| with the
     contents of |pool[s]| using every possible operator.  The results are
-    entered into the pool for the set union of |r| and |s|.
+    entered into the pool for the set union of |r| and |s|, or, when |out|
+    is given, collected there to be entered later.
     To speed the search, we do not allow expressions of the form $E_1+E_2$
     where the value of $E_1$ is smaller than the value of $E_2$; the
-    equivalent expression $E_2+E_1$ renders this one useless anyway */
-
-    private static void Combine(int r, int s) {
-        int used = r | s;
-        for (Blob p = pool[r]; p != null; p = p.next) {
-            for (Blob q = pool[s]; q != null; q = q.next) {
-                if (p.val >= q.val) {
-                    Add(PLUS, p, q, p.val+q.val, used);
-                    if (p.val > q.val) Add(MINUS, p, q, p.val-q.val, used);
-                    Add(TIMES, p, q, p.val*q.val, used);
-                    if (q.val > 0 && p.val%q.val == 0)
-                        Add(DIVIDE, p, q, p.val/q.val, used);
+    equivalent expression $E_2+E_1$ renders this one useless anyway.
+    Multiplying, dividing or raising to the power of one gives back a
+    value the left operand already has with fewer inputs, so those are
+    not even tried.  Values that would overflow an int are dropped. */
+
+    private void Combine(int r, int s, Candidates out) {
+        int u = r | s;
+        for (int p = pool[r]; p != NONE; p = next[p]) {
+            int pv = val[p];
+            for (int q = pool[s]; q != NONE; q = next[q]) {
+                int qv = val[q];
+                if (pv >= qv) {
+                    if ((ops & 1 << PLUS) != 0)
+                        Emit(PLUS, p, q, (long)pv+qv, u, out);
+                    if (pv > qv && (ops & 1 << MINUS) != 0)
+                        Emit(MINUS, p, q, pv-qv, u, out);
+                    if (qv > 1) {
+                        if ((ops & 1 << TIMES) != 0)
+                            Emit(TIMES, p, q, (long)pv*qv, u, out);
+                        if (pv%qv == 0 && (ops & 1 << DIVIDE) != 0)
+                            Emit(DIVIDE, p, q, pv/qv, u, out);
+                        if ((ops & 1 << POWER) != 0) {
+                            Emit(POWER, p, q, power(pv, qv), u, out);
+                            Emit(POWER, q, p, power(qv, pv), u, out);
+                        }
+                    }
+                    if (op[p] == CONST && op[q] == CONST && (ops & 1 << CONCAT) != 0) {
+                        Emit(CONCAT, p, q, concat(pv, qv), u, out);
+                        Emit(CONCAT, q, p, concat(qv, pv), u, out);
+                    }
                 }
             }
         }
     }
 
+    private void Emit(int o, int p, int q, long v, int u, Candidates out) {
+        if (v > Integer.MAX_VALUE)
+            return;
+        if (out == null)
+            Add(o, p, q, (int)v, u);
+        else if (!useless(slot((int)v), u))
+            out.add(o, p, q, (int)v);
+    }
+
+    /** a^b, or a value too large for an int if it overflows */
+    private static long power(int a, int b) {
+        long x = 1;
+        for (int i = 0; i < b; i++)
+            if ((x *= a) > Integer.MAX_VALUE) return x;
+        return x;
+    }
+
+    /** The digits of a followed by the digits of b */
+    private static long concat(int a, int b) {
+        long scale = 10;
+        while (scale <= b) scale *= 10;
+        return a * scale + b;
+    }
+
+    /* In parallel mode the pairs of pools for a stage are shared out among
+    the threads of a ForkJoinPool.  Nothing is written to the pools or the
+    value table until every pair is done, so the table can be read without
+    locking to throw away candidates that are already useless; the table
+    only ever gains entries, so they would be useless later too.  The
+    survivors are then entered with |Add| in the order the sequential
+    search would have produced them, which makes the result identical. */
+
+    private static final class Candidates {
+        int op[] = new int[64], left[] = new int[64], right[] = new int[64], val[] = new int[64];
+        int count;
+
+        void add(int o, int p, int q, int v) {
+            if (count == op.length) {
+                int n = count * 2;
+                op = Arrays.copyOf(op, n); left = Arrays.copyOf(left, n);
+                right = Arrays.copyOf(right, n); val = Arrays.copyOf(val, n);
+            }
+            op[count] = o; left[count] = p; right[count] = q; val[count] = v;
+            count++;
+        }
+    }
+
+    private final class Stage extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final int pairs[][];
+        final transient Candidates found[];     // tasks are never serialized
+        final int lo, hi;
+
+        Stage(int pairs[][], Candidates found[], int lo, int hi) {
+            this.pairs = pairs; this.found = found; this.lo = lo; this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo == 1) {
+                found[lo] = new Candidates();
+                Combine(pairs[lo][0], pairs[lo][1], found[lo]);
+            } else {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Stage(pairs, found, lo, mid), new Stage(pairs, found, mid, hi));
+            }
+        }
+    }
+
     /* The search algorithm works by starting with just the input numbers,
     and successively forming all expressions using 2, 3,~\dots input numbers.
     Each expression with $i$ inputs can be obtained by combining two
@@ -145,48 +386,160 @@ public class CountdownSolver {
     |ones[r]+ones[s]=i| and |r| and |s| are disjoint. */
 
     /* Set up a table of bitcounts in |ones| */
-    private static int ones[] = new int[expN];
+    private static final int ones[] = new int[1 << MAX_N];
 
     static {
         // This uses the recurrence ones[i+2^n] = ones[i] + 1
         ones[0] = 0;
-        for (int i = 0; i < N; i++) {
+        for (int i = 0; i < MAX_N; i++) {
             int t = 1 << i;
             for (int r = 0; r < t; r++) ones[t+r] = ones[r]+1;
         }
     }
 
-    private static void solve(int draw[], int target) {
-        CountdownSolver.target = target;
-        bestdist = 1000000;
+    /* |stages[i]| lists the disjoint pairs |(r, s)| with |ones[r]+ones[s]=i|,
+    in the order the search combines them.  Only subsets of the
+    complement of |r| are visited, in ascending order, so building the
+    lists stays cheap as N grows. */
+    private final int stages[][][];
+
+    private static final int stageCache[][][][] = new int[MAX_N + 1][][][];
+
+    private static synchronized int[][][] stages(int n) {
+        if (stageCache[n] == null) {
+            int expN = 1 << n;
+            int stages[][][] = new int[n + 1][][];
+            for (int i = 2; i <= n; i++) {
+                List<int[]> pairs = new ArrayList<int[]>();
+                for (int r = 1; r < expN; r++) {
+                    int rest = (expN - 1) & ~r;
+                    for (int s = rest & -rest; s != 0; s = (s - rest) & rest)
+                        if (ones[r] + ones[s] == i)
+                            pairs.add(new int[] { r, s });
+                }
+                stages[i] = pairs.toArray(new int[pairs.size()][]);
+            }
+            stageCache[n] = stages;
+        }
+        return stageCache[n];
+    }
 
-        /* Empty the hash table and pools */
-        for (int i = 0; i < HSIZE; i++) htable[i] = null;
-        for (int r = 0; r < expN; r++) pool[r] = null;
+    /**
+     * Build every useful expression for the draw.  None of this depends on
+     * the target, so any number of targets can be queried afterwards.
+     * @param draw the N source numbers
+     * @throws IllegalArgumentException if there aren't N of them
+     */
+    public void solve(int draw[]) {
+        solve(draw, null);
+    }
+
+    /**
+     * Build every useful expression for the draw, sharing the work of each
+     * stage among the threads of a ForkJoinPool.  The result is identical
+     * to the sequential search.
+     * @param draw the N source numbers
+     * @param workers the pool to run in, or null to search on this thread
+     */
+    public void solve(int draw[], ForkJoinPool workers) {
+        if (draw.length != N)
+            throw new IllegalArgumentException("need " + N + " numbers, got " + draw.length);
+
+        /* Empty the value table and pools */
+        count = 0;
+        Arrays.fill(hkeys, 0);
+        Arrays.fill(hsets, 0, hcount * words, 0L);
+        hcount = 0;
+        Arrays.fill(pool, NONE);
 
         /* Plant the draw numbers as seeds */
         for (int i = 0; i < N; i++)
-            Add(CONST, null, null, draw[i], 1 << i);
+            Add(CONST, NONE, NONE, draw[i], 1 << i);
 
         /* Combine using up to N-1 operations */
         for (int i = 2; i <= N; i++) {
             /* Combine disjoint pools that together use |i| inputs */
-            for (int r = 1; r < expN; r++) {
-                for (int s = 1; s < expN; s++) {
-                    if (ones[r] + ones[s] == i && (r & s) == 0)
-                        Combine(r, s);
+            int pairs[][] = stages[i];
+            if (workers == null) {
+                for (int pair[] : pairs)
+                    Combine(pair[0], pair[1], null);
+            } else {
+                Candidates found[] = new Candidates[pairs.length];
+                workers.invoke(new Stage(pairs, found, 0, pairs.length));
+                for (int k = 0; k < pairs.length; k++) {
+                    Candidates c = found[k];
+                    int u = pairs[k][0] | pairs[k][1];
+                    for (int j = 0; j < c.count; j++)
+                        Add(c.op[j], c.left[j], c.right[j], c.val[j], u);
                 }
             }
         }
     }
 
-    public static String Solve(int draw[], int target) {
-        solve( draw, target);
+    /* The best answer for a target is an expression that comes closest to
+    it, and of the expressions that are that close, the one that is the
+    shortest when printed; ties go to the expression created first.  We
+    don't guarantee to produce the shortest of all, because some
+    expressions are discarded as useless. */
+
+    private int best(int target) {
+        int best = NONE, bestdist = Integer.MAX_VALUE, bestlen = 0;
+        for (int e = 0; e < count; e++) {
+            int dist = Math.abs(val[e] - target);
+            if (dist < bestdist) {
+                best = e; bestdist = dist; bestlen = Width(e, 1);
+            } else if (dist == bestdist) {
+                int len = Width(e, 1);
+                if (len < bestlen) { best = e; bestlen = len; }
+            }
+        }
+        return best;
+    }
 
+    /**
+     * The closest value to the target that the last draw can reach.
+     * @param target
+     * @return
+     */
+    public int bestVal(int target) {
+        return val[best(target)];
+    }
+
+    /**
+     * Describe the best answer to the target for the last draw, e.g.
+     * "812 = (75 + 6) * 10 + 2".
+     * @param target
+     * @return
+     */
+    public String describe(int target) {
+        int e = best(target);
+        int bestval = val[e], bestdist = Math.abs(bestval - target);
         if (bestdist == 0)
-            return target + " = " + best;
+            return target + " = " + Grind(e);
         else
-            return bestval + " = " + best + " (off by " + bestdist + ")";
+            return bestval + " = " + Grind(e) + " (off by " + bestdist + ")";
+    }
+
+    /**
+     * Bitmap of every value below the limit that the last draw can reach:
+     * bit v of word v/64 is set when some expression has value v.
+     * @param limit
+     * @return
+     */
+    public long[] reachable(int limit) {
+        long bits[] = new long[(limit + 63) >> 6];
+        for (int i = 0; i < hkeys.length; i++) {
+            int v = hkeys[i];
+            if (v > 0 && v < limit)
+                bits[v >> 6] |= 1L << v;
+        }
+        return bits;
+    }
+
+    public static String Solve(int draw[], int target) {
+        CountdownSolver solver = new CountdownSolver();
+        solver.solve(draw);
+        return solver.describe(target);
     }
 
     /**
@@ -196,8 +549,8 @@ public class CountdownSolver {
      * @return
      */
     public static int getBestVal( int draw[], int target ) {
-        solve( draw, target);
-        return bestval;
+        CountdownSolver solver = new CountdownSolver();
+        solver.solve(draw);
+        return solver.bestVal(target);
     }
 }
-
@@ -0,0 +1,288 @@
+package org.goat.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Precomputed answers for every standard Countdown numbers draw.
+ * <p/>
+ * A standard draw is one or two of the big numbers (25 50 75 100) plus
+ * small numbers from two each of 1..10, six numbers in all, which gives
+ * 9498 distinct draws.  For each draw the table holds a bitmap of every
+ * value below {@link #LIMIT} that can be made, so the best answer for any
+ * target is the nearest set bit: no solver run is needed until somebody
+ * wants to see the expression.
+ * <p/>
+ * The file is memory-mapped read-only, so the table costs no heap and can
+ * be shared by any number of threads.  Build it offline with
+ * <pre>
+ *   java -cp target/classes org.goat.util.CountdownTable resources/countdown.table
+ * </pre>
+ * or {@code clj -T:build countdown-table}, which takes a few seconds per
+ * core.  {@code clj -T:build uber} builds it into the uberjar.  See
+ * {@link #load()} for where it's looked for at runtime.
+ * <p/>
+ * Layout (big-endian): magic, draw count, words per draw, padding; then
+ * the sorted draw keys as longs; then the bitmaps, {@link #WORDS} longs
+ * per draw in key order.
+ */
+public class CountdownTable {
+    private static final int MAGIC = 0x43445431;        // "CDT1"
+
+    /** System property naming the table file, overriding the classpath */
+    public static final String PATH_PROPERTY = "goat.countdown.table";
+
+    /** Where the table is on the classpath */
+    public static final String RESOURCE = "/countdown.table";
+    private static final int HEADER = 16;
+
+    public static final int MIN_TARGET = 101, MAX_TARGET = 999;
+
+    /* Every standard draw contains a number of at most 100, so the value
+    nearest to any target up to 999 is never more than 1998. */
+    private static final int LIMIT = 2048;
+    private static final int WORDS = LIMIT / 64;
+
+    private static final int BIG[] = { 25, 50, 75, 100 };
+    private static final int SMALL_KINDS = 10, SMALL_COPIES = 2;
+    private static final int DRAW_SIZE = 6;
+
+    private final int n;
+    private final LongBuffer keys;
+    private final LongBuffer bits;
+
+    private CountdownTable(ByteBuffer buf) throws IOException {
+        if (buf.capacity() < HEADER || buf.getInt(0) != MAGIC || buf.getInt(8) != WORDS)
+            throw new IOException("not a countdown table");
+        n = buf.getInt(4);
+        if (buf.capacity() != HEADER + (long)n * 8 * (WORDS + 1))
+            throw new IOException("countdown table is truncated");
+        keys = buf.slice(HEADER, n * 8).asLongBuffer();
+        bits = buf.slice(HEADER + n * 8, n * 8 * WORDS).asLongBuffer();
+    }
+
+    /**
+     * Map a table file into memory.
+     * @param path
+     * @return
+     * @throws IOException if the file is missing or not a table
+     */
+    public static CountdownTable open(String path) throws IOException {
+        try (FileChannel ch = FileChannel.open(Path.of(path), StandardOpenOption.READ)) {
+            return new CountdownTable(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
+
+    /**
+     * Load a table from a URL: mapped if it's a plain file, otherwise, as
+     * for a resource inside a jar, read into memory.
+     * @param url
+     * @return
+     * @throws IOException if it can't be read or is not a table
+     */
+    public static CountdownTable open(URL url) throws IOException {
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return open(Path.of(url.toURI()).toString());
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+        }
+        try (InputStream in = url.openStream()) {
+            return new CountdownTable(ByteBuffer.wrap(in.readAllBytes()));
+        }
+    }
+
+    /**
+     * Load the table from the file named by the {@link #PATH_PROPERTY}
+     * system property if it's set, otherwise from {@link #RESOURCE} on the
+     * classpath: resources/ when running from the source tree, or the
+     * uberjar.
+     * @return
+     * @throws IOException if there's no table, or it is not one
+     */
+    public static CountdownTable load() throws IOException {
+        String path = System.getProperty(PATH_PROPERTY);
+        if (path != null) return open(path);
+        URL url = CountdownTable.class.getResource(RESOURCE);
+        if (url == null)
+            throw new FileNotFoundException(RESOURCE + " is not on the classpath; generate it with"
+                    + " clj -T:build countdown-table, or set -D" + PATH_PROPERTY);
+        return open(url);
+    }
+
+    /** Order-independent key for a draw: the sorted numbers, a byte each */
+    private static long key(int draw[]) {
+        if (draw.length > 8) return -1;
+        int sorted[] = draw.clone();
+        Arrays.sort(sorted);
+        long k = 0;
+        for (int v : sorted) {
+            if (v <= 0 || v > 255) return -1;
+            k = k << 8 | v;
+        }
+        return k;
+    }
+
+    /** Offset of the draw's bitmap, or -1 if it isn't a standard draw */
+    private int find(int draw[]) {
+        long k = key(draw);
+        int lo = 0, hi = n - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long m = keys.get(mid);
+            if (m < k) lo = mid + 1;
+            else if (m > k) hi = mid - 1;
+            else return mid * WORDS;
+        }
+        return -1;
+    }
+
+    /**
+     * The closest value to the target that the draw can reach.  When values
+     * either side are equally close the lower one is returned.
+     * @param draw
+     * @param target
+     * @return the value, or -1 if the draw or target is outside the table
+     */
+    public int bestVal(int draw[], int target) {
+        int base = find(draw);
+        if (base < 0 || target < 0 || target >= LIMIT) return -1;
+
+        /* Nearest set bit at or below the target */
+        int below = -1;
+        int w = target >> 6;
+        long x = bits.get(base + w) & (-1L >>> (63 - (target & 63)));
+        while (x == 0 && w > 0) x = bits.get(base + --w);
+        if (x != 0) below = (w << 6) + 63 - Long.numberOfLeadingZeros(x);
+        if (below == target) return target;
+
+        /* Nearest set bit above it */
+        int above = -1;
+        w = target >> 6;
+        x = bits.get(base + w) & (-1L << (target & 63));
+        while (x == 0 && w < WORDS - 1) x = bits.get(base + ++w);
+        if (x != 0) above = (w << 6) + Long.numberOfTrailingZeros(x);
+
+        if (above < 0) return below;
+        if (below < 0) return above;
+        return target - below <= above - target ? below : above;
+    }
+
+    /**
+     * Can the target be made exactly?
+     * @param draw
+     * @param target
+     * @return
+     */
+    public boolean isSolvable(int draw[], int target) {
+        int base = find(draw);
+        return base >= 0 && target >= 0 && target < LIMIT
+                && (bits.get(base + (target >> 6)) & 1L << target) != 0;
+    }
+
+    /**
+     * Every target in the standard range that the draw can make exactly.
+     * @param draw
+     * @return the targets in ascending order, or null if the draw is not
+     *         in the table
+     */
+    public int[] solvableTargets(int draw[]) {
+        int base = find(draw);
+        if (base < 0) return null;
+        int out[] = new int[MAX_TARGET - MIN_TARGET + 1];
+        int k = 0;
+        for (int t = MIN_TARGET; t <= MAX_TARGET; t++)
+            if ((bits.get(base + (t >> 6)) & 1L << t) != 0) out[k++] = t;
+        return Arrays.copyOf(out, k);
+    }
+
+    /** Number of draws in the table */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * Every distinct standard draw, each sorted ascending.
+     * @return
+     */
+    public static int[][] standardDraws() {
+        List<int[]> draws = new ArrayList<int[]>();
+        for (int bigs = 1; bigs <= 2; bigs++)
+            for (int mask = 0; mask < 1 << BIG.length; mask++)
+                if (Integer.bitCount(mask) == bigs)
+                    smallDraws(mask, new int[SMALL_KINDS], 0, DRAW_SIZE - bigs, draws);
+        return draws.toArray(new int[draws.size()][]);
+    }
+
+    /* Choose how many copies of each small number to take, then emit */
+    private static void smallDraws(int bigmask, int counts[], int kind, int left, List<int[]> out) {
+        if (kind == SMALL_KINDS) {
+            if (left > 0) return;
+            int draw[] = new int[DRAW_SIZE];
+            int k = 0;
+            for (int i = 0; i < SMALL_KINDS; i++)
+                for (int c = 0; c < counts[i]; c++) draw[k++] = i + 1;
+            for (int i = 0; i < BIG.length; i++)
+                if ((bigmask & 1 << i) != 0) draw[k++] = BIG[i];
+            out.add(draw);
+            return;
+        }
+        for (int c = 0; c <= SMALL_COPIES && c <= left; c++) {
+            counts[kind] = c;
+            smallDraws(bigmask, counts, kind + 1, left - c, out);
+        }
+        counts[kind] = 0;
+    }
+
+    /**
+     * Solve every standard draw and write the table.
+     * @param path
+     * @throws IOException
+     */
+    public static void generate(String path) throws IOException {
+        int draws[][] = standardDraws();
+        Arrays.sort(draws, (a, b) -> Long.compare(key(a), key(b)));
+
+        ThreadLocal<CountdownSolver> solvers = ThreadLocal.withInitial(CountdownSolver::new);
+        long maps[][] = new long[draws.length][];
+        IntStream.range(0, draws.length).parallel().forEach(i -> {
+            CountdownSolver solver = solvers.get();
+            solver.solve(draws[i]);
+            maps[i] = solver.reachable(LIMIT);
+        });
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(draws.length);
+            out.writeInt(WORDS);
+            out.writeInt(0);
+            for (int draw[] : draws) out.writeLong(key(draw));
+            for (long map[] : maps)
+                for (long word : map) out.writeLong(word);
+        }
+    }
+
+    public static void main(String args[]) throws IOException {
+        String path = args.length > 0 ? args[0] : "resources/countdown.table";
+        long start = System.currentTimeMillis();
+        generate(path);
+        System.out.println("wrote " + path + " in " + (System.currentTimeMillis() - start) + "ms");
+    }
+}
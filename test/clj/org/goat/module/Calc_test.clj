@@ -1,52 +1,211 @@
 (ns org.goat.module.Calc-test
   (:require [clojure.test :refer :all]
             [org.goat.module.Calc :as sut]
-            [org.goat.testutils.message :as msg-utils]))
+            [org.goat.testutils.message :as msg-utils])
+  (:import [org.goat.jcalc CalculatorSessions ComputeBudget$Exceeded]))
 
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
 ;; EVALUATION TESTS ;;;;;;;;;;;;;;;;;;;;;;
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
 
-(deftest test-evaluate-with-timeout-basic-arithmetic
+(deftest test-evaluate-basic-arithmetic
   (testing "Basic arithmetic operations"
-    (is (= "5" (#'sut/evaluate-with-timeout "2+3")))
-    (is (= "10" (#'sut/evaluate-with-timeout "2*5")))
-    (is (= "4" (#'sut/evaluate-with-timeout "12/3")))
-    (is (= "7" (#'sut/evaluate-with-timeout "10-3")))))
+    (is (= "5" (#'sut/evaluate "2+3")))
+    (is (= "10" (#'sut/evaluate "2*5")))
+    (is (= "4" (#'sut/evaluate "12/3")))
+    (is (= "7" (#'sut/evaluate "10-3")))))
 
-(deftest test-evaluate-with-timeout-complex-expressions
+(deftest test-evaluate-complex-expressions
   (testing "Complex mathematical expressions"
-    (is (= "14" (#'sut/evaluate-with-timeout "(2+3)*2+4")))
-    (is (= "25" (#'sut/evaluate-with-timeout "5^2")))
-    (is (= "120" (#'sut/evaluate-with-timeout "5!")))))
+    (is (= "14" (#'sut/evaluate "(2+3)*2+4")))
+    (is (= "25" (#'sut/evaluate "5^2")))
+    (is (= "120" (#'sut/evaluate "5!")))))
 
-(deftest test-evaluate-with-timeout-floating-point
+(deftest test-evaluate-floating-point
   (testing "Floating point calculations"
-    (let [result (#'sut/evaluate-with-timeout "10/3")]
+    (let [result (#'sut/evaluate "10/3")]
       (is (re-find #"3\.3+" result)))))
 
-(deftest test-evaluate-with-timeout-functions
+(deftest test-evaluate-functions
   (testing "Mathematical functions work (sin uses radians)"
     ;; sin(90 radians) is approximately 0.894
-    (let [result (#'sut/evaluate-with-timeout "sin(90)")]
+    (let [result (#'sut/evaluate "sin(90)")]
       (is (string? result))
       (is (re-find #"^\-?0?\.\d+" result)))
     ;; cos(0) = 1
-    (is (= "1" (#'sut/evaluate-with-timeout "cos(0)")))))
-
-(deftest test-evaluate-with-timeout-invalid-expression
+    (is (= "1" (#'sut/evaluate "cos(0)"))))
+  (testing "Averages and rounding round half up"
+    (is (re-find #"^1\.3333+$" (#'sut/evaluate "avg(1, 1, 2)")))
+    (is (= "3" (#'sut/evaluate "round(2.5)")))
+    (is (= "-3" (#'sut/evaluate "round(-2.5)")))))
+
+(deftest test-evaluate-logs-and-exponentials
+  (testing "ln, log and exp"
+    (is (= "1" (#'sut/evaluate "ln(e)")))
+    (is (= "3" (#'sut/evaluate "log(1000)")))
+    (is (= "7" (#'sut/evaluate "exp(ln(7))")))
+    (is (re-find #"^2\.718281828" (#'sut/evaluate "exp(1)"))))
+  (testing "Big angles are reduced before the series"
+    (is (re-find #"^-0?\.6452512852" (#'sut/evaluate "sin(10^20)"))))
+  (testing "The log of a huge number only works on its leading digits"
+    (is (re-find #"^2302582\.7904089526899723" (#'sut/evaluate "ln(10^999999)"))))
+  (testing "Exponentials too big to work out are refused before they start"
+    (is (= "I'm not thinking that hard, wanker." (#'sut/evaluate "exp(100000)")))
+    (is (thrown? ComputeBudget$Exceeded
+                 (.evaluate (CalculatorSessions.) nil "exp(100000)")))))
+
+(deftest test-evaluate-square-roots
+  (testing "Square roots, exact and otherwise"
+    (is (re-find #"^1\.4142135623730950488" (#'sut/evaluate "sqrt(2)")))
+    (is (= "2" (#'sut/evaluate "sqrt(2)^2")))
+    (is (= ".01" (#'sut/evaluate "sqrt(0.0001)")))
+    (is (= (apply str "1" (repeat 200 "0")) (#'sut/evaluate "sqrt(10^400)")))))
+
+(deftest test-evaluate-powers
+  (testing "Real exponents"
+    (is (re-find #"^1\.4142135623730950488" (#'sut/evaluate "2^0.5")))
+    (is (re-find #"^\.8164965809277260327" (#'sut/evaluate "(2/3)^0.5")))
+    (is (= "2" (#'sut/evaluate "4^0.5"))))
+  (testing "Negative numbers only take whole powers"
+    (is (= "-8" (#'sut/evaluate "(-2)^3")))
+    (is (= "negative numbers can't be raised to non-integer powers"
+           (#'sut/evaluate "(-8)^0.5"))))
+  (testing "Answers with too many digits are refused"
+    (is (= "the answer would have more than 1000000 digits"
+           (#'sut/evaluate "10^1000001"))))
+  (testing "Big whole powers are worked out within the budget"
+    (let [result (#'sut/evaluate "2^100000")]
+      (is (.startsWith result "30103 digits:  9990020930"))
+      (is (.endsWith result "9883109376")))))
+
+(deftest test-evaluate-invalid-expression
   (testing "Invalid expression returns error message"
-    (let [result (#'sut/evaluate-with-timeout "2++3")]
+    (let [result (#'sut/evaluate "2++3")]
       (is (string? result))
-      (is (not (empty? result))))))
+      (is (not (empty? result)))))
+  (testing "So does zero to a negative power"
+    (doseq [expr ["0^-1" "0.0^-1" "(1-1)^-1"]]
+      (is (= "illegal divide by zero" (#'sut/evaluate expr))))))
 
-(deftest test-evaluate-with-timeout-division-by-zero
+(deftest test-evaluate-division-by-zero
   (testing "Division by zero returns a result (Infinity or error)"
-    (let [result (#'sut/evaluate-with-timeout "5/0")]
+    (let [result (#'sut/evaluate "5/0")]
       ;; Calculator might return "Infinity" or an error message
       (is (string? result))
       (is (not (empty? result))))))
 
+(deftest test-evaluate-repeated
+  (testing "Repeated expressions are parsed once and give the same answer"
+    (let [hits (.getCacheHits sut/sessions)]
+      (is (= "42" (#'sut/evaluate "6 * 7")))
+      (is (= "42" (#'sut/evaluate "6*7")))
+      (is (= "42" (#'sut/evaluate "6 * 7")))
+      (is (<= (+ hits 2) (.getCacheHits sut/sessions))))))
+
+(deftest test-evaluate-optimised
+  (testing "Rewritten forms give the same answers"
+    (is (= "2.25" (#'sut/evaluate "1.5^2")))
+    (is (= ".007" (#'sut/evaluate "7/1000")))
+    (is (= "9900" (#'sut/evaluate "100!/98!")))
+    (is (re-find #"^\.0075757575" (#'sut/evaluate "10!/12!"))))
+  (testing "n!/k! only multiplies the numbers between them"
+    (is (= "200000" (#'sut/evaluate "200000!/199999!")))
+    (is (= "20236497751500" (#'sut/evaluate "sum(n!/(n-3)!, n, 3, 3000)")))))
+
+(deftest test-evaluate-dirty-rounding
+  (testing "Rounding errors in the last places are cleaned up"
+    (is (= "1" (#'sut/evaluate "1/3*3")))
+    (is (= "-1" (#'sut/evaluate "-(1/3)*3")))
+    (is (= "1E-10" (#'sut/evaluate "1/10^10"))))
+  (testing "Comparisons are lazy"
+    (is (= "true" (#'sut/evaluate "-1/3*3==-1")))
+    (is (= "true" (#'sut/evaluate "0.00000001==1/10^8")))))
+
+(deftest test-evaluate-exact-fractions
+  (testing "Fractions stay exact until the answer is printed"
+    (is (= "0" (#'sut/evaluate "(1/3*3-1)*10^64")))
+    (is (= "7" (#'sut/evaluate "1/(1/7)")))
+    (is (= ".5" (#'sut/evaluate "1/3+1/6")))
+    (is (re-find #"^\.6666666666" (#'sut/evaluate "2/3")))))
+
+(deftest test-evaluate-per-chat-history
+  (testing "Each chat has its own ans history"
+    (is (= "4" (#'sut/evaluate -101 "2+2")))
+    (is (= "6" (#'sut/evaluate -102 "3+3")))
+    (is (= "40" (#'sut/evaluate -101 "ans(1)*10")))
+    (is (= "60" (#'sut/evaluate -102 "ans(1)*10")))
+    (is (= "4" (#'sut/evaluate -101 "ans(2)")))))
+
+(deftest test-evaluate-big-factorials
+  (testing "Big factorials are worked out in time, and summarised"
+    (let [result (#'sut/evaluate "50000!")]
+      (is (.startsWith result "213237 digits:  3347320509"))
+      (is (re-find #"…0{60}$" result))
+      (is (< (count result) 256))))
+  (testing "All the digits are given when asked for"
+    (let [result (#'sut/evaluate nil "50000!" true)]
+      (is (= 213237 (count result)))
+      (is (.startsWith result "3347320509"))))
+  (testing "A summarised answer is still there in full for ans"
+    (is (re-find #"^16326 digits:" (#'sut/evaluate -103 "5000!")))
+    (is (= "5000" (#'sut/evaluate -103 "ans(1)/4999!"))))
+  (testing "ans goes back in as a number, not all its digits"
+    (is (re-find #"^301030 digits:" (#'sut/evaluate -104 "2^1000000")))
+    (is (.endsWith (#'sut/evaluate -104 "ans(1)+1") "747109377"))
+    (is (= "1" (#'sut/evaluate -104 "ans(1)-ans(2)")))
+    (is (= "1" (#'sut/evaluate -104 "entry(2)-ans(3)"))))
+  (testing "Factorials too big to print give their leading digits and size"
+    (is (= "8.2639316883312400623766461031727E+5565708"
+           (#'sut/evaluate "1000000!"))))
+  (testing "Long fractions are summarised with their size and both ends"
+    (#'sut/evaluate -105 "setscale(100000)")
+    (is (re-find #"^100001 digits, 100000 after the point:  3\.14159265[0-9]+…[0-9]{60}$"
+                 (#'sut/evaluate -105 "pi")))
+    (is (re-find #"^200000 digits, 200000 after the point:  -\.3{60}…3{60}$"
+                 (#'sut/evaluate -105 "-1/3"))))
+  (testing "Factorials too big to estimate are refused, even past the biggest double"
+    (is (= "that factorial is too big even to estimate" (#'sut/evaluate "(10^20)!")))
+    (is (= "that factorial is too big even to estimate" (#'sut/evaluate "(10^309)!")))))
+
+(deftest test-evaluate-over-budget
+  (testing "Work that would go over the budget is refused before it starts"
+    (is (= "I'm not thinking that hard, wanker."
+           (#'sut/evaluate "roman(10^20)"))))
+  (testing "Roman numerals and gcds are charged for their quadratic work"
+    (doseq [expr ["roman(10^9)" "gcd(2^1000000+1, 3^600000)"]]
+      (is (thrown? ComputeBudget$Exceeded
+                   (.evaluate (CalculatorSessions.) nil expr)))))
+  (testing "So are sines at a big scale"
+    (let [sessions (CalculatorSessions.)]
+      (.evaluate sessions nil "setscale(100000)")
+      (is (thrown? ComputeBudget$Exceeded (.evaluate sessions nil "sin(1)")))))
+  (testing "The budget is counted, not timed, so the same equation always stops"
+    (let [sessions (doto (CalculatorSessions.) (.setBudget 1000000))]
+      (is (= "4" (.evaluate sessions nil "2+2")))
+      (dotimes [_ 3]
+        (is (thrown? ComputeBudget$Exceeded
+                     (.evaluate sessions nil "1000!^100")))))))
+
+(deftest test-evaluate-ranges
+  (testing "Aggregates over a range of values"
+    (is (re-find #"^1\.64492406689" (#'sut/evaluate "sum(1/n^2, n, 1, 100000)")))
+    (is (= "5050" (#'sut/evaluate "sum(n, n, 1, 100)")))
+    (is (= "3628800" (#'sut/evaluate "product(k, k, 1, 10)")))
+    (is (= "3025" (#'sut/evaluate "sum(sum(i*j, j, 1, 10), i, 1, 10)")))
+    (is (= "2.5" (#'sut/evaluate "avg(n, n, 1, 4)"))))
+  (testing "A table lists the values"
+    (is (= "{0, 1, 4, 9, 16}" (#'sut/evaluate "table(n^2, n, 0, 4)")))
+    (is (= "{0, .5, 1}" (#'sut/evaluate "table(n, n, 0, 1, 0.5)"))))
+  (testing "Ranges too long for the budget are refused"
+    (is (= "I'm not thinking that hard, wanker."
+           (#'sut/evaluate "sum(n, n, 1, 10^9)")))))
+
+(deftest test-all-digits-expression
+  (testing "\"all digits\" asks for a long answer in full"
+    (is (= "50000!" (#'sut/all-digits-expression "all digits 50000!")))
+    (is (= "2^100000" (#'sut/all-digits-expression "All digits of 2^100000")))
+    (is (nil? (#'sut/all-digits-expression "50000!")))))
+
 (deftest test-format-reply-short
   (testing "Short replies are returned as-is"
     (is (= "42" (#'sut/format-reply "42")))
@@ -1,80 +1,85 @@
 (ns org.goat.module.Countdown-test
   (:require [clojure.test :refer :all]
+            [clojure.string :as str]
             [org.goat.module.Countdown :as sut]
-            [org.goat.testutils.message :as msg-utils]))
+            [org.goat.testutils.message :as msg-utils])
+  (:import [org.goat.util CountdownPuzzles CountdownSolver CountdownTable]
+           [java.util Random]
+           [java.util.concurrent ForkJoinPool]))
 
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
 ;; HELPER FUNCTION TESTS ;;;;;;;;;;;;;;;;;
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
 
-(deftest test-extract-numbers
-  (testing "Extract numbers from expression"
-    (is (= [10 5 3] (#'sut/extract-numbers "10+5*3")))
-    (is (= [25 7 100] (#'sut/extract-numbers "25 + 7 * 100")))
-    (is (= [1 2 3 4] (#'sut/extract-numbers "(1+2)*(3+4)")))))
-
-(deftest test-numbers-valid
-  (testing "Valid number usage"
-    (is (true? (#'sut/numbers-valid? [25 7] [25 50 75 7 3 8])))
-    (is (true? (#'sut/numbers-valid? [25 7 3 8] [25 50 75 7 3 8])))
-    (is (true? (#'sut/numbers-valid? [] [25 50 75 7 3 8]))))
-
-  (testing "Invalid number usage - number not in selection"
-    (is (false? (#'sut/numbers-valid? [99] [25 50 75 7 3 8])))
-    (is (false? (#'sut/numbers-valid? [25 99] [25 50 75 7 3 8]))))
-
-  (testing "Invalid number usage - number used twice"
-    (is (false? (#'sut/numbers-valid? [25 25] [25 50 75 7 3 8])))
-    (is (false? (#'sut/numbers-valid? [7 7 7] [25 50 7 7 3 8])))))
-
-(deftest test-expression-valid
-  (testing "Valid expressions"
-    (is (true? (#'sut/expression-valid? "25+7")))
-    (is (true? (#'sut/expression-valid? "(25+7)*3")))
-    (is (true? (#'sut/expression-valid? "100/25-3+8")))
-    (is (true? (#'sut/expression-valid? "  25 + 7  "))))
-
-  (testing "Invalid expressions - bad operators"
-    (is (false? (#'sut/expression-valid? "25^7")))
-    (is (false? (#'sut/expression-valid? "25%7")))
-    (is (false? (#'sut/expression-valid? "25&7")))
-    (is (false? (#'sut/expression-valid? "sqrt(25)")))))
-
-(deftest test-validate-answer
-  (testing "Valid answer"
-    (let [result (#'sut/validate-answer "25+7" [25 7 3 8 2 10])]
-      (is (:valid result))))
-
-  (testing "Invalid answer - wrong number"
-    (let [result (#'sut/validate-answer "25+99" [25 7 3 8 2 10])]
-      (is (not (:valid result)))
-      (is (= "You used a number not in the selection!" (:error result)))))
-
-  (testing "Invalid answer - bad operator"
-    (let [result (#'sut/validate-answer "25^7" [25 7 3 8 2 10])]
-      (is (not (:valid result)))
-      (is (= "Invalid operators in expression" (:error result))))))
-
 (deftest test-evaluate-answer
   (testing "Successful evaluation"
-    (let [result (#'sut/evaluate-answer "25+7")]
+    (let [result (#'sut/evaluate-answer "25+7" [25 7 3 8 2 10])]
       (is (:success result))
       (is (= 32 (:value result)))))
 
   (testing "Complex expression"
-    (let [result (#'sut/evaluate-answer "(25+7)*3")]
+    (let [result (#'sut/evaluate-answer "(25+7)*3" [25 7 3 8 2 10])]
       (is (:success result))
       (is (= 96 (:value result)))))
 
   (testing "Division"
-    (let [result (#'sut/evaluate-answer "100/25")]
+    (let [result (#'sut/evaluate-answer "100/25" [100 25 3 8 2 10])]
       (is (:success result))
       (is (= 4 (:value result)))))
 
+  (testing "Spaces and precedence"
+    (is (= 8 (:value (#'sut/evaluate-answer "  100 / 25 - 3 + 8 - 2 * 2 + 3 " [100 25 3 8 2 2 3]))))
+    (is (= 14 (:value (#'sut/evaluate-answer "(1+2)*(3+4)-7" [1 2 3 4 7])))))
+
   (testing "Non-integer result"
-    (let [result (#'sut/evaluate-answer "25/7")]
+    (let [result (#'sut/evaluate-answer "25/7" [25 7 3 8 2 10])]
+      (is (not (:success result)))
+      (is (re-find #"non-int" (:error result)))))
+
+  (testing "Every step must be a whole number, even if the answer is"
+    (is (re-find #"non-int" (:error (#'sut/evaluate-answer "7/2*2" [7 2 2 3 8 10]))))))
+
+(deftest test-evaluate-answer-numbers
+  (testing "Number not in selection"
+    (let [result (#'sut/evaluate-answer "25+99" [25 7 3 8 2 10])]
       (is (not (:success result)))
-      (is (re-find #"non-int" (:error result))))))
+      (is (= "You used a number not in the selection!" (:error result)))))
+
+  (testing "Number used more often than drawn"
+    (is (= "You used a number not in the selection!"
+           (:error (#'sut/evaluate-answer "25+25" [25 50 75 7 3 8]))))
+    (is (= "You used a number not in the selection!"
+           (:error (#'sut/evaluate-answer "7+7+7" [25 50 7 7 3 8])))))
+
+  (testing "Duplicates drawn can each be used"
+    (is (= 14 (:value (#'sut/evaluate-answer "7+7" [25 50 7 7 3 8]))))))
+
+(deftest test-evaluate-answer-operators
+  (testing "Operators outside the round"
+    (doseq [expr ["25^7" "25%7" "25&7" "sqrt(25)"]]
+      (is (= "Invalid operators in expression"
+             (:error (#'sut/evaluate-answer expr [25 7 3 8 2 10]))))))
+
+  (testing "No negatives or zero along the way"
+    (is (re-find #"positive" (:error (#'sut/evaluate-answer "3-8+10" [3 8 10 25 2 7]))))
+    (is (re-find #"positive" (:error (#'sut/evaluate-answer "3-3" [3 3 10 25 2 7])))))
+
+  (testing "Malformed"
+    (is (not (:success (#'sut/evaluate-answer "(25+7" [25 7 3 8 2 10]))))
+    (is (not (:success (#'sut/evaluate-answer "25 7" [25 7 3 8 2 10]))))
+    (is (not (:success (#'sut/evaluate-answer "-3+10" [3 10 25 7 8 2]))))))
+
+(deftest test-evaluate-answer-variant
+  (testing "Variant operators"
+    (is (= 625 (:value (#'sut/evaluate-answer "25^2" [25 2 3 8 1 10] (#'sut/parse-variant "powers")))))
+    (is (= "Invalid operators in expression"
+           (:error (#'sut/evaluate-answer "25|2" [25 2 3 8 1 10] (#'sut/parse-variant "powers")))))
+    (is (= 26 (:value (#'sut/evaluate-answer "2 | 5 + 1" [2 5 1 3 8 10] (#'sut/parse-variant "concat")))))
+    (is (= 424 (:value (#'sut/evaluate-answer "5|3*(1+7)" [2 5 3 1 7 9] (#'sut/parse-variant "concat"))))))
+  (testing "Only two numbers can be joined, as the solver does"
+    (is (= "You can only join two numbers together"
+           (:error (#'sut/evaluate-answer "2|5|3*(1+7)" [2 5 3 1 7 9] (#'sut/parse-variant "concat")))))
+    (is (= 253 (:value (#'sut/evaluate-answer "25|3" [25 3 1 7 9 2] (#'sut/parse-variant "concat")))))))
 
 (deftest test-distance-from-target
   (testing "Distance calculation"
@@ -116,13 +121,186 @@
         (is (or (= big-count 1) (= big-count 2)))
         (is (or (= small-count 5) (= small-count 4)))))))
 
+(deftest test-draw-numbers-variant-size
+  (testing "Draw the variant's count of numbers"
+    (let [variant (#'sut/parse-variant "8")
+          numbers (#'sut/draw-numbers (#'sut/initialize-pools variant) 8)]
+      (is (= 8 (count numbers))))))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;; VARIANT TESTS ;;;;;;;;;;;;;;;;;;;;;;;;;
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+
+(deftest test-parse-variant
+  (testing "No words means the standard game"
+    (is (= sut/standard-variant (#'sut/parse-variant nil)))
+    (is (= sut/standard-variant (#'sut/parse-variant "")))
+    (is (#'sut/standard-variant? (#'sut/parse-variant "nonsense"))))
+
+  (testing "Options combine"
+    (let [variant (#'sut/parse-variant "8 Extrahard powers")]
+      (is (= 8 (:size variant)))
+      (is (= [12 37 62 87] (:big-pool variant)))
+      (is (= #{:plus :minus :times :divide :power} (:operators variant)))
+      (is (not (#'sut/standard-variant? variant))))))
+
+(deftest test-parse-difficulty
+  (testing "A difficulty keeps the standard rules"
+    (let [variant (#'sut/parse-variant "hard")]
+      (is (= :hard (:difficulty variant)))
+      (is (#'sut/standard-variant? variant))
+      (is (#'sut/generated-difficulty? variant))))
+  (testing "The generator only deals six-number standard-operator rounds"
+    (is (not (#'sut/generated-difficulty? (#'sut/parse-variant "easy 8"))))
+    (is (not (#'sut/generated-difficulty? (#'sut/parse-variant "easy powers"))))
+    (is (not (#'sut/generated-difficulty? (#'sut/parse-variant "7"))))))
+
+(deftest test-generate-puzzle
+  (testing "Generated puzzles can always be solved exactly"
+    (dotimes [_ 5]
+      (let [{:keys [source-numbers target-number]}
+            (#'sut/generate-puzzle (#'sut/parse-variant "hard"))]
+        (is (= 6 (count source-numbers)))
+        (is (<= 101 target-number 999))
+        (is (= target-number (#'sut/best-possible-value source-numbers target-number))))))
+  (testing "Easy and hard rounds are picked from the pools, so land in their band"
+    (let [generator (CountdownPuzzles. (int-array [25 50 75 100])
+                                       (int-array (mapcat #(repeat 2 %) (range 1 11)))
+                                       6 (Random. 1))]
+      (doseq [difficulty [CountdownPuzzles/EASY CountdownPuzzles/HARD]]
+        (dotimes [_ 20]
+          (is (= difficulty (.-difficulty (.generate generator difficulty))))))))
+  (testing "Out of time, the first draw rated is still dealt"
+    (let [puzzle (.generate (CountdownPuzzles.) CountdownPuzzles/EASY 0)]
+      (is (= (.-target puzzle)
+             (#'sut/best-possible-value (vec (.-draw puzzle)) (.-target puzzle)))))))
+
+(deftest test-describe-variant
+  (testing "Standard rounds need no description"
+    (is (nil? (#'sut/describe-variant sut/standard-variant))))
+  (testing "Variant rounds say what's different"
+    (is (= "7 numbers, also allowed: ^ |"
+           (#'sut/describe-variant (#'sut/parse-variant "7 powers concat")))))
+  (testing "Difficulty is mentioned when the generator deals it"
+    (is (= "easy" (#'sut/describe-variant (#'sut/parse-variant "easy"))))
+    (is (= "6 numbers, big numbers 12 37 62 87, medium"
+           (#'sut/describe-variant (#'sut/parse-variant "medium extrahard"))))))
+
+(deftest test-solve-variant
+  (testing "Variant solver uses the extra operators"
+    (let [{:keys [best-possible solution]}
+          (#'sut/solve-variant [2 3 5 7 1 9] 2187 (#'sut/parse-variant "powers"))]
+      (is (= 2187 best-possible))
+      (is (= "2187 = 3 ^ 7" solution)))))
+
+(deftest test-variant-solved-in-background
+  (testing "A variant round starts without waiting for its solver"
+    (reset! sut/state {})
+    (let [{:keys [source-numbers]}
+          (#'sut/start-new-game! :test-chat 12345 (#'sut/parse-variant "7 powers"))
+          game (#'sut/get-game-state :test-chat)
+          solved @(:solving game)]
+      (is (future? (:solving game)))
+      (is (= 7 (count source-numbers)))
+      (is (= solved (#'sut/solved-round (#'sut/get-game-state :test-chat))))
+      (is (<= 0 (:best-possible solved)))
+      (is (str/starts-with? (:solution solved) (str (:best-possible solved) " = "))))
+    (#'sut/clear-game! :test-chat)))
+
+(deftest test-parallel-solver
+  (testing "Solving in parallel gives the same answers as solving on one thread"
+    (let [draws (CountdownTable/standardDraws)
+          random (Random. 4)
+          workers (ForkJoinPool. 4)
+          sequential (CountdownSolver.)
+          parallel (CountdownSolver.)]
+      (try
+        (dotimes [_ 25]
+          (let [draw (aget draws (.nextInt random (alength draws)))]
+            (.solve sequential draw)
+            (.solve parallel draw workers)
+            (is (= (seq (.reachable sequential 2048)) (seq (.reachable parallel 2048)))
+                (str "reachable values for " (vec draw)))
+            (doseq [target (range 101 1000 37)]
+              (is (= (.describe sequential target) (.describe parallel target))
+                  (str "answer to " target " from " (vec draw))))))
+        (finally
+          (.shutdown workers))))))
+
 (deftest test-generate-target
   (testing "Generate target in valid range"
     (dotimes [_ 100]
       (let [target (#'sut/generate-target)]
+        (is (>= target 101))
+        (is (<= target 999)))))
+
+  (testing "Generate target for a draw stays in range"
+    (dotimes [_ 20]
+      (let [target (#'sut/generate-target [100 25 3 7 8 9])]
         (is (>= target 101))
         (is (<= target 999))))))
 
+(deftest test-best-possible-value
+  (testing "Best possible value matches the solver"
+    (is (= 100 (#'sut/best-possible-value [25 50 75 7 3 8] 100)))
+    (is (= 952 (#'sut/best-possible-value [100 75 50 25 6 3] 952)))))
+
+(deftest test-solutions-summary
+  (testing "Counts distinct solutions and shows a few"
+    (is (= "There were 181 ways to make 100, e.g. 75 + 25; 75 + 50 - 25; 25 * 7 - 75."
+           (#'sut/solutions-summary [25 50 75 7 3 8] 100))))
+  (testing "Padding with numbers that cancel out is not another way"
+    (is (= "There were 11 ways to make 710, e.g. 100 * 7 + 10; 100 * 7 + 9 + 3 / 3; 100 * (10 - 3) + 7 + 3."
+           (#'sut/solutions-summary [100 3 3 7 9 10] 710))))
+  (testing "A single solution"
+    (is (= "There was only 1 way to make 771."
+           (#'sut/solutions-summary [2 3 5 7 11 13] 771))))
+  (testing "Nothing to say when the target can't be made"
+    (is (nil? (#'sut/solutions-summary [1 1 1 1 1 1] 500)))))
+
+(deftest test-best-possible
+  (testing "Answers either side of the target are equally good"
+    (is (true? (#'sut/best-possible? 98 100 102)))
+    (is (true? (#'sut/best-possible? 100 100 100)))
+    (is (false? (#'sut/best-possible? 97 100 102))))
+  (testing "Only the target itself counts while the solver is still running"
+    (is (true? (#'sut/best-possible? 100 100 nil)))
+    (is (false? (#'sut/best-possible? 98 100 nil)))))
+
+(deftest test-letters-round
+  (testing "Asking for a letters round"
+    (is (true? (#'sut/letters-round? "letters")))
+    (is (true? (#'sut/letters-round? " Letters please")))
+    (is (false? (#'sut/letters-round? "hard")))
+    (is (false? (#'sut/letters-round? nil)))))
+
+(deftest test-draw-letters
+  (testing "Nine letters, three to five of them vowels"
+    (dotimes [_ 20]
+      (let [letters (#'sut/draw-letters)
+            vowels (count (filter (set "AEIOU") letters))]
+        (is (= 9 (count letters)))
+        (is (re-matches #"[A-Z]+" letters))
+        (is (<= 3 vowels 5))))))
+
+(deftest test-check-word
+  (let [index (org.goat.util.AnagramIndex. ["cat" "act" "cart" "trace" "crate"])]
+    (testing "Dictionary words made from the letters"
+      (is (= {:success true :word "CRATE"} (#'sut/check-word "crate" "TRACEXYZQ" index)))
+      (is (= {:success true :word "CAT"} (#'sut/check-word " Cat " "TRACEXYZQ" index))))
+
+    (testing "Made from the letters but not a word"
+      (is (= {:success false :error "TACE isn't in my dictionary."}
+             (#'sut/check-word "tace" "TRACEXYZQ" index))))
+
+    (testing "Chat is ignored"
+      (is (nil? (#'sut/check-word "hello there" "TRACEXYZQ" index)))
+      (is (nil? (#'sut/check-word "carts" "TRACEXYZQ" index)))
+      (is (nil? (#'sut/check-word "25+7" "TRACEXYZQ" index))))
+
+    (testing "Longest words in the draw"
+      (is (= ["CRATE" "TRACE"] (vec (.longest index "TRACEXYZQ")))))))
+
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
 ;; STATE MANAGEMENT TESTS ;;;;;;;;;;;;;;;;
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;